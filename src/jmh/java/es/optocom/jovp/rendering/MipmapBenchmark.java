@@ -0,0 +1,93 @@
+package es.optocom.jovp.rendering;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.optocom.jovp.definitions.MipmapFilter;
+
+/**
+ *
+ * Time to build the mip chain of square RGBA images on the CPU, with each
+ * filter, in linear light or not, in the common fork-join pool or in a
+ * single worker. Run with mvn -Pjmh test-compile exec:exec
+ *
+ * @since 0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class MipmapBenchmark {
+
+    @Param({"1024", "2048", "4096", "8192"})
+    public int size;
+
+    @Param({"LINEAR", "BOX", "LANCZOS", "KAISER"})
+    public MipmapFilter filter;
+
+    @Param({"false", "true"})
+    public boolean gammaCorrect;
+
+    @Param({"true", "false"})
+    public boolean parallel;
+
+    private float[] pixels;
+    private int levels;
+    private ForkJoinPool pool;
+
+    /**
+     *
+     * Fill an image with noise
+     *
+     * @since 0.0.1
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(size);
+        pixels = new float[4 * size * size];
+        for (int i = 0; i < pixels.length; i++) pixels[i] = random.nextFloat();
+        levels = Integer.numberOfTrailingZeros(size) + 1;
+        pool = parallel ? ForkJoinPool.commonPool() : new ForkJoinPool(1);
+    }
+
+    /**
+     *
+     * Shut down the single worker
+     *
+     * @since 0.0.1
+     */
+    @TearDown
+    public void tearDown() {
+        if (!parallel) pool.shutdown();
+    }
+
+    /**
+     *
+     * Build the mip chain
+     *
+     * @return The mip chain
+     *
+     * @since 0.0.1
+     */
+    @Benchmark
+    public float[][] generate() {
+        return MipmapGenerator.generate(pixels, size, size, 4, levels, filter, gammaCorrect, pool);
+    }
+
+}
@@ -0,0 +1,18 @@
+package es.optocom.jovp.definitions;
+
+/**
+ *
+ * Filter that builds each mip level of a texture from the one above
+ *
+ * @since 0.0.1
+ */
+public enum MipmapFilter {
+    /** Linear blits, as the device builds them. The default */
+    LINEAR,
+    /** Average of the texels each texel covers */
+    BOX,
+    /** Lanczos windowed sinc with three lobes. Sharper, with slight ringing */
+    LANCZOS,
+    /** Kaiser windowed sinc. Sharp with less ringing than Lanczos */
+    KAISER
+}
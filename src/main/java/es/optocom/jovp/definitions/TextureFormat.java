@@ -0,0 +1,56 @@
+package es.optocom.jovp.definitions;
+
+import static org.lwjgl.vulkan.VK10.VK_FORMAT_R16G16B16A16_SFLOAT;
+import static org.lwjgl.vulkan.VK10.VK_FORMAT_R16_UNORM;
+import static org.lwjgl.vulkan.VK10.VK_FORMAT_R32G32B32A32_SFLOAT;
+import static org.lwjgl.vulkan.VK10.VK_FORMAT_R8G8B8A8_SRGB;
+import static org.lwjgl.vulkan.VK10.VK_FORMAT_R8G8B8A8_UNORM;
+import static org.lwjgl.vulkan.VK10.VK_FORMAT_R8_UNORM;
+
+/**
+ *
+ * Texture format, how texels are stored in the texture image
+ *
+ * @since 0.0.1
+ */
+public enum TextureFormat {
+    /** Single 8-bit channel, read as all four components. For masks like text glyphs */
+    R8(VK_FORMAT_R8_UNORM, 1, Byte.BYTES),
+    /** Single 16-bit channel, read as opaque gray. For high bit-depth luminance */
+    R16(VK_FORMAT_R16_UNORM, 1, Short.BYTES),
+    /** 8-bit RGBA, values as they are */
+    RGBA8(VK_FORMAT_R8G8B8A8_UNORM, 4, Byte.BYTES),
+    /** 8-bit RGBA, sRGB encoded and read as linear */
+    SRGBA8(VK_FORMAT_R8G8B8A8_SRGB, 4, Byte.BYTES),
+    /** 16-bit float RGBA. For high bit-depth color */
+    RGBA16F(VK_FORMAT_R16G16B16A16_SFLOAT, 4, Short.BYTES),
+    /** 32-bit float RGBA */
+    RGBA32F(VK_FORMAT_R32G32B32A32_SFLOAT, 4, Float.BYTES);
+
+    /** Vulkan format */
+    public final int format;
+    /** Number of channels */
+    public final int channels;
+    /** Bytes per channel */
+    public final int bytes;
+
+    /** Set format, channels and bytes per channel */
+    TextureFormat(int format, int channels, int bytes) {
+        this.format = format;
+        this.channels = channels;
+        this.bytes = bytes;
+    }
+
+    /**
+     *
+     * Get the size of a texel
+     *
+     * @return Bytes per texel
+     *
+     * @since 0.0.1
+     */
+    public int texelSize() {
+        return channels * bytes;
+    }
+
+}
@@ -0,0 +1,238 @@
+package es.optocom.jovp.rendering;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.stb.STBTTFontinfo;
+import org.lwjgl.stb.STBTruetype;
+import org.lwjgl.system.MemoryStack;
+import static org.lwjgl.system.MemoryStack.stackPush;
+
+import es.optocom.jovp.definitions.FontType;
+import es.optocom.jovp.definitions.TextureFormat;
+import es.optocom.jovp.definitions.TextureType;
+
+/**
+ *
+ * Signed distance field font atlases shared by text objects with the same
+ * font. Each glyph is stored as its distance to the outline, so a single
+ * compact atlas renders sharp edges at any text size. A font is read and its
+ * glyphs packed the first time a text object uses it, and its data is freed
+ * when the last text object using it is destroyed. Atlas textures of the same
+ * font have the same key, so the texture cache gives all of them a single
+ * image.
+ *
+ * @since 0.0.1
+ */
+class FontAtlas {
+
+    static final int WIDTH = 512;
+    static final int HEIGHT = 512;
+    static final int CHAR_START = 32;
+    static final int CHAR_AMT = 96;
+    static final int PIXEL_HEIGHT = 48; // glyph height the distances are sampled at
+    static final int PADDING = 6; // pixels of distance around each glyph
+    static final byte ON_EDGE = (byte) 128; // value of the outline in the atlas
+    static final float DISTANCE_SCALE = 128.0f / PADDING; // atlas value change per pixel of distance
+
+    private static final Map<FontType, FontAtlas> ATLASES = new EnumMap<>(FontType.class);
+
+    final STBTTFontinfo fontInfo = STBTTFontinfo.calloc();
+    final Glyph[] glyphs = new Glyph[CHAR_AMT];
+    final float scale; // pixels per font unit
+    final int ascent;
+    final int descent;
+    final int lineGap;
+    private final FontType fontType;
+    private final String file;
+    private final ByteBuffer ttf; // font data, referenced by fontInfo
+    private final ByteBuffer bitmap = BufferUtils.createByteBuffer(WIDTH * HEIGHT);
+    private int references;
+
+    /**
+     *
+     * Get the atlas of a font, packing it if no text object uses it yet
+     *
+     * @param fontType Font type
+     *
+     * @return The atlas, with one more reference
+     *
+     * @since 0.0.1
+     */
+    static FontAtlas acquire(FontType fontType) {
+        FontAtlas atlas = ATLASES.computeIfAbsent(fontType, FontAtlas::new);
+        atlas.references++;
+        return atlas;
+    }
+
+    /**
+     *
+     * Release a reference to an atlas. When no references are left, its
+     * font data is freed
+     *
+     * @param atlas The atlas
+     *
+     * @since 0.0.1
+     */
+    static void release(FontAtlas atlas) {
+        if (--atlas.references > 0) return;
+        ATLASES.remove(atlas.fontType);
+        atlas.fontInfo.free();
+    }
+
+    /**
+     *
+     * Get the number of packed atlases
+     *
+     * @return The number of atlases
+     *
+     * @since 0.0.1
+     */
+    static int size() {
+        return ATLASES.size();
+    }
+
+    /**
+     *
+     * Get a texture of the atlas. Textures of the same atlas share the
+     * distance field and their image
+     *
+     * @param rgba Text color
+     *
+     * @return The texture
+     *
+     * @since 0.0.1
+     */
+    Texture texture(double[] rgba) {
+        Texture texture = new Texture(rgba, TextureFormat.R8, bitmap, WIDTH, HEIGHT);
+        texture.key = new TextureCache.Key(TextureType.TEXT, TextureFormat.R8, file, PIXEL_HEIGHT);
+        return texture;
+    }
+
+    /**
+     *
+     * Get the glyph of a character. Characters outside the atlas are drawn
+     * as a question mark
+     *
+     * @param character The character
+     *
+     * @return The glyph
+     *
+     * @since 0.0.1
+     */
+    Glyph glyph(char character) {
+        int index = character - CHAR_START;
+        return glyphs[index >= 0 && index < CHAR_AMT ? index : '?' - CHAR_START];
+    }
+
+    /**
+     *
+     * Get the kerning between two characters
+     *
+     * @param previous The previous character
+     * @param next The next character
+     *
+     * @return Pen adjustment in atlas pixels
+     *
+     * @since 0.0.1
+     */
+    float kerning(char previous, char next) {
+        return scale * STBTruetype.stbtt_GetCodepointKernAdvance(fontInfo, previous, next);
+    }
+
+    /**
+     *
+     * Glyph quad relative to the pen position on the baseline, in atlas
+     * pixels with y down, its texture coordinates, and the pen advance. The
+     * quad includes the distance padding around the outline
+     *
+     * @since 0.0.1
+     */
+    record Glyph(float x0, float y0, float x1, float y1, float s0, float t0, float s1, float t1, float advance) {}
+
+    /** read the font, its vertical metrics, and pack the distance fields of its glyphs */
+    private FontAtlas(FontType fontType) {
+        this.fontType = fontType;
+        file = switch (fontType) {
+            case MONSERRAT -> "es/optocom/jovp/fonts/montserrat/Montserrat-Regular.otf";
+            case MONSERRAT_BOLD -> "es/optocom/jovp/fonts/montserrat/Montserrat-Bold.otf";
+            case SANS -> "es/optocom/jovp/fonts/openSans/OpenSans-Regular.ttf";
+            case SANS_BOLD -> "es/optocom/jovp/fonts/openSans/OpenSans-Bold.ttf";
+        };
+        try {
+            ttf = loadResourceToByteBuffer(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (!STBTruetype.stbtt_InitFont(fontInfo, ttf))
+            throw new IllegalStateException("Failed to initialize font information.");
+        scale = STBTruetype.stbtt_ScaleForPixelHeight(fontInfo, PIXEL_HEIGHT);
+        try (MemoryStack stack = stackPush()) {
+            IntBuffer pAscent = stack.mallocInt(1);
+            IntBuffer pDescent = stack.mallocInt(1);
+            IntBuffer pLineGap = stack.mallocInt(1);
+            STBTruetype.stbtt_GetFontVMetrics(fontInfo, pAscent, pDescent, pLineGap);
+            ascent = pAscent.get(0);
+            descent = pDescent.get(0);
+            lineGap = pLineGap.get(0);
+        }
+        pack();
+    }
+
+    /** render the distance field of each glyph and pack them in rows into the atlas */
+    private void pack() {
+        try (MemoryStack stack = stackPush()) {
+            IntBuffer pWidth = stack.mallocInt(1);
+            IntBuffer pHeight = stack.mallocInt(1);
+            IntBuffer pXoff = stack.mallocInt(1);
+            IntBuffer pYoff = stack.mallocInt(1);
+            IntBuffer pAdvance = stack.mallocInt(1);
+            IntBuffer pBearing = stack.mallocInt(1);
+            int x = 1, y = 1, rowHeight = 0; // one pixel gap so glyphs do not bleed into each other
+            for (int i = 0; i < CHAR_AMT; i++) {
+                int codepoint = CHAR_START + i;
+                STBTruetype.stbtt_GetCodepointHMetrics(fontInfo, codepoint, pAdvance, pBearing);
+                float advance = scale * pAdvance.get(0);
+                ByteBuffer sdf = STBTruetype.stbtt_GetCodepointSDF(fontInfo, scale, codepoint, PADDING, ON_EDGE, DISTANCE_SCALE, pWidth, pHeight, pXoff, pYoff);
+                if (sdf == null) { // no outline, like space
+                    glyphs[i] = new Glyph(0, 0, 0, 0, 0, 0, 0, 0, advance);
+                    continue;
+                }
+                int width = pWidth.get(0), height = pHeight.get(0);
+                if (x + width + 1 > WIDTH) {
+                    x = 1;
+                    y += rowHeight + 1;
+                    rowHeight = 0;
+                }
+                if (y + height + 1 > HEIGHT) {
+                    STBTruetype.stbtt_FreeSDF(sdf);
+                    throw new RuntimeException("Font atlas too small for " + fontType);
+                }
+                for (int row = 0; row < height; row++)
+                    bitmap.put((y + row) * WIDTH + x, sdf, row * width, width);
+                STBTruetype.stbtt_FreeSDF(sdf);
+                float x0 = pXoff.get(0), y0 = pYoff.get(0);
+                glyphs[i] = new Glyph(x0, y0, x0 + width, y0 + height,
+                        x / (float) WIDTH, y / (float) HEIGHT, (x + width) / (float) WIDTH, (y + height) / (float) HEIGHT,
+                        advance);
+                x += width + 1;
+                rowHeight = Math.max(rowHeight, height);
+            }
+        }
+    }
+
+    /** read resource to bytebuffer */
+    private static ByteBuffer loadResourceToByteBuffer(String file) throws IOException {
+        try (InputStream is = FontAtlas.class.getClassLoader().getResourceAsStream(file)) {
+            if (is == null) throw new IOException("Resource not found: " + file);
+            byte[] byteArray = is.readAllBytes();
+            return BufferUtils.createByteBuffer(byteArray.length).put(byteArray).flip();
+        }
+    }
+
+}
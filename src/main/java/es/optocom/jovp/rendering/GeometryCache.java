@@ -0,0 +1,168 @@
+package es.optocom.jovp.rendering;
+
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lwjgl.system.MemoryStack;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.vulkan.VK10.VK_BUFFER_USAGE_INDEX_BUFFER_BIT;
+import static org.lwjgl.vulkan.VK10.VK_BUFFER_USAGE_TRANSFER_DST_BIT;
+import static org.lwjgl.vulkan.VK10.VK_BUFFER_USAGE_VERTEX_BUFFER_BIT;
+import static org.lwjgl.vulkan.VK10.VK_INDEX_TYPE_UINT16;
+import static org.lwjgl.vulkan.VK10.VK_INDEX_TYPE_UINT32;
+import static org.lwjgl.vulkan.VK10.VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT;
+import static org.lwjgl.vulkan.VK10.vkCmdCopyBuffer;
+import static org.lwjgl.vulkan.VK10.vkDestroyBuffer;
+import org.lwjgl.vulkan.VkBufferCopy;
+
+import es.optocom.jovp.definitions.ModelType;
+import es.optocom.jovp.definitions.Optotype;
+
+/**
+ *
+ * Device-local vertex and index buffers shared by renderables with identical
+ * models. Geometries are reference counted and destroyed when the last
+ * renderable using them releases them. Models without a key, like text, get
+ * their own geometry.
+ *
+ * @since 0.0.1
+ */
+class GeometryCache {
+
+    private static final Map<Key, Geometry> GEOMETRIES = new HashMap<>();
+
+    /**
+     *
+     * Get the geometry of a model, uploading it if it is not cached yet
+     *
+     * @param model The model
+     *
+     * @return The geometry, with one more reference
+     *
+     * @since 0.0.1
+     */
+    static Geometry acquire(Model model) {
+        if (model.key == null) return new Geometry(null, model);
+        Geometry geometry = GEOMETRIES.computeIfAbsent(model.key, key -> new Geometry(key, model));
+        geometry.references++;
+        return geometry;
+    }
+
+    /**
+     *
+     * Release a reference to a geometry. When no references are left, its
+     * buffers are destroyed once frames in flight are done with them
+     *
+     * @param geometry The geometry
+     *
+     * @since 0.0.1
+     */
+    static void release(Geometry geometry) {
+        if (geometry == null) return;
+        if (geometry.key != null) {
+            if (--geometry.references > 0) return;
+            GEOMETRIES.remove(geometry.key);
+        }
+        VulkanSetup.retire(geometry::destroy);
+    }
+
+    /**
+     *
+     * Get the number of cached geometries
+     *
+     * @return The number of geometries
+     *
+     * @since 0.0.1
+     */
+    static int size() {
+        return GEOMETRIES.size();
+    }
+
+    /**
+     *
+     * Destroy geometries still referenced, the device must be idle
+     *
+     * @since 0.0.1
+     */
+    static void destroy() {
+        GEOMETRIES.values().forEach(Geometry::destroy);
+        GEOMETRIES.clear();
+    }
+
+    /** everything that defines the geometry of a model */
+    record Key(ModelType type, int vertices, float ratio, Optotype optotype, String path, int flags) {}
+
+    /** vertex and index buffers of a model */
+    static class Geometry {
+
+        final Key key;
+        final int indexCount;
+        final int indexType;
+        final boolean flat;
+        long vertexBuffer;
+        long indexBuffer;
+        private MemoryAllocator.Allocation vertexBufferMemory;
+        private MemoryAllocator.Allocation indexBufferMemory;
+        private int references;
+
+        /** upload the model */
+        private Geometry(Key key, Model model) {
+            this.key = key;
+            indexCount = model.indices.length;
+            indexType = model.indexSize() == Short.BYTES ? VK_INDEX_TYPE_UINT16 : VK_INDEX_TYPE_UINT32;
+            flat = model.flat;
+            createVertexBuffer(model);
+            createIndexBuffer(model);
+        }
+
+        /** destroy vertex and index buffers */
+        private void destroy() {
+            vkDestroyBuffer(VulkanSetup.logicalDevice.device, indexBuffer, null);
+            VulkanSetup.memoryAllocator.free(indexBufferMemory);
+            vkDestroyBuffer(VulkanSetup.logicalDevice.device, vertexBuffer, null);
+            VulkanSetup.memoryAllocator.free(vertexBufferMemory);
+        }
+
+        /** create vertex buffer */
+        private void createVertexBuffer(Model model) {
+            try (MemoryStack stack = stackPush()) {
+                int bufferSize = Float.BYTES * model.vertices.length;
+                Uploads.Staging staging = Uploads.stage(bufferSize);
+                staging.data().asFloatBuffer().put(model.vertices);
+                LongBuffer pBuffer = stack.mallocLong(1);
+                vertexBufferMemory = VulkanSetup.createBuffer(bufferSize, VK_BUFFER_USAGE_TRANSFER_DST_BIT | VK_BUFFER_USAGE_VERTEX_BUFFER_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, pBuffer);
+                vertexBuffer = pBuffer.get(0);
+                copyBuffer(staging, vertexBuffer, bufferSize);
+            }
+        }
+
+        /** create index buffer, with 16-bit indices if the model has few enough vertices */
+        private void createIndexBuffer(Model model) {
+            try (MemoryStack stack = stackPush()) {
+                int bufferSize = model.indexSize() * model.indices.length;
+                Uploads.Staging staging = Uploads.stage(bufferSize);
+                if (indexType == VK_INDEX_TYPE_UINT16) {
+                    ShortBuffer buffer = staging.data().asShortBuffer();
+                    for (int index : model.indices) buffer.put((short) index);
+                } else staging.data().asIntBuffer().put(model.indices);
+                LongBuffer pBuffer = stack.mallocLong(1);
+                indexBufferMemory = VulkanSetup.createBuffer(bufferSize, VK_BUFFER_USAGE_TRANSFER_DST_BIT | VK_BUFFER_USAGE_INDEX_BUFFER_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, pBuffer);
+                indexBuffer = pBuffer.get(0);
+                copyBuffer(staging, indexBuffer, bufferSize);
+            }
+        }
+
+        /** record buffer copy in the upload batch */
+        private static void copyBuffer(Uploads.Staging staging, long dstBuffer, long size) {
+            try (MemoryStack stack = stackPush()) {
+                VkBufferCopy.Buffer copyRegion = VkBufferCopy.calloc(1, stack);
+                copyRegion.srcOffset(staging.offset()).size(size);
+                vkCmdCopyBuffer(Uploads.commandBuffer(), staging.buffer(), dstBuffer, copyRegion);
+            }
+        }
+
+    }
+
+}
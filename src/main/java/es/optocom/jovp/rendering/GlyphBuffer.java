@@ -0,0 +1,112 @@
+package es.optocom.jovp.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+
+import org.lwjgl.system.MemoryStack;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.vulkan.VK10.VK_BUFFER_USAGE_INDEX_BUFFER_BIT;
+import static org.lwjgl.vulkan.VK10.VK_BUFFER_USAGE_VERTEX_BUFFER_BIT;
+import static org.lwjgl.vulkan.VK10.VK_MEMORY_PROPERTY_HOST_COHERENT_BIT;
+import static org.lwjgl.vulkan.VK10.VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT;
+import static org.lwjgl.vulkan.VK10.vkDestroyBuffer;
+
+/**
+ *
+ * Host-visible vertex and index buffer for the glyph quads of a text, mapped
+ * for its whole life. Indices for every glyph it can hold are written once at
+ * the start of the buffer, followed by one vertex region per frame in flight
+ * that is rewritten in place when the text changes. Glyphs past the end of
+ * the text are zero-area quads, so the draw commands do not depend on the
+ * length of the text.
+ *
+ * @since 0.0.1
+ */
+class GlyphBuffer {
+
+    static final int GLYPH_VERTICES = 4;
+    static final int GLYPH_INDICES = 6;
+    static final int GLYPH_FLOATS = GLYPH_VERTICES * VulkanSetup.MODEL_SIZEOF / Float.BYTES;
+
+    final int capacity;
+    final long buffer;
+    private final MemoryAllocator.Allocation memory;
+    private final FloatBuffer vertices;
+
+    /**
+     *
+     * Create the glyph buffer
+     *
+     * @param capacity Number of glyphs it can hold, at least one
+     *
+     * @since 0.0.1
+     */
+    GlyphBuffer(int capacity) {
+        if (capacity < 1) throw new RuntimeException("Glyph buffer must hold at least one glyph, not " + capacity);
+        this.capacity = capacity;
+        long size = indexSize() + (long) VulkanSetup.framesInFlight * vertexSize();
+        try (MemoryStack stack = stackPush()) {
+            LongBuffer pBuffer = stack.mallocLong(1);
+            memory = VulkanSetup.createBuffer(size, VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_INDEX_BUFFER_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT | VK_MEMORY_PROPERTY_HOST_COHERENT_BIT, pBuffer);
+            buffer = pBuffer.get(0);
+        }
+        ByteBuffer mapping = memory.mapping();
+        for (int glyph = 0; glyph < capacity; glyph++) {
+            int vertex = GLYPH_VERTICES * glyph;
+            mapping.putInt(vertex).putInt(vertex + 1).putInt(vertex + 2)
+                   .putInt(vertex + 2).putInt(vertex + 3).putInt(vertex);
+        }
+        vertices = mapping.position(0).asFloatBuffer();
+    }
+
+    /**
+     *
+     * Get where the vertices of a frame in flight start in the buffer
+     *
+     * @param frame in-flight frame
+     *
+     * @return Offset in bytes
+     *
+     * @since 0.0.1
+     */
+    long vertexOffset(int frame) {
+        return indexSize() + (long) frame * vertexSize();
+    }
+
+    /**
+     *
+     * Write the glyph quads of a frame in flight, the frame must not be in
+     * use by the device
+     *
+     * @param frame in-flight frame
+     * @param layout Vertices of the glyphs, zeros past the end of the text
+     *
+     * @since 0.0.1
+     */
+    void write(int frame, float[] layout) {
+        vertices.put((int) (vertexOffset(frame) / Float.BYTES), layout, 0, capacity * GLYPH_FLOATS);
+    }
+
+    /**
+     *
+     * Destroy the glyph buffer
+     *
+     * @since 0.0.1
+     */
+    void destroy() {
+        vkDestroyBuffer(VulkanSetup.logicalDevice.device, buffer, null);
+        VulkanSetup.memoryAllocator.free(memory);
+    }
+
+    /** bytes of the indices of every glyph */
+    private long indexSize() {
+        return (long) GLYPH_INDICES * Integer.BYTES * capacity;
+    }
+
+    /** bytes of the vertices of every glyph in one frame in flight */
+    private long vertexSize() {
+        return (long) GLYPH_FLOATS * Float.BYTES * capacity;
+    }
+
+}
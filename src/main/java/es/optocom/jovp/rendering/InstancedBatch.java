@@ -0,0 +1,251 @@
+package es.optocom.jovp.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.lwjgl.system.MemoryStack;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.vulkan.VK10.VK_BUFFER_USAGE_STORAGE_BUFFER_BIT;
+import static org.lwjgl.vulkan.VK10.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER;
+import static org.lwjgl.vulkan.VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER_DYNAMIC;
+import static org.lwjgl.vulkan.VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC;
+import static org.lwjgl.vulkan.VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL;
+import static org.lwjgl.vulkan.VK10.VK_MEMORY_PROPERTY_HOST_COHERENT_BIT;
+import static org.lwjgl.vulkan.VK10.VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT;
+import static org.lwjgl.vulkan.VK10.VK_PIPELINE_BIND_POINT_GRAPHICS;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_DESCRIPTOR_POOL_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_DESCRIPTOR_SET_ALLOCATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_WRITE_DESCRIPTOR_SET;
+import static org.lwjgl.vulkan.VK10.VK_SUCCESS;
+import static org.lwjgl.vulkan.VK10.vkAllocateDescriptorSets;
+import static org.lwjgl.vulkan.VK10.vkCmdBindDescriptorSets;
+import static org.lwjgl.vulkan.VK10.vkCmdBindIndexBuffer;
+import static org.lwjgl.vulkan.VK10.vkCmdBindPipeline;
+import static org.lwjgl.vulkan.VK10.vkCmdBindVertexBuffers;
+import static org.lwjgl.vulkan.VK10.vkCmdDrawIndexed;
+import static org.lwjgl.vulkan.VK10.vkCreateDescriptorPool;
+import static org.lwjgl.vulkan.VK10.vkDestroyBuffer;
+import static org.lwjgl.vulkan.VK10.vkDestroyDescriptorPool;
+import static org.lwjgl.vulkan.VK10.vkUpdateDescriptorSets;
+import org.lwjgl.vulkan.VkCommandBuffer;
+import org.lwjgl.vulkan.VkDescriptorBufferInfo;
+import org.lwjgl.vulkan.VkDescriptorImageInfo;
+import org.lwjgl.vulkan.VkDescriptorPoolCreateInfo;
+import org.lwjgl.vulkan.VkDescriptorPoolSize;
+import org.lwjgl.vulkan.VkDescriptorSetAllocateInfo;
+import org.lwjgl.vulkan.VkWriteDescriptorSet;
+
+/**
+ *
+ * Items sharing vertex buffers and texture image drawn with a single
+ * instanced call for each eye. Per-item data, colors included, lives in a
+ * storage buffer and view, projection, and optics in a uniform buffer shared
+ * by all instances
+ *
+ * @since 0.0.1
+ */
+class InstancedBatch {
+
+    static final int INSTANCE_SIZEOF = 48 * Float.BYTES;
+    static final int EYE_SIZEOF = 40 * Float.BYTES;
+
+    final Item[] members;
+    private final Item[][] shown; // members drawn in each view pass
+    private final int regionSize; // aligned size of the instances for one frame and eye
+    private final long buffer;
+    private final MemoryAllocator.Allocation memory;
+    private final ByteBuffer mapping;
+    private final UniformArena.Block eyes;
+    private final long[] eyeVersions; // observer version written to each frame and eye
+    private final long descriptorPool;
+    private final long descriptorSet;
+
+    /**
+     *
+     * Create an instanced batch
+     *
+     * @param items Items sharing vertex buffers and texture image
+     *
+     * @since 0.0.1
+     */
+    InstancedBatch(List<Item> items) {
+        members = items.toArray(new Item[0]);
+        int passes = VulkanSetup.swapChain.viewPasses.size();
+        shown = new Item[passes][];
+        for (int passNumber = 0; passNumber < passes; passNumber++) {
+            final int pass = passNumber;
+            shown[passNumber] = Arrays.stream(members).filter(item -> item.shows(pass)).toArray(Item[]::new);
+        }
+        for (Item item : members) {
+            item.batch = this;
+            item.invalidateUniforms();
+        }
+        long alignment = VulkanSetup.getDeviceProperties(VulkanSetup.physicalDevice).limits().minStorageBufferOffsetAlignment();
+        regionSize = (int) ((members.length * INSTANCE_SIZEOF + alignment - 1) / alignment * alignment);
+        long size = (long) 2 * VulkanSetup.framesInFlight * regionSize;
+        try (MemoryStack stack = stackPush()) {
+            LongBuffer pBuffer = stack.mallocLong(1);
+            memory = VulkanSetup.createBuffer(size, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT | VK_MEMORY_PROPERTY_HOST_COHERENT_BIT, pBuffer);
+            buffer = pBuffer.get(0);
+            mapping = memory.mapping();
+        }
+        eyes = VulkanSetup.uniformArena.allocate();
+        eyeVersions = new long[2 * VulkanSetup.framesInFlight];
+        Arrays.fill(eyeVersions, -1);
+        descriptorPool = createDescriptorPool();
+        descriptorSet = createDescriptorSet();
+    }
+
+    /**
+     *
+     * Write the eye uniforms and the instances that changed for an in-flight frame
+     *
+     * @param frame in-flight frame to render
+     *
+     * @since 0.0.1
+     */
+    void prepare(int frame) {
+        Observer observer = VulkanSetup.observer;
+        for (int passNumber = 0; passNumber < shown.length; passNumber++) {
+            if (shown[passNumber].length == 0) continue;
+            int slot = frame + VulkanSetup.framesInFlight * passNumber;
+            if (eyeVersions[slot] != observer.version) {
+                ByteBuffer eye = eyes.slice(frame, passNumber);
+                Optics optics = observer.optics(passNumber);
+                int n = 0;
+                observer.view(passNumber).get(n * Float.BYTES, eye); n += 16;
+                observer.projection(passNumber).get(n * Float.BYTES, eye); n += 16;
+                optics.lensCenter.get(n * Float.BYTES, eye); n += 4;
+                optics.coefficients.get(n * Float.BYTES, eye);
+                eyeVersions[slot] = observer.version;
+            }
+            int region = slot * regionSize;
+            for (int i = 0; i < shown[passNumber].length; i++) {
+                Item item = shown[passNumber][i];
+                if (item.uniformsOutdated(frame, passNumber))
+                    item.writeInstance(mapping, region + i * INSTANCE_SIZEOF);
+            }
+        }
+    }
+
+    /**
+     *
+     * Record the instanced draw commands of the batch
+     *
+     * @param stack Memory stack
+     * @param commandBuffer Command buffer
+     * @param frame in-flight frame to render
+     *
+     * @since 0.0.1
+     */
+    void render(MemoryStack stack, VkCommandBuffer commandBuffer, int frame) {
+        Item first = members[0];
+        for (int passNumber = 0; passNumber < shown.length; passNumber++) {
+            if (shown[passNumber].length == 0) continue;
+            int slot = frame + VulkanSetup.framesInFlight * passNumber;
+            VulkanSetup.swapChain.viewPasses.get(passNumber).setViewport(stack, commandBuffer);
+            vkCmdBindPipeline(commandBuffer, VK_PIPELINE_BIND_POINT_GRAPHICS, first.geometry.flat ? VulkanSetup.pipelines.instancedFlatPipeline : VulkanSetup.pipelines.instancedPipeline);
+            vkCmdBindVertexBuffers(commandBuffer, 0, stack.longs(first.geometry.vertexBuffer), stack.longs(0));
+            vkCmdBindIndexBuffer(commandBuffer, first.geometry.indexBuffer, 0, first.geometry.indexType);
+            vkCmdBindDescriptorSets(commandBuffer, VK_PIPELINE_BIND_POINT_GRAPHICS, VulkanSetup.pipelines.instancedPipelineLayout, 0,
+                    stack.longs(descriptorSet), stack.ints(eyes.dynamicOffset(frame, passNumber), slot * regionSize));
+            vkCmdDrawIndexed(commandBuffer, first.geometry.indexCount, shown[passNumber].length, 0, 0, 0);
+            VulkanSetup.drawCalls++;
+        }
+    }
+
+    /**
+     *
+     * Release the batch once frames in flight are done with it. Members go
+     * back to being drawn on their own
+     *
+     * @since 0.0.1
+     */
+    void destroy() {
+        for (Item item : members) {
+            if (item.batch == this) item.batch = null;
+            item.invalidateUniforms();
+        }
+        UniformArena.Block block = eyes;
+        long pool = descriptorPool;
+        VulkanSetup.retire(() -> {
+            vkDestroyDescriptorPool(VulkanSetup.logicalDevice.device, pool, null);
+            VulkanSetup.uniformArena.free(block);
+            vkDestroyBuffer(VulkanSetup.logicalDevice.device, buffer, null);
+            VulkanSetup.memoryAllocator.free(memory);
+        });
+    }
+
+    /** create descriptor pool */
+    private long createDescriptorPool() {
+        try (MemoryStack stack = stackPush()) {
+            VkDescriptorPoolSize.Buffer poolSize = VkDescriptorPoolSize.calloc(3, stack);
+            poolSize.get(0).type(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC).descriptorCount(1);
+            poolSize.get(1).type(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER).descriptorCount(1);
+            poolSize.get(2).type(VK_DESCRIPTOR_TYPE_STORAGE_BUFFER_DYNAMIC).descriptorCount(1);
+            VkDescriptorPoolCreateInfo poolInfo = VkDescriptorPoolCreateInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_DESCRIPTOR_POOL_CREATE_INFO)
+                    .pPoolSizes(poolSize)
+                    .maxSets(1);
+            LongBuffer pDescriptorPool = stack.mallocLong(1);
+            int result = vkCreateDescriptorPool(VulkanSetup.logicalDevice.device, poolInfo, null, pDescriptorPool);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to create descriptor pool: " + VulkanSetup.translateVulkanResult(result));
+            return pDescriptorPool.get(0);
+        }
+    }
+
+    /** create the descriptor set, frames in flight and eyes are selected with dynamic offsets */
+    private long createDescriptorSet() {
+        try (MemoryStack stack = stackPush()) {
+            VkDescriptorSetAllocateInfo allocInfo = VkDescriptorSetAllocateInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_DESCRIPTOR_SET_ALLOCATE_INFO)
+                    .descriptorPool(descriptorPool)
+                    .pSetLayouts(stack.longs(VulkanSetup.logicalDevice.instancedDescriptorSetLayout));
+            LongBuffer pDescriptorSet = stack.mallocLong(1);
+            int result = vkAllocateDescriptorSets(VulkanSetup.logicalDevice.device, allocInfo, pDescriptorSet);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to allocate descriptor sets: " + VulkanSetup.translateVulkanResult(result));
+            long set = pDescriptorSet.get(0);
+            VkDescriptorBufferInfo.Buffer eyeInfo = VkDescriptorBufferInfo.calloc(1, stack)
+                    .buffer(eyes.buffer())
+                    .offset(eyes.offset)
+                    .range(EYE_SIZEOF);
+            VkDescriptorImageInfo.Buffer imageInfo = VkDescriptorImageInfo.calloc(1, stack)
+                    .imageLayout(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
+                    .imageView(members[0].image.imageView)
+                    .sampler(members[0].image.sampler);
+            VkDescriptorBufferInfo.Buffer instanceInfo = VkDescriptorBufferInfo.calloc(1, stack)
+                    .buffer(buffer)
+                    .offset(0)
+                    .range(regionSize);
+            VkWriteDescriptorSet.Buffer descriptorWrites = VkWriteDescriptorSet.calloc(3, stack);
+            descriptorWrites.get(0).sType(VK_STRUCTURE_TYPE_WRITE_DESCRIPTOR_SET)
+                    .dstSet(set)
+                    .dstBinding(0)
+                    .dstArrayElement(0)
+                    .descriptorType(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC)
+                    .descriptorCount(1)
+                    .pBufferInfo(eyeInfo);
+            descriptorWrites.get(1).sType(VK_STRUCTURE_TYPE_WRITE_DESCRIPTOR_SET)
+                    .dstSet(set)
+                    .dstBinding(1)
+                    .dstArrayElement(0)
+                    .descriptorType(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)
+                    .descriptorCount(1)
+                    .pImageInfo(imageInfo);
+            descriptorWrites.get(2).sType(VK_STRUCTURE_TYPE_WRITE_DESCRIPTOR_SET)
+                    .dstSet(set)
+                    .dstBinding(2)
+                    .dstArrayElement(0)
+                    .descriptorType(VK_DESCRIPTOR_TYPE_STORAGE_BUFFER_DYNAMIC)
+                    .descriptorCount(1)
+                    .pBufferInfo(instanceInfo);
+            vkUpdateDescriptorSets(VulkanSetup.logicalDevice.device, descriptorWrites, null);
+            return set;
+        }
+    }
+
+}
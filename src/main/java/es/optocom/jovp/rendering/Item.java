@@ -7,19 +7,13 @@ import org.joml.Matrix4f;
 import org.joml.Quaterniond;
 import org.joml.Vector2d;
 import org.joml.Vector3d;
+import org.joml.Vector3f;
 import org.joml.Vector4f;
-import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryStack;
-import static org.lwjgl.system.MemoryStack.stackPush;
-import static org.lwjgl.vulkan.VK10.vkMapMemory;
-import static org.lwjgl.vulkan.VK10.vkUnmapMemory;
 import org.lwjgl.vulkan.VkCommandBuffer;
 
 import es.optocom.jovp.definitions.EnvelopeType;
-import es.optocom.jovp.definitions.Projection;
 import es.optocom.jovp.definitions.Units;
-import es.optocom.jovp.definitions.ViewEye;
-import es.optocom.jovp.definitions.ViewMode;
 
 /**
  * 
@@ -35,7 +29,13 @@ public class Item extends Renderable {
     private Vector3d size; // size in x, y in item's units, and z in meters
     private Vector3d rotation; // angles of rotation in each axis in radians
     private Matrix4d modelMatrix; // model matrix
+    private final Matrix4f modelMatrixf = new Matrix4f(); // model matrix in single precision for the shaders
     private Processing processing; // Post-processing things
+    private final Vector2d sizeAngles = new Vector2d(); // scratch values to write the uniforms
+    private final Vector4f frequency = new Vector4f();
+    private final Vector3f texRotation = new Vector3f();
+    private final Vector3f envelope = new Vector3f();
+    InstancedBatch batch; // batch drawing the item, if any
 
     /**
      * 
@@ -415,90 +415,104 @@ public class Item extends Renderable {
 
     /**
      * 
-     * Render item or text
+     * Write the uniforms of an in-flight frame
+     *
+     * @param frame in-flight frame to render
+     *
+     * @since 0.0.1
+     */
+    void prepare(int frame) {
+        Observer observer = VulkanSetup.observer;
+        for (int passNumber = 0; passNumber < VulkanSetup.swapChain.viewPasses.size(); passNumber++)
+            if (shows(passNumber))
+                updateUniforms(frame, passNumber, observer.view(passNumber), observer.projection(passNumber), observer.optics(passNumber));
+    }
+
+    /**
+     * 
+     * Record the draw commands of the item
      *
      * @param stack Memory stack
      * @param commandBuffer Command buffer
-     * @param image in-flight frame to render
+     * @param frame in-flight frame to render
      *
      * @since 0.0.1
      */
-     void render(MemoryStack stack, VkCommandBuffer commandBuffer, int image) {
-        if (viewEye == ViewEye.NONE) return;
-        if (VulkanSetup.observer.viewMode == ViewMode.MONO) {
-            draw(stack, commandBuffer, image, 0);
-            return;
-        }
-        switch (viewEye) {
-            case LEFT -> draw(stack, commandBuffer, image, 0);
-            case RIGHT -> draw(stack, commandBuffer, image, 1);
-            case BOTH -> {
-                draw(stack, commandBuffer, image, 0);
-                draw(stack, commandBuffer, image, 1);
-            }
-            default -> { return; }
+    void render(MemoryStack stack, VkCommandBuffer commandBuffer, int frame) {
+        for (int passNumber = 0; passNumber < VulkanSetup.swapChain.viewPasses.size(); passNumber++) {
+            if (!shows(passNumber)) continue;
+            VulkanSetup.swapChain.viewPasses.get(passNumber).setViewport(stack, commandBuffer);
+            draw(stack, commandBuffer, frame, passNumber, geometry.flat ? VulkanSetup.pipelines.flatPipeline : VulkanSetup.pipelines.graphicsPipeline, VulkanSetup.pipelines.graphicsPipelineLayout);
         }
     }
 
-    /** Update uniforms for the image to be rendered */
-    private void draw(MemoryStack stack, VkCommandBuffer commandBuffer, int image, int passNumber) {
-        ViewPass viewPass = VulkanSetup.swapChain.viewPasses.get(passNumber);
-        Observer observer = VulkanSetup.observer;
-        Matrix4f view = switch (observer.viewMode) {
-            case MONO -> observer.view;
-            case STEREO -> observer.projection == Projection.ORTHOGRAPHIC ? observer.view : passNumber == 0 ? observer.viewLeft : observer.viewRight;
-        };
-        Matrix4f projection = switch(observer.projection) {
-            case ORTHOGRAPHIC -> projection = switch (observer.viewMode) {
-                case MONO -> observer.orthographic;
-                case STEREO -> passNumber == 0 ? observer.orthographicLeft : observer.orthographicRight;
-            };
-            case PERSPECTIVE -> projection = switch (observer.viewMode) {
-                case MONO -> observer.perspective;
-                case STEREO -> passNumber == 0 ? observer.perspectiveLeft : observer.perspectiveRight;
-            };
-        };
-
-        Optics optics = passNumber == 0 ? observer.opticsLeft : observer.opticsRight;
-        updateUniforms(image, passNumber, view, projection, optics);
-        draw(stack, commandBuffer, image, passNumber, viewPass.graphicsPipeline, viewPass.graphicsPipelineLayout);
-    }
-
     /**
      *
-     * Update uniforms for the image to be rendered
+     * Update uniforms for the frame to be rendered
      *
-     * @param image Image to be rendered
+     * @param frame in-flight frame to be rendered
      * @param view View matrix
      * @param projection Projection matrix
      * @param optics optics
      *
      * @since 0.0.1
      */
-    void updateUniforms(int image, int eye, Matrix4f view, Matrix4f projection, Optics optics) {
-        Vector4f frequency = processing.getFrequency(sizeUnitsToAngles());
-        try (MemoryStack stack = stackPush()) {
-            PointerBuffer data = stack.mallocPointer(1);
-            vkMapMemory(VulkanSetup.logicalDevice.device, getUniformMemory(image, eye), 0, UNIFORM_SIZEOF, 0, data);
-            {
-                ByteBuffer buffer = data.getByteBuffer(0, UNIFORM_SIZEOF);
-                int n = 0;
-                processing.settings.get(n * Float.BYTES, buffer); n += 4;
-                new Matrix4f(modelMatrix).get(n * Float.BYTES, buffer); n += 16;
-                view.get(n * Float.BYTES, buffer); n += 16;
-                projection.get(n * Float.BYTES, buffer); n += 16;
-                optics.lensCenter.get(n * Float.BYTES, buffer); n += 4;
-                optics.coefficients.get(n * Float.BYTES, buffer); n += 4;
-                getTexture().rgba0.get(n * Float.BYTES, buffer); n += 4;
-                getTexture().rgba1.get(n * Float.BYTES, buffer); n += 4;
-                frequency.get(n * Float.BYTES, buffer); n += 4;
-                processing.getRotation(frequency).get(n * Float.BYTES, buffer); n += 4;
-                processing.contrast.get(n * Float.BYTES, buffer); n += 4;
-                processing.getEnvelope(size).get(n * Float.BYTES, buffer); n += 4;
-                processing.defocus.get(n * Float.BYTES, buffer);
-            }
-            vkUnmapMemory(VulkanSetup.logicalDevice.device, getUniformMemory(image, eye));
-        }
+    void updateUniforms(int frame, int eye, Matrix4f view, Matrix4f projection, Optics optics) {
+        if (!uniformsOutdated(frame, eye)) return;
+        processing.getFrequency(sizeUnitsToAngles(sizeAngles), frequency);
+        ByteBuffer buffer = getUniforms(frame, eye);
+        int n = 0;
+        processing.settings.get(n * Float.BYTES, buffer); n += 4;
+        modelMatrixf.get(n * Float.BYTES, buffer); n += 16;
+        view.get(n * Float.BYTES, buffer); n += 16;
+        projection.get(n * Float.BYTES, buffer); n += 16;
+        optics.lensCenter.get(n * Float.BYTES, buffer); n += 4;
+        optics.coefficients.get(n * Float.BYTES, buffer); n += 4;
+        getTexture().rgba0.get(n * Float.BYTES, buffer); n += 4;
+        getTexture().rgba1.get(n * Float.BYTES, buffer); n += 4;
+        frequency.get(n * Float.BYTES, buffer); n += 4;
+        processing.getRotation(frequency, texRotation).get(n * Float.BYTES, buffer); n += 4;
+        processing.contrast.get(n * Float.BYTES, buffer); n += 4;
+        processing.getEnvelope(size, envelope).get(n * Float.BYTES, buffer); n += 4;
+        processing.defocus.get(n * Float.BYTES, buffer);
+    }
+
+    /**
+     *
+     * Write the per-instance data of the item for instanced rendering.
+     * View, projection, and optics are shared by all instances
+     *
+     * @param buffer Mapped storage buffer memory
+     * @param offset Offset of the instance in bytes
+     *
+     * @since 0.0.1
+     */
+    void writeInstance(ByteBuffer buffer, int offset) {
+        processing.getFrequency(sizeUnitsToAngles(sizeAngles), frequency);
+        int n = offset / Float.BYTES;
+        processing.settings.get(n * Float.BYTES, buffer);
+        buffer.putInt((n + 3) * Float.BYTES, 0); n += 4;
+        modelMatrixf.get(n * Float.BYTES, buffer); n += 16;
+        getTexture().rgba0.get(n * Float.BYTES, buffer); n += 4;
+        getTexture().rgba1.get(n * Float.BYTES, buffer); n += 4;
+        frequency.get(n * Float.BYTES, buffer); n += 4;
+        processing.getRotation(frequency, texRotation).get(n * Float.BYTES, buffer); n += 4;
+        processing.contrast.get(n * Float.BYTES, buffer); n += 4;
+        processing.getEnvelope(size, envelope).get(n * Float.BYTES, buffer); n += 4;
+        processing.defocus.get(n * Float.BYTES, buffer);
+    }
+
+    /**
+     *
+     * Get the latest version among the inputs of the uniforms, including postprocessing
+     *
+     * @return The version
+     *
+     * @since 0.0.1
+     */
+    @Override
+    long uniformsVersion() {
+        return Math.max(super.uniformsVersion(), processing.version);
     }
 
     /** update model matrix */
@@ -506,6 +520,8 @@ public class Item extends Renderable {
         Vector3d pos = worldPosition();
         Quaterniond quaternion = (units == Units.SPHERICAL ? sphericalRotation(pos) : new Quaterniond()).rotateZYX(rotation.z, rotation.y, rotation.x);
         modelMatrix.translationRotateScale(pos, quaternion, getScale());
+        modelMatrixf.set(modelMatrix);
+        version = VulkanSetup.nextVersion();
     }
 
     /** Spherical rotation */
@@ -562,12 +578,12 @@ public class Item extends Renderable {
         return 2.0 * getDistance() * Math.tan(Math.toRadians(ang) / 2.0);
     }
     
-    /** returns the size in visual angles */ 
-    private Vector2d sizeUnitsToAngles() {
+    /** returns the size in visual angles into dest */ 
+    private Vector2d sizeUnitsToAngles(Vector2d dest) {
         return switch (units) {
-            case ANGLES, SPHERICAL -> new Vector2d(size.x, size.y);
-            case METERS -> new Vector2d(metersToAngles(size.x), metersToAngles(size.y));
-            case PIXELS -> new Vector2d(xPixelsToMeters(size.x), xPixelsToMeters(size.y));
+            case ANGLES, SPHERICAL -> dest.set(size.x, size.y);
+            case METERS -> dest.set(metersToAngles(size.x), metersToAngles(size.y));
+            case PIXELS -> dest.set(xPixelsToMeters(size.x), xPixelsToMeters(size.y));
         };
     }
 
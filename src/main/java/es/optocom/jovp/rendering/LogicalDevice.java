@@ -12,7 +12,8 @@ import static org.lwjgl.vulkan.VK10.VK_SHADER_STAGE_VERTEX_BIT;
 import static org.lwjgl.vulkan.VK10.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_DEVICE_QUEUE_CREATE_INFO;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_DEVICE_CREATE_INFO;
-import static org.lwjgl.vulkan.VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER;
+import static org.lwjgl.vulkan.VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC;
+import static org.lwjgl.vulkan.VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER_DYNAMIC;
 import static org.lwjgl.vulkan.VK10.VK_SHADER_STAGE_FRAGMENT_BIT;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_DESCRIPTOR_SET_LAYOUT_CREATE_INFO;
 import static org.lwjgl.vulkan.VK10.VK_SAMPLE_COUNT_1_BIT;
@@ -45,6 +46,7 @@ public class LogicalDevice {
     VkQueue graphicsQueue;
     VkQueue presentQueue;
     long descriptorSetLayout;
+    long instancedDescriptorSetLayout;
     final int msaaSamples;
 
     /**
@@ -55,6 +57,7 @@ public class LogicalDevice {
     LogicalDevice(long surface, VkPhysicalDevice physicalDevice) {
         createLogicalDevice(surface, physicalDevice);
         createDescriptorSetLayout();
+        createInstancedDescriptorSetLayout();
         msaaSamples = getMaxUsableSampleCount(physicalDevice);
     }
 
@@ -64,6 +67,7 @@ public class LogicalDevice {
      * @since 0.0.1
      */
     void destroy() {
+        vkDestroyDescriptorSetLayout(device, instancedDescriptorSetLayout, null);
         vkDestroyDescriptorSetLayout(device, descriptorSetLayout, null);
         vkDestroyDevice(device, null);
     }
@@ -111,7 +115,7 @@ public class LogicalDevice {
             VkDescriptorSetLayoutBinding.Buffer bindings = VkDescriptorSetLayoutBinding.calloc(2, stack);
             VkDescriptorSetLayoutBinding uboLayoutBinding = bindings.get(0);
             uboLayoutBinding.binding(0)
-                    .descriptorType(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER)
+                    .descriptorType(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC)
                     .descriptorCount(1)
                     .pImmutableSamplers(null)
                     .stageFlags(VK_SHADER_STAGE_VERTEX_BIT);
@@ -132,6 +136,39 @@ public class LogicalDevice {
         }
     }
 
+    /** create descriptor set layout for instanced items: eye uniforms, sampler, and per-instance storage */
+    private void createInstancedDescriptorSetLayout() {
+        try (MemoryStack stack = stackPush()) {
+            VkDescriptorSetLayoutBinding.Buffer bindings = VkDescriptorSetLayoutBinding.calloc(3, stack);
+            VkDescriptorSetLayoutBinding uboLayoutBinding = bindings.get(0);
+            uboLayoutBinding.binding(0)
+                    .descriptorType(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC)
+                    .descriptorCount(1)
+                    .pImmutableSamplers(null)
+                    .stageFlags(VK_SHADER_STAGE_VERTEX_BIT);
+            VkDescriptorSetLayoutBinding samplerLayoutBinding = bindings.get(1);
+            samplerLayoutBinding.binding(1)
+                    .descriptorType(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)
+                    .descriptorCount(1)
+                    .pImmutableSamplers(null)
+                    .stageFlags(VK_SHADER_STAGE_FRAGMENT_BIT);
+            VkDescriptorSetLayoutBinding ssboLayoutBinding = bindings.get(2);
+            ssboLayoutBinding.binding(2)
+                    .descriptorType(VK_DESCRIPTOR_TYPE_STORAGE_BUFFER_DYNAMIC)
+                    .descriptorCount(1)
+                    .pImmutableSamplers(null)
+                    .stageFlags(VK_SHADER_STAGE_VERTEX_BIT);
+            VkDescriptorSetLayoutCreateInfo layoutInfo = VkDescriptorSetLayoutCreateInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_DESCRIPTOR_SET_LAYOUT_CREATE_INFO)
+                    .pBindings(bindings);
+            LongBuffer pDescriptorSetLayout = stack.mallocLong(1);
+            int result = vkCreateDescriptorSetLayout(device, layoutInfo, null, pDescriptorSetLayout);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to create descriptor set layout: " + VulkanSetup.translateVulkanResult(result));
+            instancedDescriptorSetLayout = pDescriptorSetLayout.get(0);
+        }
+    }
+
     /** obtain the maximum usable samples for a physical device */
     static int getMaxUsableSampleCount(VkPhysicalDevice physicalDevice) {
         try (MemoryStack stack = stackPush()) {
@@ -0,0 +1,236 @@
+package es.optocom.jovp.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.system.MemoryUtil.memByteBuffer;
+import static org.lwjgl.vulkan.VK10.VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_MEMORY_ALLOCATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_SUCCESS;
+import static org.lwjgl.vulkan.VK10.vkAllocateMemory;
+import static org.lwjgl.vulkan.VK10.vkFreeMemory;
+import static org.lwjgl.vulkan.VK10.vkMapMemory;
+import org.lwjgl.vulkan.VkMemoryAllocateInfo;
+import org.lwjgl.vulkan.VkMemoryRequirements;
+
+/**
+ *
+ * Device memory manager. Memory is allocated from the device in large blocks,
+ * one pool of blocks per memory type, and buffers and images take aligned
+ * ranges of them from a free list that merges neighbouring free ranges.
+ * Buffers and images live in separate pools so that the buffer-image
+ * granularity of the device never matters. Host-visible blocks are mapped
+ * for their whole life. Resources larger than half a block get a block of
+ * their own.
+ *
+ * @since 0.0.1
+ */
+class MemoryAllocator {
+
+    static final long BLOCK_SIZE = 64L << 20;
+
+    private final Map<Integer, List<Block>> pools = new HashMap<>();
+    private int allocations = 0;
+
+    /**
+     *
+     * Allocate device memory for a resource
+     *
+     * @param requirements Memory requirements of the resource
+     * @param properties Required memory properties
+     * @param image Whether the resource is an image with optimal tiling
+     *
+     * @return The allocation
+     *
+     * @since 0.0.1
+     */
+    synchronized Allocation allocate(VkMemoryRequirements requirements, int properties, boolean image) {
+        int memoryType = VulkanSetup.findMemoryType(requirements.memoryTypeBits(), properties);
+        List<Block> pool = pools.computeIfAbsent(2 * memoryType + (image ? 1 : 0), key -> new ArrayList<>());
+        long size = requirements.size();
+        long alignment = requirements.alignment();
+        if (size > BLOCK_SIZE / 2) {
+            Block block = new Block(pool, memoryType, size, properties);
+            return block.allocate(size, alignment);
+        }
+        for (Block block : pool) {
+            Allocation allocation = block.allocate(size, alignment);
+            if (allocation != null) return allocation;
+        }
+        return new Block(pool, memoryType, BLOCK_SIZE, properties).allocate(size, alignment);
+    }
+
+    /**
+     *
+     * Give memory back. Blocks left empty go back to the device, except the
+     * last block of each pool
+     *
+     * @param allocation The allocation
+     *
+     * @since 0.0.1
+     */
+    synchronized void free(Allocation allocation) {
+        Block block = allocation.block;
+        block.free(allocation.offset, allocation.size);
+        if (block.used == 0 && (block.size != BLOCK_SIZE || block.pool.size() > 1)) block.destroy();
+    }
+
+    /**
+     *
+     * Get memory statistics
+     *
+     * @return Number of allocations, number of device memory blocks, bytes
+     *         allocated from the device, bytes in use, and fragmentation of
+     *         the free space, from 0 when it is all in one range to 1
+     *
+     * @since 0.0.1
+     */
+    synchronized Stats stats() {
+        int blocks = 0;
+        long allocated = 0;
+        long used = 0;
+        long largestFree = 0;
+        for (List<Block> pool : pools.values()) {
+            for (Block block : pool) {
+                blocks++;
+                allocated += block.size;
+                used += block.used;
+                for (long free : block.free.values()) largestFree = Math.max(largestFree, free);
+            }
+        }
+        long free = allocated - used;
+        double fragmentation = free == 0 ? 0 : 1 - (double) largestFree / free;
+        return new Stats(allocations, blocks, allocated, used, fragmentation);
+    }
+
+    /**
+     *
+     * Give all blocks back to the device
+     *
+     * @since 0.0.1
+     */
+    synchronized void destroy() {
+        for (List<Block> pool : pools.values())
+            for (Block block : pool)
+                vkFreeMemory(VulkanSetup.logicalDevice.device, block.memory, null);
+        pools.clear();
+        allocations = 0;
+    }
+
+    /** memory statistics */
+    record Stats(int allocations, int blocks, long allocated, long used, double fragmentation) {}
+
+    /** range of a block of device memory */
+    static class Allocation {
+
+        final long offset;
+        final long size;
+        private final Block block;
+
+        /** range of the block */
+        private Allocation(Block block, long offset, long size) {
+            this.block = block;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        /** device memory to bind the resource to, at the offset of the allocation */
+        long memory() {
+            return block.memory;
+        }
+
+        /** mapped memory of a host-visible allocation */
+        ByteBuffer mapping() {
+            return memByteBuffer(block.address + offset, (int) size).order(ByteOrder.nativeOrder());
+        }
+
+    }
+
+    /** block of device memory with a free list of ranges, offset to size */
+    private class Block {
+
+        final List<Block> pool;
+        final long memory;
+        final long size;
+        final long address;
+        final TreeMap<Long, Long> free = new TreeMap<>();
+        long used = 0;
+
+        /** allocate, and map if host visible, the block and add it to its pool */
+        Block(List<Block> pool, int memoryType, long size, int properties) {
+            this.pool = pool;
+            this.size = size;
+            try (MemoryStack stack = stackPush()) {
+                VkMemoryAllocateInfo allocInfo = VkMemoryAllocateInfo.calloc(stack)
+                        .sType(VK_STRUCTURE_TYPE_MEMORY_ALLOCATE_INFO)
+                        .allocationSize(size)
+                        .memoryTypeIndex(memoryType);
+                LongBuffer pMemory = stack.mallocLong(1);
+                int result = vkAllocateMemory(VulkanSetup.logicalDevice.device, allocInfo, null, pMemory);
+                if (result != VK_SUCCESS)
+                    throw new RuntimeException("Failed to allocate device memory: " + VulkanSetup.translateVulkanResult(result));
+                memory = pMemory.get(0);
+                if ((properties & VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT) != 0) {
+                    PointerBuffer data = stack.mallocPointer(1);
+                    result = vkMapMemory(VulkanSetup.logicalDevice.device, memory, 0, size, 0, data);
+                    if (result != VK_SUCCESS)
+                        throw new RuntimeException("Failed to map device memory: " + VulkanSetup.translateVulkanResult(result));
+                    address = data.get(0);
+                } else address = 0;
+            }
+            free.put(0L, size);
+            pool.add(this);
+        }
+
+        /** take the first free range that fits, null if none does */
+        Allocation allocate(long size, long alignment) {
+            for (Map.Entry<Long, Long> range : free.entrySet()) {
+                long start = range.getKey();
+                long end = start + range.getValue();
+                long offset = (start + alignment - 1) / alignment * alignment;
+                if (offset + size > end) continue;
+                free.remove(start);
+                if (offset > start) free.put(start, offset - start);
+                if (offset + size < end) free.put(offset + size, end - offset - size);
+                used += size;
+                allocations++;
+                return new Allocation(this, offset, size);
+            }
+            return null;
+        }
+
+        /** give a range back, merging it with its free neighbours */
+        void free(long offset, long size) {
+            used -= size;
+            allocations--;
+            Map.Entry<Long, Long> next = free.ceilingEntry(offset);
+            if (next != null && next.getKey() == offset + size) {
+                size += next.getValue();
+                free.remove(next.getKey());
+            }
+            Map.Entry<Long, Long> previous = free.floorEntry(offset);
+            if (previous != null && previous.getKey() + previous.getValue() == offset) {
+                offset = previous.getKey();
+                size += previous.getValue();
+            }
+            free.put(offset, size);
+        }
+
+        /** give the block back to the device */
+        void destroy() {
+            pool.remove(this);
+            vkFreeMemory(VulkanSetup.logicalDevice.device, memory, null);
+        }
+
+    }
+
+}
@@ -0,0 +1,266 @@
+package es.optocom.jovp.rendering;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import es.optocom.jovp.definitions.ModelType;
+import es.optocom.jovp.definitions.Optotype;
+
+/**
+ *
+ * Optimized meshes of models loaded from files and of the Sloan optotypes.
+ * A mesh is built once per process and kept in memory. It is also stored in
+ * a compact binary file in the cache directory under the hash of its source,
+ * and later runs memory-map that file instead of parsing the source again.
+ * All optotypes are parsed together the first time one is needed.
+ *
+ * @since 0.0.1
+ */
+class MeshCache {
+
+    private static final String OPTOTYPE_OBJECT = "es/optocom/jovp/models/Sloan.obj"; // Optotypes object file
+    private static final int MAGIC = 0x4a4f564d; // JOVM
+    private static final int VERSION = 2; // bumped when the file layout or the mesh optimization changes
+    private static final Map<Source, Mesh> MODELS = new ConcurrentHashMap<>();
+    private static volatile Map<Optotype, Mesh> optotypes;
+
+    /**
+     *
+     * Get the mesh of an optotype
+     *
+     * @param optotype The optotype
+     *
+     * @return The optimized mesh, shared and not to be modified
+     *
+     * @since 0.0.1
+     */
+    static Mesh optotype(Optotype optotype) {
+        if (optotypes == null) {
+            synchronized (MeshCache.class) {
+                if (optotypes == null) optotypes = loadOptotypes();
+            }
+        }
+        return optotypes.get(optotype);
+    }
+
+    /**
+     *
+     * Get the mesh of a model file
+     *
+     * @param path Path of the model file
+     * @param flags The aiImportFile flags
+     * @param loader What imports and optimizes the file when it is not cached
+     *
+     * @return The optimized mesh, shared and not to be modified
+     *
+     * @since 0.0.1
+     */
+    static Mesh model(String path, int flags, Supplier<Mesh> loader) {
+        Path file = Paths.get(path);
+        Source source;
+        try {
+            source = new Source(path, flags, Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load model: " + path, e);
+        }
+        return MODELS.computeIfAbsent(source, key -> {
+            Path cached = cached(hash(file, flags));
+            List<Mesh> meshes = read(cached);
+            if (meshes != null && meshes.size() == 1) return meshes.get(0);
+            Mesh mesh = loader.get();
+            store(cached, List.of(mesh));
+            return mesh;
+        });
+    }
+
+    /**
+     *
+     * Vertices, interleaved position and uv, and indices of an optimized
+     * model, whether it is flat, and the bytes the optimization saved
+     *
+     * @since 0.0.1
+     */
+    record Mesh(float[] vertices, int[] indices, boolean flat, int savedBytes) {}
+
+    /** model file as it was when it was loaded */
+    private record Source(String path, int flags, long modified, long size) {}
+
+    /** read every optotype from the cache, or parse them from the object file */
+    private static Map<Optotype, Mesh> loadOptotypes() {
+        byte[] object;
+        try (InputStream inputStream = MeshCache.class.getClassLoader().getResourceAsStream(OPTOTYPE_OBJECT)) {
+            if (inputStream == null) throw new IOException("Resource not found: " + OPTOTYPE_OBJECT);
+            object = inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load Optotype", e);
+        }
+        Path cached = cached(hash(ByteBuffer.wrap(object), 0));
+        List<Mesh> meshes = read(cached);
+        if (meshes == null || meshes.size() != Optotype.values().length) {
+            meshes = parseOptotypes(new String(object, StandardCharsets.UTF_8));
+            store(cached, meshes);
+        }
+        Map<Optotype, Mesh> index = new EnumMap<>(Optotype.class);
+        for (Optotype optotype : Optotype.values()) index.put(optotype, meshes.get(optotype.ordinal()));
+        return index;
+    }
+
+    /** parse the groups of the object file, one per optotype with vertex numbers local to it */
+    private static List<Mesh> parseOptotypes(String object) {
+        Mesh[] meshes = new Mesh[Optotype.values().length];
+        float[] vertices = new float[0];
+        int[] indices = new int[0];
+        int vertexCount = 0, indexCount = 0;
+        Optotype optotype = null;
+        for (String line : (Iterable<String>) object.lines()::iterator) {
+            if (line.isEmpty()) continue;
+            switch (line.charAt(0)) {
+                case 'g' -> { // start of an optotype
+                    if (optotype != null) meshes[optotype.ordinal()] = optimize(vertices, vertexCount, indices, indexCount);
+                    optotype = Optotype.valueOf(line.substring(2, 3));
+                    vertices = new float[64 * Model.VERTEX_FLOATS];
+                    indices = new int[64];
+                    vertexCount = 0;
+                    indexCount = 0;
+                }
+                case 'v' -> { // vertex with uv map coordinates computed from its position
+                    String[] stringArray = line.substring(2).split(" ");
+                    if ((vertexCount + 1) * Model.VERTEX_FLOATS > vertices.length)
+                        vertices = Arrays.copyOf(vertices, 2 * vertices.length);
+                    float x = Float.parseFloat(stringArray[0]);
+                    float y = Float.parseFloat(stringArray[1]);
+                    int k = Model.VERTEX_FLOATS * vertexCount++;
+                    vertices[k] = x;
+                    vertices[k + 1] = y;
+                    vertices[k + 2] = Float.parseFloat(stringArray[2]);
+                    vertices[k + 3] = x / 2 + 0.5f;
+                    vertices[k + 4] = -y / 2 + 0.5f;
+                }
+                case 'f' -> { // face indices
+                    String[] stringArray = line.substring(2).split(" ");
+                    if (indexCount + stringArray.length > indices.length)
+                        indices = Arrays.copyOf(indices, 2 * (indexCount + stringArray.length));
+                    for (String s : stringArray)
+                        indices[indexCount++] = Integer.parseInt(s) - 1;
+                }
+            }
+        }
+        if (optotype != null) meshes[optotype.ordinal()] = optimize(vertices, vertexCount, indices, indexCount);
+        return List.of(meshes);
+    }
+
+    /** optimize parsed vertices and indices */
+    private static Mesh optimize(float[] vertices, int vertexCount, int[] indices, int indexCount) {
+        return new Model(ModelType.OPTOTYPE, Arrays.copyOf(vertices, vertexCount * Model.VERTEX_FLOATS),
+                Arrays.copyOf(indices, indexCount)).mesh();
+    }
+
+    /** cache file of a source hash */
+    private static Path cached(String hash) {
+        return VulkanSetup.cacheDirectory.resolve("meshes").resolve(hash + ".mesh");
+    }
+
+    /** hash of a model file and its import flags */
+    private static String hash(Path file, int flags) {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            return hash(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), flags);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load model: " + file, e);
+        }
+    }
+
+    /** hash of the source of meshes, how it is imported, and the cache version */
+    private static String hash(ByteBuffer source, int flags) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source);
+            digest.update(ByteBuffer.allocate(2 * Integer.BYTES).putInt(flags).putInt(VERSION).flip());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Cannot hash mesh source", e);
+        }
+    }
+
+    /** memory-map a cache file and read its meshes, null if it is missing or not valid */
+    private static List<Mesh> read(Path path) {
+        if (!Files.isRegularFile(path)) return null;
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+            int count = buffer.getInt();
+            List<Mesh> meshes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                boolean flat = buffer.getInt() != 0;
+                int savedBytes = buffer.getInt();
+                float[] vertices = new float[buffer.getInt()];
+                int[] indices = new int[buffer.getInt()];
+                buffer.asFloatBuffer().get(vertices);
+                buffer.position(buffer.position() + Float.BYTES * vertices.length);
+                buffer.asIntBuffer().get(indices);
+                buffer.position(buffer.position() + Integer.BYTES * indices.length);
+                meshes.add(new Mesh(vertices, indices, flat, savedBytes));
+            }
+            return meshes;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            return null; // parsed again and rewritten
+        }
+    }
+
+    /** write meshes to the cache, the cache is only an optimization so failures are ignored */
+    private static void store(Path path, List<Mesh> meshes) {
+        int size = 3 * Integer.BYTES;
+        for (Mesh mesh : meshes)
+            size += 4 * Integer.BYTES + Float.BYTES * mesh.vertices().length + Integer.BYTES * mesh.indices().length;
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(meshes.size());
+        for (Mesh mesh : meshes) {
+            buffer.putInt(mesh.flat() ? 1 : 0).putInt(mesh.savedBytes())
+                  .putInt(mesh.vertices().length).putInt(mesh.indices().length);
+            buffer.asFloatBuffer().put(mesh.vertices());
+            buffer.position(buffer.position() + Float.BYTES * mesh.vertices().length);
+            buffer.asIntBuffer().put(mesh.indices());
+            buffer.position(buffer.position() + Integer.BYTES * mesh.indices().length);
+        }
+        Path temporary = null;
+        try {
+            Files.createDirectories(path.getParent());
+            temporary = Files.createTempFile(path.getParent(), "mesh", ".tmp");
+            Files.write(temporary, buffer.array());
+            Files.move(temporary, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException | UnsupportedOperationException e) {
+            delete(temporary); // next run parses again
+        }
+    }
+
+    /** delete a temporary file left by a failed write, if there is one */
+    private static void delete(Path temporary) {
+        if (temporary == null) return;
+        try {
+            Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+            // left for the operating system to clean
+        }
+    }
+
+}
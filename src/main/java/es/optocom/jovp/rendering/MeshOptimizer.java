@@ -0,0 +1,167 @@
+package es.optocom.jovp.rendering;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Prepares model geometry for the device. Identical vertices are merged,
+ * triangles are reordered for the post-transform vertex cache with Tipsify
+ * (Sander, Nehab and Barczak, 2007), and vertices are renumbered in the order
+ * the triangles first use them, so vertex fetches walk the buffer forward and
+ * vertices no triangle uses are dropped.
+ *
+ * @since 0.0.1
+ */
+class MeshOptimizer {
+
+    static final int CACHE_SIZE = 16; // vertex cache entries assumed by the triangle order
+    static final int MAX_SHORT_VERTICES = 1 << 16; // vertices addressable with 16-bit indices
+
+    /**
+     *
+     * Optimize the geometry of a model in place
+     *
+     * @param model The model
+     *
+     * @since 0.0.1
+     */
+    static void optimize(Model model) {
+        int vertexCount = deduplicate(model);
+        model.indices = tipsify(model.indices, vertexCount, CACHE_SIZE);
+        renumber(model, vertexCount);
+    }
+
+    /**
+     *
+     * Check whether every vertex of a model lies on the same z plane, so it
+     * can be seen from both sides by drawing it without face culling
+     *
+     * @param vertices Vertices of the model, interleaved position and uv
+     *
+     * @return Whether the model is flat
+     *
+     * @since 0.0.1
+     */
+    static boolean flat(float[] vertices) {
+        for (int k = 2 + Model.VERTEX_FLOATS; k < vertices.length; k += Model.VERTEX_FLOATS)
+            if (vertices[k] != vertices[2]) return false;
+        return true;
+    }
+
+    /** merge vertices with equal position and uv, and return the number of vertices left */
+    private static int deduplicate(Model model) {
+        float[] vertices = model.vertices;
+        int count = vertices.length / Model.VERTEX_FLOATS;
+        int[] table = new int[Integer.highestOneBit(Math.max(2 * count - 1, 1)) << 1]; // open addressing, 1 + vertex
+        int mask = table.length - 1;
+        int[] remap = new int[count];
+        int unique = 0;
+        for (int vertex = 0; vertex < count; vertex++) {
+            int slot = hash(vertices, vertex) & mask;
+            while (table[slot] != 0 && !equal(vertices, table[slot] - 1, vertex))
+                slot = (slot + 1) & mask;
+            if (table[slot] == 0) {
+                System.arraycopy(vertices, Model.VERTEX_FLOATS * vertex, vertices, Model.VERTEX_FLOATS * unique, Model.VERTEX_FLOATS);
+                table[slot] = ++unique;
+            }
+            remap[vertex] = table[slot] - 1;
+        }
+        for (int i = 0; i < model.indices.length; i++) model.indices[i] = remap[model.indices[i]];
+        return unique;
+    }
+
+    /** hash of the position and uv of a vertex, with 0 and -0 hashing the same */
+    private static int hash(float[] vertices, int vertex) {
+        int hash = 0;
+        for (int k = Model.VERTEX_FLOATS * vertex; k < Model.VERTEX_FLOATS * (vertex + 1); k++)
+            hash = 31 * hash + Float.floatToIntBits(vertices[k] + 0.0f);
+        return hash ^ (hash >>> 16);
+    }
+
+    /** whether two vertices have the same position and uv */
+    private static boolean equal(float[] vertices, int a, int b) {
+        for (int k = 0; k < Model.VERTEX_FLOATS; k++)
+            if (vertices[Model.VERTEX_FLOATS * a + k] != vertices[Model.VERTEX_FLOATS * b + k]) return false;
+        return true;
+    }
+
+    /** reorder triangles to reuse the vertex cache, fanning around each vertex in turn */
+    private static int[] tipsify(int[] indices, int vertexCount, int cacheSize) {
+        int triangleCount = indices.length / 3;
+        // triangles using each vertex
+        int[] live = new int[vertexCount];
+        for (int i = 0; i < 3 * triangleCount; i++) live[indices[i]]++;
+        int[] offsets = new int[vertexCount + 1];
+        for (int vertex = 0; vertex < vertexCount; vertex++) offsets[vertex + 1] = offsets[vertex] + live[vertex];
+        int[] adjacency = new int[offsets[vertexCount]];
+        int[] fill = Arrays.copyOf(offsets, vertexCount);
+        for (int i = 0; i < 3 * triangleCount; i++) adjacency[fill[indices[i]]++] = i / 3;
+        int[] cacheTime = new int[vertexCount];
+        int[] deadEnd = new int[3 * triangleCount];
+        int deadEnds = 0;
+        int[] candidates = new int[3 * cacheSize];
+        boolean[] emitted = new boolean[triangleCount];
+        int[] out = Arrays.copyOf(indices, indices.length); // keeps any trailing indices of an incomplete triangle
+        int written = 0;
+        int time = cacheSize + 1;
+        int cursor = 0;
+        int fanning = triangleCount > 0 ? indices[0] : -1;
+        while (fanning >= 0) {
+            int candidateCount = 0;
+            for (int k = offsets[fanning]; k < offsets[fanning + 1]; k++) {
+                int triangle = adjacency[k];
+                if (emitted[triangle]) continue;
+                for (int corner = 0; corner < 3; corner++) {
+                    int vertex = indices[3 * triangle + corner];
+                    out[written++] = vertex;
+                    deadEnd[deadEnds++] = vertex;
+                    if (candidateCount == candidates.length) candidates = Arrays.copyOf(candidates, 2 * candidates.length);
+                    candidates[candidateCount++] = vertex;
+                    live[vertex]--;
+                    if (time - cacheTime[vertex] > cacheSize) cacheTime[vertex] = time++;
+                }
+                emitted[triangle] = true;
+            }
+            // next fanning vertex: the candidate still in the cache after its remaining triangles, or the oldest one
+            fanning = -1;
+            int best = -1;
+            for (int c = 0; c < candidateCount; c++) {
+                int vertex = candidates[c];
+                if (live[vertex] <= 0) continue;
+                int priority = time - cacheTime[vertex] + 2 * live[vertex] <= cacheSize ? time - cacheTime[vertex] : 0;
+                if (priority > best) {
+                    best = priority;
+                    fanning = vertex;
+                }
+            }
+            if (fanning >= 0) continue;
+            while (deadEnds > 0 && fanning < 0) {
+                int vertex = deadEnd[--deadEnds];
+                if (live[vertex] > 0) fanning = vertex;
+            }
+            while (fanning < 0 && cursor < vertexCount) {
+                if (live[cursor] > 0) fanning = cursor;
+                cursor++;
+            }
+        }
+        return out;
+    }
+
+    /** renumber vertices in the order of first use and drop unused ones */
+    private static void renumber(Model model, int vertexCount) {
+        int[] order = new int[vertexCount];
+        Arrays.fill(order, -1);
+        float[] vertices = new float[Model.VERTEX_FLOATS * vertexCount];
+        int used = 0;
+        for (int i = 0; i < model.indices.length; i++) {
+            int vertex = model.indices[i];
+            if (order[vertex] < 0) {
+                System.arraycopy(model.vertices, Model.VERTEX_FLOATS * vertex, vertices, Model.VERTEX_FLOATS * used, Model.VERTEX_FLOATS);
+                order[vertex] = used++;
+            }
+            model.indices[i] = order[vertex];
+        }
+        model.vertices = Arrays.copyOf(vertices, Model.VERTEX_FLOATS * used);
+    }
+
+}
@@ -0,0 +1,244 @@
+package es.optocom.jovp.rendering;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import es.optocom.jovp.definitions.MipmapFilter;
+
+/**
+ *
+ * Builds mip chains on the CPU, for formats the device cannot blit with
+ * linear filtering and for filters of higher quality than its blits. Each
+ * level is resampled from the one above with a separable filter, first along
+ * rows and then along columns, and the rows of each pass are split in tiles
+ * that the workers of a fork-join pool filter in parallel. Filtering in
+ * linear light keeps the mean luminance of gamma-encoded images, which
+ * filtering the encoded values darkens.
+ *
+ * @since 0.0.1
+ */
+class MipmapGenerator {
+
+    static final int TILE_VALUES = 1 << 16; // values a tile filters, enough to be worth a task
+    static final double LANCZOS_LOBES = 3;
+    static final double KAISER_WIDTH = 3; // half width of the Kaiser window in texels of the level
+    static final double KAISER_ALPHA = 4; // Kaiser window shape, larger is smoother
+
+    /**
+     *
+     * Build the mip chain of an image in the common fork-join pool
+     *
+     * @param pixels Values per channel of the first level
+     * @param width Width of the first level
+     * @param height Height of the first level
+     * @param channels Channels per texel, the fourth is alpha
+     * @param levels Number of mip levels
+     * @param filter The filter
+     * @param linearLight Whether color values are sRGB encoded and filtered
+     *                    in linear light
+     *
+     * @return Values per channel of each level, the first level is the image
+     *
+     * @since 0.0.1
+     */
+    static float[][] generate(float[] pixels, int width, int height, int channels, int levels, MipmapFilter filter, boolean linearLight) {
+        return generate(pixels, width, height, channels, levels, filter, linearLight, ForkJoinPool.commonPool());
+    }
+
+    /**
+     *
+     * Build the mip chain of an image
+     *
+     * @param pixels Values per channel of the first level
+     * @param width Width of the first level
+     * @param height Height of the first level
+     * @param channels Channels per texel, the fourth is alpha
+     * @param levels Number of mip levels
+     * @param filter The filter
+     * @param linearLight Whether color values are sRGB encoded and filtered
+     *                    in linear light
+     * @param pool Pool whose workers filter the tiles
+     *
+     * @return Values per channel of each level, the first level is the image
+     *
+     * @since 0.0.1
+     */
+    static float[][] generate(float[] pixels, int width, int height, int channels, int levels, MipmapFilter filter, boolean linearLight, ForkJoinPool pool) {
+        float[][] chain = new float[levels][];
+        chain[0] = pixels;
+        float[] level = pixels;
+        if (linearLight && levels > 1) {
+            level = new float[pixels.length];
+            transfer(pool, pixels, level, channels, height, false);
+        }
+        for (int i = 1; i < levels; i++) {
+            int levelWidth = Math.max(1, width / 2), levelHeight = Math.max(1, height / 2);
+            level = resample(pool, level, width, height, levelWidth, levelHeight, channels, filter);
+            width = levelWidth;
+            height = levelHeight;
+            if (linearLight) {
+                chain[i] = new float[level.length];
+                transfer(pool, level, chain[i], channels, height, true);
+            } else chain[i] = level;
+        }
+        return chain;
+    }
+
+    /** filter a level down to the next, along rows into a temporary level and then along columns */
+    private static float[] resample(ForkJoinPool pool, float[] source, int width, int height, int levelWidth, int levelHeight,
+                                    int channels, MipmapFilter filter) {
+        Taps columns = taps(width, levelWidth, filter);
+        Taps rows = taps(height, levelHeight, filter);
+        float[] temporary = new float[channels * levelWidth * height];
+        run(pool, height, channels * width * columns.count, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int sourceRow = channels * width * y, row = channels * levelWidth * y;
+                for (int x = 0; x < levelWidth; x++)
+                    for (int c = 0; c < channels; c++) {
+                        float value = 0;
+                        for (int k = columns.count * x; k < columns.count * (x + 1); k++)
+                            value += columns.weights[k] * source[sourceRow + channels * columns.indices[k] + c];
+                        temporary[row + channels * x + c] = value;
+                    }
+            }
+        });
+        float[] level = new float[channels * levelWidth * levelHeight];
+        int rowLength = channels * levelWidth;
+        run(pool, levelHeight, rowLength * rows.count, (from, to) -> {
+            for (int y = from; y < to; y++)
+                for (int k = rows.count * y; k < rows.count * (y + 1); k++) {
+                    float weight = rows.weights[k];
+                    if (weight == 0) continue;
+                    int sourceRow = rowLength * rows.indices[k];
+                    for (int i = 0; i < rowLength; i++)
+                        level[rowLength * y + i] += weight * temporary[sourceRow + i];
+                }
+        });
+        return level;
+    }
+
+    /** source texels and normalized weights of each texel of a level along one axis, clamped to the edges */
+    private static Taps taps(int source, int target, MipmapFilter filter) {
+        double scale = (double) source / target;
+        double radius = switch (filter) {
+            case LINEAR -> 1; // bilinear sample at the texel center, as a blit
+            case BOX -> scale / 2;
+            case LANCZOS -> LANCZOS_LOBES * scale;
+            case KAISER -> KAISER_WIDTH * scale;
+        };
+        int count = 0;
+        for (int t = 0; t < target; t++) {
+            double center = (t + 0.5) * scale;
+            count = Math.max(count, (int) Math.ceil(center + radius) - (int) Math.floor(center - radius));
+        }
+        int[] indices = new int[target * count];
+        float[] weights = new float[target * count];
+        for (int t = 0; t < target; t++) {
+            double center = (t + 0.5) * scale;
+            int first = (int) Math.floor(center - radius);
+            double sum = 0;
+            for (int k = 0; k < count; k++) {
+                int i = first + k;
+                double distance = i + 0.5 - center;
+                double weight = switch (filter) {
+                    case LINEAR -> Math.max(0, 1 - Math.abs(distance));
+                    case BOX -> Math.max(0, Math.min(i + 1, center + radius) - Math.max(i, center - radius));
+                    case LANCZOS -> lanczos(distance / scale);
+                    case KAISER -> kaiser(distance / scale);
+                };
+                indices[count * t + k] = Math.clamp(i, 0, source - 1);
+                weights[count * t + k] = (float) weight;
+                sum += weight;
+            }
+            for (int k = 0; k < count; k++) weights[count * t + k] /= (float) sum;
+        }
+        return new Taps(count, indices, weights);
+    }
+
+    /** taps per texel, their source texels, and their weights */
+    private record Taps(int count, int[] indices, float[] weights) {}
+
+    /** Lanczos kernel */
+    private static double lanczos(double x) {
+        if (Math.abs(x) >= LANCZOS_LOBES) return 0;
+        return sinc(x) * sinc(x / LANCZOS_LOBES);
+    }
+
+    /** sinc windowed by a Kaiser window */
+    private static double kaiser(double x) {
+        double t = x / KAISER_WIDTH;
+        if (Math.abs(t) >= 1) return 0;
+        return sinc(x) * bessel(KAISER_ALPHA * Math.sqrt(1 - t * t)) / bessel(KAISER_ALPHA);
+    }
+
+    /** normalized sinc */
+    private static double sinc(double x) {
+        if (x == 0) return 1;
+        return Math.sin(Math.PI * x) / (Math.PI * x);
+    }
+
+    /** zeroth order modified Bessel function of the first kind, by its power series */
+    private static double bessel(double x) {
+        double sum = 1, term = 1;
+        for (int k = 1; term > 1e-12 * sum; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+        }
+        return sum;
+    }
+
+    /** convert color values between sRGB encoding and linear light, alpha is kept */
+    private static void transfer(ForkJoinPool pool, float[] source, float[] target, int channels, int rows, boolean encode) {
+        int rowLength = source.length / rows;
+        run(pool, rows, rowLength, (from, to) -> {
+            for (int i = rowLength * from; i < rowLength * to; i++) {
+                float value = source[i];
+                if (i % channels == 3) target[i] = value;
+                else if (encode) target[i] = value <= 0.0031308f ? 12.92f * value : (float) (1.055 * Math.pow(value, 1 / 2.4) - 0.055);
+                else target[i] = value <= 0.04045f ? value / 12.92f : (float) Math.pow((value + 0.055) / 1.055, 2.4);
+            }
+        });
+    }
+
+    /** filter rows in tiles, in the pool when there is more than one tile */
+    private static void run(ForkJoinPool pool, int rows, int valuesPerRow, Rows task) {
+        int tile = Math.max(1, TILE_VALUES / Math.max(1, valuesPerRow));
+        if (rows <= tile) task.filter(0, rows);
+        else pool.invoke(new Tile(task, 0, rows, tile));
+    }
+
+    /** what filters a range of rows */
+    private interface Rows {
+        void filter(int from, int to);
+    }
+
+    /** range of rows split in halves until it is a tile */
+    private static class Tile extends RecursiveAction {
+
+        private final Rows task;
+        private final int from;
+        private final int to;
+        private final int tile;
+
+        /** tile of rows */
+        private Tile(Rows task, int from, int to, int tile) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.tile = tile;
+        }
+
+        /** filter the rows, or split them */
+        @Override
+        protected void compute() {
+            if (to - from <= tile) {
+                task.filter(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Tile(task, from, middle, tile), new Tile(task, middle, to, tile));
+        }
+
+    }
+
+}
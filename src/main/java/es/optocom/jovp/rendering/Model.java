@@ -1,9 +1,5 @@
 package es.optocom.jovp.rendering;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import static java.lang.Math.PI;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -11,13 +7,13 @@ import java.net.URL;
 import java.nio.IntBuffer;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import static java.util.Objects.requireNonNull;
 
 import static org.joml.Math.cos;
 import static org.joml.Math.sin;
-import org.joml.Vector2f;
-import org.joml.Vector3f;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.assimp.AIFace;
 import org.lwjgl.assimp.AIMesh;
@@ -31,7 +27,6 @@ import static org.lwjgl.assimp.Assimp.aiProcess_FlipUVs;
 
 import es.optocom.jovp.definitions.ModelType;
 import es.optocom.jovp.definitions.Optotype;
-import es.optocom.jovp.definitions.Vertex;
 
 /**
  * Model class and methods
@@ -41,13 +36,21 @@ import es.optocom.jovp.definitions.Vertex;
 public class Model {
 
     private static final int VERTICES_CIRCLE = 500; // For circles and annulus: MUST BE EVEN!!!
-    private static final String OPTOTYPE_OBJECT = "/es/optocom/jovp/models/Sloan.obj"; // Optotypes object file
     private static final float DEFAULT_HOLLOW_RATIO = 0.5f;
     private static final Optotype DEFAULT_OPTOTYPE = Optotype.E;
 
+    static final int VERTEX_FLOATS = VulkanSetup.MODEL_SIZEOF / Float.BYTES; // position and uv
+    // types seen from both sides, which used to be drawn with a second copy of their indices
+    private static final Set<ModelType> TWO_SIDED = EnumSet.of(ModelType.TRIANGLE, ModelType.SQUARE, ModelType.CIRCLE,
+            ModelType.ANNULUS, ModelType.HOLLOW_TRIANGLE, ModelType.HOLLOW_SQUARE, ModelType.POLYGON,
+            ModelType.HOLLOW_POLYGON, ModelType.OPTOTYPE);
+
     ModelType type;
-    Vertex[] vertices;
-    Integer[] indices;
+    float[] vertices; // interleaved x, y, z, u, v
+    int[] indices;
+    boolean flat; // two-sided type with all vertices on one plane, drawn without face culling so both sides show
+    int savedBytes; // device memory saved by the mesh optimization
+    GeometryCache.Key key; // identifies the geometry to share it between renderables, null if it cannot be shared
 
     /**
      * Generates an empty model
@@ -56,8 +59,8 @@ public class Model {
      */
     Model() {
         type = ModelType.TEXT;
-        vertices = new Vertex[] { new Vertex() };
-        indices = new Integer[] { 0 };
+        vertices = new float[VERTEX_FLOATS];
+        indices = new int[] { 0 };
     }
 
     /**
@@ -76,9 +79,16 @@ public class Model {
             case MALTESE -> maltese();
             case CIRCLE -> circle();
             case ANNULUS -> annulus(DEFAULT_HOLLOW_RATIO);
-            case OPTOTYPE -> optotype(DEFAULT_OPTOTYPE);
+            case OPTOTYPE -> use(MeshCache.optotype(DEFAULT_OPTOTYPE));
             default -> throw new IllegalStateException("Invalid model type: " + type);
         }
+        if (type != ModelType.OPTOTYPE) optimize();
+        key = switch (type) {
+            case ANNULUS -> new GeometryCache.Key(type, VERTICES_CIRCLE, DEFAULT_HOLLOW_RATIO, null, null, 0);
+            case CIRCLE -> new GeometryCache.Key(type, VERTICES_CIRCLE, 0, null, null, 0);
+            case OPTOTYPE -> new GeometryCache.Key(type, 0, 0, DEFAULT_OPTOTYPE, null, 0);
+            default -> new GeometryCache.Key(type, 0, 0, null, null, 0);
+        };
     }
 
     /**
@@ -93,6 +103,8 @@ public class Model {
             throw new RuntimeException("Use TRIANGLE or SQUARE for less than 5 vertices");
         type = ModelType.POLYGON;
         polygon(numberOfVertices);
+        optimize();
+        key = new GeometryCache.Key(type, numberOfVertices, 0, null, null, 0);
     }
 
     /**
@@ -113,6 +125,8 @@ public class Model {
             case ANNULUS -> annulus(ratio);
             default -> throw new IllegalStateException("Invalid model type: " + type);
         }
+        optimize();
+        key = new GeometryCache.Key(type, type == ModelType.ANNULUS ? VERTICES_CIRCLE : 0, ratio, null, null, 0);
     }
 
     /**
@@ -130,6 +144,8 @@ public class Model {
             throw new RuntimeException("Ratio must be between 0 and 1");
         type = ModelType.HOLLOW_POLYGON;
         hollowPolygon(numberOfVertices, ratio);
+        optimize();
+        key = new GeometryCache.Key(type, numberOfVertices, ratio, null, null, 0);
     }
 
     /**
@@ -141,7 +157,8 @@ public class Model {
      */
     public Model(Optotype optotype) {
         type = ModelType.OPTOTYPE;
-        optotype(optotype);
+        use(MeshCache.optotype(optotype));
+        key = new GeometryCache.Key(type, 0, 0, optotype, null, 0);
     }
 
     /**
@@ -165,7 +182,29 @@ public class Model {
      */
     public Model(String fileName, int flags) {
         type = ModelType.MODEL;
-        loadModel(fileName, flags);
+        String path = resolve(fileName);
+        use(MeshCache.model(path, flags, () -> {
+            loadModel(path, flags);
+            optimize();
+            return mesh();
+        }));
+        key = new GeometryCache.Key(type, 0, 0, null, path, flags);
+    }
+
+    /**
+     * Generates a model from its vertices and indices, and optimizes it
+     *
+     * @param type The type of model
+     * @param vertices Model vertices, interleaved position and uv
+     * @param indices Model indices
+     *
+     * @since 0.0.1
+     */
+    Model(ModelType type, float[] vertices, int[] indices) {
+        this.type = type;
+        this.vertices = vertices;
+        this.indices = indices;
+        optimize();
     }
 
     /**
@@ -177,6 +216,7 @@ public class Model {
         type = null;
         vertices = null;
         indices = null;
+        key = null;
     }
 
     /**
@@ -193,12 +233,13 @@ public class Model {
     /**
      * Set vertices
      *
-     * @param vertices new model vertices
+     * @param vertices new model vertices, interleaved position and uv
      *
      * @since 0.0.1
      */
-    void setVertices(Vertex[] vertices) {
+    void setVertices(float[] vertices) {
         this.vertices = vertices;
+        key = null;
     }
 
     /**
@@ -208,12 +249,64 @@ public class Model {
      *
      * @since 0.0.1
      */
-    void setIndices(Integer[] indices) {
+    void setIndices(int[] indices) {
         this.indices = indices;
+        key = null;
     }
 
-    /** loads a model from a file with specific flags */
-    private void loadModel(String fileName, int flags) {
+    /**
+     * Get the device memory saved by optimizing the model: merging
+     * duplicate vertices, 16-bit indices, and drawing flat models from both
+     * sides instead of with a second copy of their indices
+     *
+     * @return bytes saved
+     *
+     * @since 0.0.1
+     */
+    public int getBytesSaved() {
+        return savedBytes;
+    }
+
+    /**
+     * Get the size of an index in the index buffer
+     *
+     * @return 2 if every vertex can be addressed with 16 bits, 4 otherwise
+     *
+     * @since 0.0.1
+     */
+    int indexSize() {
+        return vertices.length / VERTEX_FLOATS <= MeshOptimizer.MAX_SHORT_VERTICES ? Short.BYTES : Integer.BYTES;
+    }
+
+    /**
+     * Get the optimized mesh of the model
+     *
+     * @return the mesh
+     *
+     * @since 0.0.1
+     */
+    MeshCache.Mesh mesh() {
+        return new MeshCache.Mesh(vertices, indices, flat, savedBytes);
+    }
+
+    /** take the geometry of an optimized mesh */
+    private void use(MeshCache.Mesh mesh) {
+        vertices = mesh.vertices();
+        indices = mesh.indices();
+        flat = mesh.flat();
+        savedBytes = mesh.savedBytes();
+    }
+
+    /** optimize the geometry and record the bytes saved */
+    private void optimize() {
+        flat = TWO_SIDED.contains(type) && MeshOptimizer.flat(vertices);
+        int before = Float.BYTES * vertices.length + Integer.BYTES * indices.length * (flat ? 2 : 1);
+        MeshOptimizer.optimize(this);
+        savedBytes = before - Float.BYTES * vertices.length - indexSize() * indices.length;
+    }
+
+    /** path of a model file, looked up first among the model resources */
+    private String resolve(String fileName) {
         URL resource = this.getClass().getResource("/es/optocom/jovp/models/" + fileName);
         if (resource != null) {
             try {
@@ -222,145 +315,135 @@ public class Model {
                 throw new RuntimeException("Could load model.", e);
             }
         }
+        return fileName;
+    }
+
+    /** loads a model from a file with specific flags */
+    private void loadModel(String fileName, int flags) {
         try (AIScene scene = aiImportFile(fileName, flags)) {
             if (scene == null || scene.mRootNode() == null)
                 throw new RuntimeException("Could not load model: " + aiGetErrorString());
-            LoadedModel model = new LoadedModel();
-            processNode(requireNonNull(scene.mRootNode()), scene, model);
-            final int vertexCount = model.vertices.size();
-            vertices = new Vertex[vertexCount];
-            for (int i = 0; i < vertexCount; i++)
-                vertices[i] = new Vertex(model.vertices.get(i), model.uv.get(i));
-            indices = new Integer[model.indices.size()];
-            for (int i = 0; i < indices.length; i++)
-                indices[i] = model.indices.get(i);
+            List<AIMesh> meshes = new ArrayList<>();
+            processNode(requireNonNull(scene.mRootNode()), scene, meshes);
+            int vertexCount = 0, indexCount = 0;
+            for (AIMesh mesh : meshes) {
+                vertexCount += mesh.mNumVertices();
+                for (int i = 0; i < mesh.mNumFaces(); i++)
+                    indexCount += mesh.mFaces().get(i).mNumIndices();
+            }
+            vertices = new float[VERTEX_FLOATS * vertexCount];
+            indices = new int[indexCount];
+            int vertex = 0, index = 0;
+            for (AIMesh mesh : meshes) {
+                index = processIndices(mesh, vertex, index);
+                vertex = processVertices(mesh, vertex);
+            }
         }
     }
 
-    /** process node */
-    private static void processNode(AINode node, AIScene scene, LoadedModel model) {
+    /** collect the meshes of a node and its children */
+    private static void processNode(AINode node, AIScene scene, List<AIMesh> meshes) {
         if (node.mMeshes() != null)
-            processNodeMeshes(scene, node, model);
+            processNodeMeshes(scene, node, meshes);
         if (node.mChildren() != null) {
             PointerBuffer children = node.mChildren();
             for (int i = 0; i < node.mNumChildren(); i++) {
                 if (children == null)
                     throw new RuntimeException("Failed to process node");
-                processNode(AINode.create(children.get(i)), scene, model);
+                processNode(AINode.create(children.get(i)), scene, meshes);
             }
         }
     }
 
-    /** process node meshes */
-    private static void processNodeMeshes(AIScene scene, AINode node, LoadedModel model) {
+    /** collect node meshes */
+    private static void processNodeMeshes(AIScene scene, AINode node, List<AIMesh> meshes) {
         PointerBuffer pMeshes = scene.mMeshes();
         IntBuffer meshIndices = node.mMeshes();
         for (int i = 0; i < requireNonNull(meshIndices).capacity(); i++) {
             if (pMeshes == null)
                 throw new RuntimeException("Failed to process node meshes");
-            AIMesh mesh = AIMesh.create(pMeshes.get(meshIndices.get(i)));
-            processMesh(mesh, model);
+            meshes.add(AIMesh.create(pMeshes.get(meshIndices.get(i))));
         }
     }
 
-    /** process mesh */
-    private static void processMesh(AIMesh mesh, LoadedModel model) {
-        processPositions(mesh, model.vertices);
-        processUV(mesh, model.uv);
-        processIndices(mesh, model.indices);
-    }
-
-    /** process texture coordinates */
-    private static void processPositions(AIMesh mesh, List<Vector3f> positions) {
-        AIVector3D.Buffer vertices = requireNonNull(mesh.mVertices());
-        for (int i = 0; i < vertices.capacity(); i++) {
-            AIVector3D position = vertices.get(i);
-            positions.add(new Vector3f(position.x(), position.y(), position.z()));
+    /** process positions and texture coordinates of a mesh from a vertex on, and return the next vertex */
+    private int processVertices(AIMesh mesh, int vertex) {
+        AIVector3D.Buffer positions = requireNonNull(mesh.mVertices());
+        AIVector3D.Buffer coordinates = requireNonNull(mesh.mTextureCoords(0));
+        for (int i = 0; i < mesh.mNumVertices(); i++) {
+            AIVector3D position = positions.get(i);
+            AIVector3D uv = coordinates.get(i);
+            vertex(vertex++, position.x(), position.y(), position.z(), uv.x(), uv.y());
         }
+        return vertex;
     }
 
-    /** process texture coordinates */
-    private static void processUV(AIMesh mesh, List<Vector2f> uv) {
-        AIVector3D.Buffer aiCoordinates = requireNonNull(mesh.mTextureCoords(0));
-        for (int i = 0; i < aiCoordinates.capacity(); i++) {
-            final AIVector3D coordinates = aiCoordinates.get(i);
-            uv.add(new Vector2f(coordinates.x(), coordinates.y()));
-        }
-    }
-
-    /** process indices */
-    private static void processIndices(AIMesh mesh, List<Integer> indices) {
+    /** process indices of a mesh whose vertices start at base, and return the next index */
+    private int processIndices(AIMesh mesh, int base, int index) {
         AIFace.Buffer aiFaces = mesh.mFaces();
         for (int i = 0; i < mesh.mNumFaces(); i++) {
-            AIFace face = aiFaces.get(i);
-            IntBuffer pIndices = face.mIndices();
-            for (int j = 0; j < face.mNumIndices(); j++) {
-                indices.add(pIndices.get(j));
-            }
+            IntBuffer pIndices = aiFaces.get(i).mIndices();
+            for (int j = 0; j < pIndices.remaining(); j++)
+                indices[index++] = base + pIndices.get(j);
         }
+        return index;
     }
 
     /** create vertices and indices for a cross */
     private void cross() {
-        vertices = new Vertex[8];
-        vertices[0] = new Vertex(new Vector3f(-1.0f, 0.1f, 0.0f));
-        vertices[1] = new Vertex(new Vector3f(1.0f, 0.1f, 0.0f));
-        vertices[2] = new Vertex(new Vector3f(-1.0f, -0.1f, 0.0f));
-        vertices[3] = new Vertex(new Vector3f(1.0f, -0.1f, 0.0f));
-        vertices[4] = new Vertex(new Vector3f(-0.1f, 1.0f, 0.0f));
-        vertices[5] = new Vertex(new Vector3f(0.1f, 1.0f, 0.0f));
-        vertices[6] = new Vertex(new Vector3f(-0.1f, -1.0f, 0.0f));
-        vertices[7] = new Vertex(new Vector3f(0.1f, -1.0f, 0.0f));
-        indices = new Integer[] {
+        vertices = new float[8 * VERTEX_FLOATS];
+        vertex(0, -1.0f, 0.1f, 0.0f);
+        vertex(1, 1.0f, 0.1f, 0.0f);
+        vertex(2, -1.0f, -0.1f, 0.0f);
+        vertex(3, 1.0f, -0.1f, 0.0f);
+        vertex(4, -0.1f, 1.0f, 0.0f);
+        vertex(5, 0.1f, 1.0f, 0.0f);
+        vertex(6, -0.1f, -1.0f, 0.0f);
+        vertex(7, 0.1f, -1.0f, 0.0f);
+        indices = new int[] {
                 0, 1, 2, 2, 1, 3,
-                3, 1, 2, 2, 1, 0,
-                4, 5, 6, 6, 5, 7,
-                7, 5, 6, 6, 5, 4
+                4, 5, 6, 6, 5, 7
         };
     }
 
     /** create vertices and indices for a Maltese cross */
     private void maltese() {
-        vertices = new Vertex[12];
-        vertices[0] = new Vertex(new Vector3f(-1.00f, 0.20f, 0.00f));
-        vertices[1] = new Vertex(new Vector3f(0.02f, 0.00f, 0.00f));
-        vertices[2] = new Vertex(new Vector3f(-1.00f, -0.20f, 0.00f));
-        vertices[3] = new Vertex(new Vector3f(1.00f, 0.20f, 0.00f));
-        vertices[4] = new Vertex(new Vector3f(1.00f, -0.20f, 0.00f));
-        vertices[5] = new Vertex(new Vector3f(-0.02f, 0.00f, 0.00f));
-        vertices[6] = new Vertex(new Vector3f(-0.20f, 1.00f, 0.00f));
-        vertices[7] = new Vertex(new Vector3f(0.20f, 1.00f, 0.00f));
-        vertices[8] = new Vertex(new Vector3f(0.00f, -0.02f, 0.00f));
-        vertices[9] = new Vertex(new Vector3f(-0.20f, -1.00f, 0.00f));
-        vertices[10] = new Vertex(new Vector3f(0.00f, 0.02f, 0.00f));
-        vertices[11] = new Vertex(new Vector3f(0.20f, -1.00f, 0.00f));
-        indices = new Integer[] {
+        vertices = new float[12 * VERTEX_FLOATS];
+        vertex(0, -1.00f, 0.20f, 0.00f);
+        vertex(1, 0.02f, 0.00f, 0.00f);
+        vertex(2, -1.00f, -0.20f, 0.00f);
+        vertex(3, 1.00f, 0.20f, 0.00f);
+        vertex(4, 1.00f, -0.20f, 0.00f);
+        vertex(5, -0.02f, 0.00f, 0.00f);
+        vertex(6, -0.20f, 1.00f, 0.00f);
+        vertex(7, 0.20f, 1.00f, 0.00f);
+        vertex(8, 0.00f, -0.02f, 0.00f);
+        vertex(9, -0.20f, -1.00f, 0.00f);
+        vertex(10, 0.00f, 0.02f, 0.00f);
+        vertex(11, 0.20f, -1.00f, 0.00f);
+        indices = new int[] {
                 0, 1, 2, 3, 4, 5,
-                5, 4, 3, 2, 1, 0,
-                6, 7, 8, 9, 10, 11,
-                11, 10, 9, 8, 7, 6
+                6, 7, 8, 9, 10, 11
         };
     }
 
     /** create vertices and indices for a triangle */
     private void triangle() {
-        vertices = new Vertex[3];
-        vertices[0] = new Vertex(new Vector3f(-1.0f, -1.0f, 0.0f));
-        vertices[1] = new Vertex(new Vector3f(1.0f, -1.0f, 0.0f));
-        vertices[2] = new Vertex(new Vector3f(0.0f, 1.0f, 0.0f));
-        indices = new Integer[] { 0, 1, 2 };
-        indices = expandIndices(indices);
+        vertices = new float[3 * VERTEX_FLOATS];
+        vertex(0, -1.0f, -1.0f, 0.0f);
+        vertex(1, 1.0f, -1.0f, 0.0f);
+        vertex(2, 0.0f, 1.0f, 0.0f);
+        indices = new int[] { 0, 1, 2 };
     }
 
     /** create vertices and indices for a square */
     private void square() {
-        vertices = new Vertex[4];
-        vertices[0] = new Vertex(new Vector3f(-1.0f, -1.0f, 0.0f));
-        vertices[1] = new Vertex(new Vector3f(1.0f, -1.0f, 0.0f));
-        vertices[2] = new Vertex(new Vector3f(1.0f, 1.0f, 0.0f));
-        vertices[3] = new Vertex(new Vector3f(-1.0f, 1.0f, 0.0f));
-        indices = new Integer[] { 0, 1, 2, 2, 3, 0 };
-        indices = expandIndices(indices);
+        vertices = new float[4 * VERTEX_FLOATS];
+        vertex(0, -1.0f, -1.0f, 0.0f);
+        vertex(1, 1.0f, -1.0f, 0.0f);
+        vertex(2, 1.0f, 1.0f, 0.0f);
+        vertex(3, -1.0f, 1.0f, 0.0f);
+        indices = new int[] { 0, 1, 2, 2, 3, 0 };
     }
 
     /** create vertices and indices for a circle */
@@ -370,14 +453,14 @@ public class Model {
 
     /** create vertices and indices for a hollow triangle */
     private void hollowTriangle(float ratio) {
-        vertices = new Vertex[6];
-        vertices[0] = new Vertex(new Vector3f(-ratio, -ratio, 0.0f));
-        vertices[1] = new Vertex(new Vector3f(ratio, -ratio, 0.0f));
-        vertices[2] = new Vertex(new Vector3f(0.0f, ratio, 0.0f));
-        vertices[3] = new Vertex(new Vector3f(-1.0f, -1.0f, 0.0f));
-        vertices[4] = new Vertex(new Vector3f(1.0f, -1.0f, 0.0f));
-        vertices[5] = new Vertex(new Vector3f(0.0f, 1.0f, 0.0f));
-        indices = new Integer[] {
+        vertices = new float[6 * VERTEX_FLOATS];
+        vertex(0, -ratio, -ratio, 0.0f);
+        vertex(1, ratio, -ratio, 0.0f);
+        vertex(2, 0.0f, ratio, 0.0f);
+        vertex(3, -1.0f, -1.0f, 0.0f);
+        vertex(4, 1.0f, -1.0f, 0.0f);
+        vertex(5, 0.0f, 1.0f, 0.0f);
+        indices = new int[] {
                 0, 3, 4,
                 0, 4, 1,
                 1, 4, 5,
@@ -385,21 +468,20 @@ public class Model {
                 2, 5, 3,
                 2, 3, 0
         };
-        indices = expandIndices(indices);
     }
 
     /** create vertices and indices for a hollow square */
     private void hollowSquare(float ratio) {
-        vertices = new Vertex[8];
-        vertices[0] = new Vertex(new Vector3f(-ratio, -ratio, 0.0f));
-        vertices[1] = new Vertex(new Vector3f(ratio, -ratio, 0.0f));
-        vertices[2] = new Vertex(new Vector3f(ratio, ratio, 0.0f));
-        vertices[3] = new Vertex(new Vector3f(-ratio, ratio, 0.0f));
-        vertices[4] = new Vertex(new Vector3f(-1.0f, -1.0f, 0.0f));
-        vertices[5] = new Vertex(new Vector3f(1.0f, -1.0f, 0.0f));
-        vertices[6] = new Vertex(new Vector3f(1.0f, 1.0f, 0.0f));
-        vertices[7] = new Vertex(new Vector3f(-1.0f, 1.0f, 0.0f));
-        indices = new Integer[] {
+        vertices = new float[8 * VERTEX_FLOATS];
+        vertex(0, -ratio, -ratio, 0.0f);
+        vertex(1, ratio, -ratio, 0.0f);
+        vertex(2, ratio, ratio, 0.0f);
+        vertex(3, -ratio, ratio, 0.0f);
+        vertex(4, -1.0f, -1.0f, 0.0f);
+        vertex(5, 1.0f, -1.0f, 0.0f);
+        vertex(6, 1.0f, 1.0f, 0.0f);
+        vertex(7, -1.0f, 1.0f, 0.0f);
+        indices = new int[] {
                 0, 4, 5,
                 0, 5, 1,
                 1, 5, 6,
@@ -409,7 +491,6 @@ public class Model {
                 3, 7, 4,
                 3, 4, 0
         };
-        indices = expandIndices(indices);
     }
 
     /** create vertices and indices for an annulus */
@@ -419,33 +500,30 @@ public class Model {
 
     /** create vertices and indices for a polygon */
     private void polygon(int numberOfVertices) {
-        vertices = new Vertex[numberOfVertices + 1];
-        vertices[0] = new Vertex(new Vector3f(0.0f, 0.0f, 0.0f));
-        indices = new Integer[3 * (numberOfVertices + 1)];
+        vertices = new float[(numberOfVertices + 1) * VERTEX_FLOATS];
+        vertex(0, 0.0f, 0.0f, 0.0f);
+        indices = new int[3 * numberOfVertices];
         for (int i = 0; i < numberOfVertices; i++) {
             int k = 3 * i;
             float theta = (float) (2.0f * PI * i / numberOfVertices);
-            vertices[i + 1] = new Vertex(new Vector3f(cos(theta), sin(theta), 0.00f));
+            vertex(i + 1, cos(theta), sin(theta), 0.00f);
             indices[k] = 0;
             indices[k + 1] = i + 1;
             indices[k + 2] = i + 2;
         }
-        indices[3 * numberOfVertices] = 0;
-        indices[3 * numberOfVertices + 1] = numberOfVertices;
-        indices[3 * numberOfVertices + 2] = 1;
-        indices = expandIndices(indices);
+        indices[3 * numberOfVertices - 1] = 1; // last triangle closes the fan
     }
 
     /** create vertices and indices for a hollow polygon */
     private void hollowPolygon(int numberOfVertices, float ratio) {
-        vertices = new Vertex[2 * numberOfVertices];
-        indices = new Integer[2 * 3 * numberOfVertices];
+        vertices = new float[2 * numberOfVertices * VERTEX_FLOATS];
+        indices = new int[2 * 3 * numberOfVertices];
         for (int i = 0; i < numberOfVertices; i++) {
             int kv = 2 * i;
             int ki = 6 * i;
             float theta = (float) (2.0f * PI * i / numberOfVertices);
-            vertices[kv] = new Vertex(new Vector3f(ratio * cos(theta), ratio * sin(theta), 0.00f));
-            vertices[kv + 1] = new Vertex(new Vector3f(cos(theta), sin(theta), 0.00f));
+            vertex(kv, ratio * cos(theta), ratio * sin(theta), 0.00f);
+            vertex(kv + 1, cos(theta), sin(theta), 0.00f);
             indices[ki] = kv;
             indices[ki + 1] = kv + 1;
             indices[ki + 2] = kv + 3;
@@ -457,72 +535,21 @@ public class Model {
         indices[2 * 3 * (numberOfVertices - 1) + 3] = 1;
         indices[2 * 3 * (numberOfVertices - 1) + 4] = 0;
         indices[2 * 3 * (numberOfVertices - 1) + 5] = 2 * numberOfVertices - 2;
-        indices = expandIndices(indices);
-    }
-
-    /** create vertices and indices for an optotype */
-    private void optotype(Optotype optotype) {
-        try (InputStream in = this.getClass().getResourceAsStream(OPTOTYPE_OBJECT);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
-            ArrayList<Vertex> vertexArrayList = new ArrayList<>();
-            ArrayList<Integer> indicesArrayList = new ArrayList<>();
-            while (true) {
-                String line = reader.readLine();
-                if (line == null)
-                    break; // if end of line, then exit
-                if (line.length() == 0 || line.charAt(0) != 'g' ||
-                        !line.substring(2, 3).equals(optotype.toString()))
-                    continue; // if not our optotype, do nothing
-                while (true) {
-                    line = reader.readLine();
-                    if (line.length() == 0)
-                        break; // empty line indicates we are done
-                    switch (line.charAt(0)) {
-                        case 'v' -> { // process vertices
-                            String[] stringArray = line.substring(2).split(" ");
-                            vertexArrayList.add(new Vertex(new Vector3f(Float.parseFloat(stringArray[0]),
-                                    Float.parseFloat(stringArray[1]), Float.parseFloat(stringArray[2]))));
-                        }
-                        case 'f' -> { // process indices
-                            String[] stringArray = line.substring(2).split(" ");
-                            for (String s : stringArray)
-                                indicesArrayList.add(Integer.parseInt(s) - 1);
-                        }
-                    }
-                }
-            }
-            vertices = vertexArrayList.toArray(Vertex[]::new);
-            indices = indicesArrayList.toArray(Integer[]::new);
-        } catch (IOException e) {
-            throw new RuntimeException("Could not load Optotype", e);
-        }
-        indices = expandIndices(indices);
     }
 
-    /** expand indices for the back sides of the 2D model */
-    private Integer[] expandIndices(Integer[] in) {
-        Integer[] out = new Integer[2 * in.length];
-        System.arraycopy(in, 0, out, 0, in.length);
-        for (int i = in.length; i < out.length; i++) {
-            out[i] = in[out.length - 1 - i];
-        }
-        return out;
+    /** set the position of a vertex and its uv map coordinates computed from it */
+    private void vertex(int vertex, float x, float y, float z) {
+        vertex(vertex, x, y, z, x / 2 + 0.5f, -y / 2 + 0.5f);
     }
 
-    /** load model from file for processing */
-    static class LoadedModel {
-
-        final List<Vector3f> vertices;
-        final List<Vector2f> uv;
-        final List<Integer> indices;
-
-        /** get vertices, indices and uv map for a load model from file */
-        LoadedModel() {
-            this.vertices = new ArrayList<>();
-            this.uv = new ArrayList<>();
-            this.indices = new ArrayList<>();
-        }
-
+    /** set the position and uv map coordinates of a vertex */
+    private void vertex(int vertex, float x, float y, float z, float u, float v) {
+        int k = VERTEX_FLOATS * vertex;
+        vertices[k] = x;
+        vertices[k + 1] = y;
+        vertices[k + 2] = z;
+        vertices[k + 3] = u;
+        vertices[k + 4] = v;
     }
 
 }
@@ -44,6 +44,7 @@ public class Observer {
     Optics optics = new Optics(); // optics for the cyclops
     Optics opticsLeft = new Optics(); // optics for the left eye
     Optics opticsRight = new Optics(); // optics for the right eye
+    long version = VulkanSetup.nextVersion(); // last change to views, projections, or optics
 
     private float width; // view width and height in meters
     private float height;
@@ -208,6 +209,7 @@ public class Observer {
      */
     public void setProjection(Projection projection) {
         this.projection = projection;
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -232,6 +234,7 @@ public class Observer {
      */
     void setViewMode(ViewMode viewMode) {
         this.viewMode = viewMode;
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -288,6 +291,7 @@ public class Observer {
         optics.setCoefficients(k1, k2, k3, k4);
         opticsLeft.setCoefficients(k1, k2, k3, k4);
         opticsLeft.setCoefficients(k1, k2, k3, k4);
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -317,6 +321,7 @@ public class Observer {
         viewRight = new Matrix4f(view);
         translateViewMatrix(viewLeft, new Vector3f(pd, 0.0f, 0.0f));
         translateViewMatrix(viewRight, new Vector3f(-pd, 0.0f, 0.0f));
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -331,6 +336,7 @@ public class Observer {
         translateViewMatrix(view, offset);
         translateViewMatrix(viewLeft, offset);
         translateViewMatrix(viewRight, offset);
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -352,6 +358,7 @@ public class Observer {
         orthographic.setOrtho(-width / 2, width / 2, -height / 2, height / 2, ZNEAR, ZFAR, true);
         orthographicLeft.setOrtho(-width / 4, width / 4, -height / 2, height / 2, ZNEAR, ZFAR, true);
         orthographicRight.setOrtho(-width / 4, width / 4, -height / 2, height / 2, ZNEAR, ZFAR, true);
+        version = VulkanSetup.nextVersion();
     }
 
     /** Compute aspect ratio, update FOVX and FOVY, and set the projection matrix */
@@ -377,6 +384,61 @@ public class Observer {
         view.rotateLocalX(rx).rotateLocalY(ry).rotateLocalZ(rz);
         viewLeft.rotateLocalX(rx).rotateLocalY(ry).rotateLocalZ(rz);
         viewRight.rotateLocalX(rx).rotateLocalY(ry).rotateLocalZ(rz);
+        version = VulkanSetup.nextVersion();
+    }
+
+    /**
+     * 
+     * Get the view matrix for a view pass
+     *
+     * @param passNumber view pass, 0 for mono or left eye and 1 for right eye
+     *
+     * @return The view matrix
+     *
+     * @since 0.0.1
+     */
+    Matrix4f view(int passNumber) {
+        return switch (viewMode) {
+            case MONO -> view;
+            case STEREO -> projection == Projection.ORTHOGRAPHIC ? view : passNumber == 0 ? viewLeft : viewRight;
+        };
+    }
+
+    /**
+     * 
+     * Get the projection matrix for a view pass
+     *
+     * @param passNumber view pass, 0 for mono or left eye and 1 for right eye
+     *
+     * @return The projection matrix
+     *
+     * @since 0.0.1
+     */
+    Matrix4f projection(int passNumber) {
+        return switch (projection) {
+            case ORTHOGRAPHIC -> switch (viewMode) {
+                case MONO -> orthographic;
+                case STEREO -> passNumber == 0 ? orthographicLeft : orthographicRight;
+            };
+            case PERSPECTIVE -> switch (viewMode) {
+                case MONO -> perspective;
+                case STEREO -> passNumber == 0 ? perspectiveLeft : perspectiveRight;
+            };
+        };
+    }
+
+    /**
+     * 
+     * Get the optics for a view pass
+     *
+     * @param passNumber view pass, 0 for mono or left eye and 1 for right eye
+     *
+     * @return The optics
+     *
+     * @since 0.0.1
+     */
+    Optics optics(int passNumber) {
+        return passNumber == 0 ? opticsLeft : opticsRight;
     }
 
     /** Translate viewMatrix */
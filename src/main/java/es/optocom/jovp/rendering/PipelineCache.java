@@ -0,0 +1,163 @@
+package es.optocom.jovp.rendering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.util.Arrays;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_PIPELINE_CACHE_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_SUCCESS;
+import static org.lwjgl.vulkan.VK10.VK_UUID_SIZE;
+import static org.lwjgl.vulkan.VK10.vkCreatePipelineCache;
+import static org.lwjgl.vulkan.VK10.vkDestroyPipelineCache;
+import static org.lwjgl.vulkan.VK10.vkGetPipelineCacheData;
+import static org.lwjgl.vulkan.VK11.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_ID_PROPERTIES;
+import static org.lwjgl.vulkan.VK11.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_PROPERTIES_2;
+import static org.lwjgl.vulkan.VK11.vkGetPhysicalDeviceProperties2;
+import org.lwjgl.vulkan.VkPhysicalDevice;
+import org.lwjgl.vulkan.VkPhysicalDeviceIDProperties;
+import org.lwjgl.vulkan.VkPhysicalDeviceProperties2;
+import org.lwjgl.vulkan.VkPipelineCacheCreateInfo;
+
+/**
+ *
+ * Pipeline cache shared by all pipelines and kept on disk between runs. The
+ * file starts with the device UUID, driver version and pipeline cache UUID of
+ * the device that wrote it, and its data is only used by that same device and
+ * driver.
+ *
+ * @since 0.0.1
+ */
+class PipelineCache {
+
+    static final String FILE = "pipelines.bin";
+    private static final int HEADER_SIZE = 3 * VK_UUID_SIZE + 3 * Integer.BYTES;
+
+    final long handle;
+    final long seed; // size of the file the cache was seeded with, 0 if built from scratch
+    private final Path path;
+    private final byte[] header;
+
+    /**
+     *
+     * Create the pipeline cache, seeded with the file in the cache directory
+     * if it was written by the same device and driver
+     *
+     * @param physicalDevice The physical device
+     *
+     * @since 0.0.1
+     */
+    PipelineCache(VkPhysicalDevice physicalDevice) {
+        path = VulkanSetup.cacheDirectory.resolve(FILE);
+        header = header(physicalDevice);
+        byte[] data = read();
+        seed = data == null ? 0 : HEADER_SIZE + data.length;
+        ByteBuffer initialData = data == null ? null : memAlloc(data.length).put(data).flip();
+        try (MemoryStack stack = stackPush()) {
+            VkPipelineCacheCreateInfo createInfo = VkPipelineCacheCreateInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_PIPELINE_CACHE_CREATE_INFO)
+                    .pInitialData(initialData);
+            LongBuffer pPipelineCache = stack.mallocLong(1);
+            int result = vkCreatePipelineCache(VulkanSetup.logicalDevice.device, createInfo, null, pPipelineCache);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to create pipeline cache: " + VulkanSetup.translateVulkanResult(result));
+            handle = pPipelineCache.get(0);
+        } finally {
+            memFree(initialData);
+        }
+    }
+
+    /**
+     *
+     * Write the pipeline cache to the cache directory. The cache is only an
+     * optimization, so failures to write are ignored
+     *
+     * @since 0.0.1
+     */
+    void save() {
+        try (MemoryStack stack = stackPush()) {
+            PointerBuffer pSize = stack.mallocPointer(1);
+            if (vkGetPipelineCacheData(VulkanSetup.logicalDevice.device, handle, pSize, null) != VK_SUCCESS) return;
+            ByteBuffer data = memAlloc((int) pSize.get(0));
+            Path temporary = null;
+            try {
+                if (vkGetPipelineCacheData(VulkanSetup.logicalDevice.device, handle, pSize, data) != VK_SUCCESS) return;
+                byte[] bytes = new byte[HEADER_SIZE + (int) pSize.get(0)];
+                System.arraycopy(header, 0, bytes, 0, HEADER_SIZE);
+                data.get(bytes, HEADER_SIZE, (int) pSize.get(0));
+                Files.createDirectories(path.getParent());
+                temporary = Files.createTempFile(path.getParent(), "pipelines", ".tmp");
+                Files.write(temporary, bytes);
+                Files.move(temporary, path, REPLACE_EXISTING, ATOMIC_MOVE);
+            } catch (IOException | UnsupportedOperationException e) {
+                delete(temporary); // next run builds pipelines from scratch
+            } finally {
+                memFree(data);
+            }
+        }
+    }
+
+    /**
+     *
+     * Destroy the pipeline cache
+     *
+     * @since 0.0.1
+     */
+    void destroy() {
+        vkDestroyPipelineCache(VulkanSetup.logicalDevice.device, handle, null);
+    }
+
+    /** cache data in the file, null if there is none or it was written by another device or driver */
+    private byte[] read() {
+        try {
+            if (!Files.isRegularFile(path)) return null;
+            byte[] bytes = Files.readAllBytes(path);
+            if (bytes.length <= HEADER_SIZE || !Arrays.equals(header, 0, HEADER_SIZE, bytes, 0, HEADER_SIZE))
+                return null;
+            return Arrays.copyOfRange(bytes, HEADER_SIZE, bytes.length);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** device UUID, driver UUID, pipeline cache UUID, vendor, device and driver version */
+    private static byte[] header(VkPhysicalDevice physicalDevice) {
+        try (MemoryStack stack = stackPush()) {
+            VkPhysicalDeviceIDProperties idProperties = VkPhysicalDeviceIDProperties.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_ID_PROPERTIES);
+            VkPhysicalDeviceProperties2 properties = VkPhysicalDeviceProperties2.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_PROPERTIES_2)
+                    .pNext(idProperties);
+            vkGetPhysicalDeviceProperties2(physicalDevice, properties);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(idProperties.deviceUUID())
+                  .put(idProperties.driverUUID())
+                  .put(properties.properties().pipelineCacheUUID())
+                  .putInt(properties.properties().vendorID())
+                  .putInt(properties.properties().deviceID())
+                  .putInt(properties.properties().driverVersion());
+            return header.array();
+        }
+    }
+
+    /** delete a temporary file left by a failed write, if there is one */
+    private static void delete(Path temporary) {
+        if (temporary == null) return;
+        try {
+            Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+            // left for the operating system to clean
+        }
+    }
+
+}
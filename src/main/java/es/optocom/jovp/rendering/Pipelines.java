@@ -0,0 +1,452 @@
+package es.optocom.jovp.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+import org.lwjgl.system.MemoryStack;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.vulkan.VK10.VK_BLEND_FACTOR_ONE;
+import static org.lwjgl.vulkan.VK10.VK_BLEND_FACTOR_ONE_MINUS_SRC_ALPHA;
+import static org.lwjgl.vulkan.VK10.VK_BLEND_FACTOR_SRC_ALPHA;
+import static org.lwjgl.vulkan.VK10.VK_BLEND_FACTOR_ZERO;
+import static org.lwjgl.vulkan.VK10.VK_BLEND_OP_ADD;
+import static org.lwjgl.vulkan.VK10.VK_COLOR_COMPONENT_A_BIT;
+import static org.lwjgl.vulkan.VK10.VK_COLOR_COMPONENT_B_BIT;
+import static org.lwjgl.vulkan.VK10.VK_COLOR_COMPONENT_G_BIT;
+import static org.lwjgl.vulkan.VK10.VK_COLOR_COMPONENT_R_BIT;
+import static org.lwjgl.vulkan.VK10.VK_COMPARE_OP_ALWAYS;
+import static org.lwjgl.vulkan.VK10.VK_COMPARE_OP_LESS;
+import static org.lwjgl.vulkan.VK10.VK_CULL_MODE_BACK_BIT;
+import static org.lwjgl.vulkan.VK10.VK_CULL_MODE_NONE;
+import static org.lwjgl.vulkan.VK10.VK_DYNAMIC_STATE_SCISSOR;
+import static org.lwjgl.vulkan.VK10.VK_DYNAMIC_STATE_VIEWPORT;
+import static org.lwjgl.vulkan.VK10.VK_FORMAT_R32G32B32_SFLOAT;
+import static org.lwjgl.vulkan.VK10.VK_FORMAT_R32G32_SFLOAT;
+import static org.lwjgl.vulkan.VK10.VK_FRONT_FACE_CLOCKWISE;
+import static org.lwjgl.vulkan.VK10.VK_FRONT_FACE_COUNTER_CLOCKWISE;
+import static org.lwjgl.vulkan.VK10.VK_LOGIC_OP_COPY;
+import static org.lwjgl.vulkan.VK10.VK_NULL_HANDLE;
+import static org.lwjgl.vulkan.VK10.VK_POLYGON_MODE_FILL;
+import static org.lwjgl.vulkan.VK10.VK_PRIMITIVE_TOPOLOGY_TRIANGLE_LIST;
+import static org.lwjgl.vulkan.VK10.VK_SHADER_STAGE_FRAGMENT_BIT;
+import static org.lwjgl.vulkan.VK10.VK_SHADER_STAGE_VERTEX_BIT;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_GRAPHICS_PIPELINE_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_PIPELINE_COLOR_BLEND_STATE_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_PIPELINE_DEPTH_STENCIL_STATE_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_PIPELINE_DYNAMIC_STATE_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_PIPELINE_INPUT_ASSEMBLY_STATE_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_PIPELINE_LAYOUT_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_PIPELINE_MULTISAMPLE_STATE_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_PIPELINE_RASTERIZATION_STATE_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_PIPELINE_SHADER_STAGE_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_PIPELINE_VERTEX_INPUT_STATE_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_PIPELINE_VIEWPORT_STATE_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_SHADER_MODULE_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_SUCCESS;
+import static org.lwjgl.vulkan.VK10.VK_VERTEX_INPUT_RATE_VERTEX;
+import static org.lwjgl.vulkan.VK10.vkCreateGraphicsPipelines;
+import static org.lwjgl.vulkan.VK10.vkCreatePipelineLayout;
+import static org.lwjgl.vulkan.VK10.vkCreateShaderModule;
+import static org.lwjgl.vulkan.VK10.vkDestroyPipeline;
+import static org.lwjgl.vulkan.VK10.vkDestroyPipelineLayout;
+import static org.lwjgl.vulkan.VK10.vkDestroyShaderModule;
+import org.lwjgl.vulkan.VkGraphicsPipelineCreateInfo;
+import org.lwjgl.vulkan.VkPipelineColorBlendAttachmentState;
+import org.lwjgl.vulkan.VkPipelineColorBlendStateCreateInfo;
+import org.lwjgl.vulkan.VkPipelineDepthStencilStateCreateInfo;
+import org.lwjgl.vulkan.VkPipelineDynamicStateCreateInfo;
+import org.lwjgl.vulkan.VkPipelineInputAssemblyStateCreateInfo;
+import org.lwjgl.vulkan.VkPipelineLayoutCreateInfo;
+import org.lwjgl.vulkan.VkPipelineMultisampleStateCreateInfo;
+import org.lwjgl.vulkan.VkPipelineRasterizationStateCreateInfo;
+import org.lwjgl.vulkan.VkPipelineShaderStageCreateInfo;
+import org.lwjgl.vulkan.VkPipelineVertexInputStateCreateInfo;
+import org.lwjgl.vulkan.VkPipelineViewportStateCreateInfo;
+import org.lwjgl.vulkan.VkShaderModuleCreateInfo;
+import org.lwjgl.vulkan.VkVertexInputAttributeDescription;
+import org.lwjgl.vulkan.VkVertexInputBindingDescription;
+
+import es.optocom.jovp.definitions.ShaderKind;
+
+/**
+ *
+ * Graphics pipelines shared by all view passes. Viewport and scissor are
+ * dynamic state set by each view pass when commands are recorded, so the
+ * pipelines do not depend on the swap chain extent or view mode and survive
+ * window resizes. They only need to be rebuilt if the swap chain image format
+ * changes.
+ *
+ * @since 0.0.1
+ */
+class Pipelines {
+
+    static final int VERTEX_FORMAT = VK_FORMAT_R32G32B32_SFLOAT;
+    static final int VERTEX_OFFSET = 0;
+    static final int TEXTURE_FORMAT = VK_FORMAT_R32G32_SFLOAT;
+    static final int TEXTURE_OFFSET = 3 * Float.BYTES;
+    static final int PRIMITIVE_TOPOLOGY = VK_PRIMITIVE_TOPOLOGY_TRIANGLE_LIST;
+    static final boolean PRIMITIVE_RESTART_ENABLE = false;
+    static final int[] DYNAMIC_STATES = {VK_DYNAMIC_STATE_VIEWPORT, VK_DYNAMIC_STATE_SCISSOR};
+    static final boolean DEPTH_CLAMP_ENABLE = false;
+    static final boolean RASTERIZER_DISCARD_ENABLE = false;
+    static final int POLYGON_MODE = VK_POLYGON_MODE_FILL;
+    static final float LINE_WIDTH = 1.0f;
+    static final int CULL_MODE = VK_CULL_MODE_BACK_BIT;
+    static final int FRONT_FACE = VK_FRONT_FACE_COUNTER_CLOCKWISE;
+    static final boolean DEPTH_BIAS_ENABLE = false;
+    static final boolean SAMPLE_SHADING_ENABLE = false;
+    static final boolean DEPTH_TEST_ENABLE = true;
+    static final boolean DEPTH_WRITE_ENABLE = true;
+    static final int DEPTH_COMPARE_OPERATION = VK_COMPARE_OP_LESS;
+    static final boolean DEPTH_BOUNDS_TEST_ENABLE = false;
+    static final boolean STENCIL_TEST_ENABLE = false;
+    static final int COLOR_WRITE_MASK = VK_COLOR_COMPONENT_R_BIT | VK_COLOR_COMPONENT_G_BIT | VK_COLOR_COMPONENT_B_BIT | VK_COLOR_COMPONENT_A_BIT;
+    static final boolean BLEND_ENABLE = true;
+    static final int BLEND_COLOR_SOURCE_FACTOR = VK_BLEND_FACTOR_SRC_ALPHA;
+    static final int BLEND_COLOR_DESTINATION_FACTOR = VK_BLEND_FACTOR_ONE_MINUS_SRC_ALPHA;
+    static final int BLEND_COLOR_OPERATION = VK_BLEND_OP_ADD;
+    static final int BLEND_ALPHA_SOURCE_FACTOR = VK_BLEND_FACTOR_ONE;
+    static final int BLEND_ALPHA_DESTINATION_FACTOR = VK_BLEND_FACTOR_ZERO;
+    static final int BLEND_ALPHA_OPERATION = VK_BLEND_OP_ADD;
+    static final boolean LOGIC_OPERATION_ENABLE = false;
+    static final int LOGIC_OPERATION = VK_LOGIC_OP_COPY;
+    static final float BLEND_CONSTANTS_X = 0.0f;
+    static final float BLEND_CONSTANTS_Y = 0.0f;
+    static final float BLEND_CONSTANTS_Z = 0.0f;
+    static final float BLEND_CONSTANTS_W = 0.0f;
+
+    final int imageFormat;
+    long graphicsPipelineLayout;
+    long graphicsPipeline;
+    long flatPipeline; // graphics pipeline without face culling, for flat models
+    long textPipelineLayout;
+    long textPipeline;
+    long instancedPipelineLayout;
+    long instancedPipeline;
+    long instancedFlatPipeline;
+
+    /**
+     *
+     * Creates the pipelines for render passes compatible with the one given
+     *
+     * @param renderPass Render pass handle
+     * @param imageFormat Format of the swap chain images the render pass
+     *                    renders to
+     *
+     * @since 0.0.1
+     */
+    Pipelines(long renderPass, int imageFormat) {
+        this.imageFormat = imageFormat;
+        createGraphicsPipeline(renderPass);
+        createTextPipeline(renderPass);
+        createInstancedPipeline(renderPass);
+        VulkanSetup.pipelineBuilds++;
+    }
+
+    /**
+     *
+     * Destroy the pipelines and their layouts
+     *
+     * @since 0.0.1
+     */
+    void destroy() {
+        vkDestroyPipeline(VulkanSetup.logicalDevice.device, instancedFlatPipeline, null);
+        vkDestroyPipeline(VulkanSetup.logicalDevice.device, instancedPipeline, null);
+        vkDestroyPipelineLayout(VulkanSetup.logicalDevice.device, instancedPipelineLayout, null);
+        vkDestroyPipeline(VulkanSetup.logicalDevice.device, textPipeline, null);
+        vkDestroyPipelineLayout(VulkanSetup.logicalDevice.device, textPipelineLayout, null);
+        vkDestroyPipeline(VulkanSetup.logicalDevice.device, flatPipeline, null);
+        vkDestroyPipeline(VulkanSetup.logicalDevice.device, graphicsPipeline, null);
+        vkDestroyPipelineLayout(VulkanSetup.logicalDevice.device, graphicsPipelineLayout, null);
+    }
+
+    /** create graphics pipelines, with and without face culling */
+    private void createGraphicsPipeline(long renderPass) {
+        // get resources
+        long vertShaderModule = createShaderModule(ShaderCache.get("es/optocom/jovp/shaders/shader.vert", ShaderKind.VERTEX_SHADER));
+        long fragShaderModule = createShaderModule(ShaderCache.get("es/optocom/jovp/shaders/shader.frag", ShaderKind.FRAGMENT_SHADER));
+        try (MemoryStack stack = stackPush()) {
+            VkPipelineShaderStageCreateInfo.Buffer shaderStages = createShaderStages(stack, vertShaderModule, fragShaderModule);
+            VkPipelineVertexInputStateCreateInfo vertexInput = createVertexStage(stack);
+            VkPipelineInputAssemblyStateCreateInfo inputAssembly = createAssemblyStage(stack);
+            VkPipelineViewportStateCreateInfo viewportState = createViewPortState(stack);
+            VkPipelineDynamicStateCreateInfo dynamicState = createDynamicState(stack);
+            VkPipelineRasterizationStateCreateInfo rasterizer = createGraphicsRasterizer(stack);
+            VkPipelineMultisampleStateCreateInfo multisampling = createMultisampling(stack);
+            VkPipelineDepthStencilStateCreateInfo depthStencil = createGraphicsDepthStencil(stack);
+            VkPipelineColorBlendStateCreateInfo colorBlending = createColorBlending(stack);
+            VkPipelineLayoutCreateInfo pipelineLayoutInfo = VkPipelineLayoutCreateInfo.calloc(stack)
+                .sType(VK_STRUCTURE_TYPE_PIPELINE_LAYOUT_CREATE_INFO)
+                .pSetLayouts(stack.longs(VulkanSetup.logicalDevice.descriptorSetLayout));
+            LongBuffer pPipelineLayout = stack.longs(VK_NULL_HANDLE);
+            int result = vkCreatePipelineLayout(VulkanSetup.logicalDevice.device, pipelineLayoutInfo,
+                    null, pPipelineLayout);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to create pipeline layout: " + VulkanSetup.translateVulkanResult(result));
+            graphicsPipelineLayout = pPipelineLayout.get(0);
+            VkGraphicsPipelineCreateInfo.Buffer pipelineInfo = VkGraphicsPipelineCreateInfo.calloc(1, stack)
+                .sType(VK_STRUCTURE_TYPE_GRAPHICS_PIPELINE_CREATE_INFO).pStages(shaderStages)
+                .pVertexInputState(vertexInput).pInputAssemblyState(inputAssembly)
+                .pViewportState(viewportState).pDynamicState(dynamicState).pRasterizationState(rasterizer)
+                .pMultisampleState(multisampling).pDepthStencilState(depthStencil)
+                .pColorBlendState(colorBlending).layout(graphicsPipelineLayout)
+                .renderPass(renderPass).subpass(0)
+                .basePipelineHandle(VK_NULL_HANDLE).basePipelineIndex(-1);
+            LongBuffer pPipeline = stack.mallocLong(1);
+            result = vkCreateGraphicsPipelines(VulkanSetup.logicalDevice.device, VulkanSetup.pipelineCache.handle, pipelineInfo,
+                    null, pPipeline);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to create graphics pipeline: " + VulkanSetup.translateVulkanResult(result));
+            graphicsPipeline = pPipeline.get(0);
+            rasterizer.cullMode(VK_CULL_MODE_NONE);
+            result = vkCreateGraphicsPipelines(VulkanSetup.logicalDevice.device, VulkanSetup.pipelineCache.handle, pipelineInfo,
+                    null, pPipeline);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to create graphics pipeline: " + VulkanSetup.translateVulkanResult(result));
+            flatPipeline = pPipeline.get(0);
+        }
+        // Release resources
+        vkDestroyShaderModule(VulkanSetup.logicalDevice.device, vertShaderModule, null);
+        vkDestroyShaderModule(VulkanSetup.logicalDevice.device, fragShaderModule, null);
+    }
+
+    /** create graphics pipelines for instanced items, with and without face culling */
+    private void createInstancedPipeline(long renderPass) {
+        // get resources
+        long vertShaderModule = createShaderModule(ShaderCache.get("es/optocom/jovp/shaders/instanced.vert", ShaderKind.VERTEX_SHADER));
+        long fragShaderModule = createShaderModule(ShaderCache.get("es/optocom/jovp/shaders/shader.frag", ShaderKind.FRAGMENT_SHADER));
+        try (MemoryStack stack = stackPush()) {
+            VkPipelineShaderStageCreateInfo.Buffer shaderStages = createShaderStages(stack, vertShaderModule, fragShaderModule);
+            VkPipelineVertexInputStateCreateInfo vertexInput = createVertexStage(stack);
+            VkPipelineInputAssemblyStateCreateInfo inputAssembly = createAssemblyStage(stack);
+            VkPipelineViewportStateCreateInfo viewportState = createViewPortState(stack);
+            VkPipelineDynamicStateCreateInfo dynamicState = createDynamicState(stack);
+            VkPipelineRasterizationStateCreateInfo rasterizer = createGraphicsRasterizer(stack);
+            VkPipelineMultisampleStateCreateInfo multisampling = createMultisampling(stack);
+            VkPipelineDepthStencilStateCreateInfo depthStencil = createGraphicsDepthStencil(stack);
+            VkPipelineColorBlendStateCreateInfo colorBlending = createColorBlending(stack);
+            VkPipelineLayoutCreateInfo pipelineLayoutInfo = VkPipelineLayoutCreateInfo.calloc(stack)
+                .sType(VK_STRUCTURE_TYPE_PIPELINE_LAYOUT_CREATE_INFO)
+                .pSetLayouts(stack.longs(VulkanSetup.logicalDevice.instancedDescriptorSetLayout));
+            LongBuffer pPipelineLayout = stack.longs(VK_NULL_HANDLE);
+            int result = vkCreatePipelineLayout(VulkanSetup.logicalDevice.device, pipelineLayoutInfo,
+                    null, pPipelineLayout);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to create pipeline layout: " + VulkanSetup.translateVulkanResult(result));
+            instancedPipelineLayout = pPipelineLayout.get(0);
+            VkGraphicsPipelineCreateInfo.Buffer pipelineInfo = VkGraphicsPipelineCreateInfo.calloc(1, stack)
+                .sType(VK_STRUCTURE_TYPE_GRAPHICS_PIPELINE_CREATE_INFO).pStages(shaderStages)
+                .pVertexInputState(vertexInput).pInputAssemblyState(inputAssembly)
+                .pViewportState(viewportState).pDynamicState(dynamicState).pRasterizationState(rasterizer)
+                .pMultisampleState(multisampling).pDepthStencilState(depthStencil)
+                .pColorBlendState(colorBlending).layout(instancedPipelineLayout)
+                .renderPass(renderPass).subpass(0)
+                .basePipelineHandle(VK_NULL_HANDLE).basePipelineIndex(-1);
+            LongBuffer pPipeline = stack.mallocLong(1);
+            result = vkCreateGraphicsPipelines(VulkanSetup.logicalDevice.device, VulkanSetup.pipelineCache.handle, pipelineInfo,
+                    null, pPipeline);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to create graphics pipeline: " + VulkanSetup.translateVulkanResult(result));
+            instancedPipeline = pPipeline.get(0);
+            rasterizer.cullMode(VK_CULL_MODE_NONE);
+            result = vkCreateGraphicsPipelines(VulkanSetup.logicalDevice.device, VulkanSetup.pipelineCache.handle, pipelineInfo,
+                    null, pPipeline);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to create graphics pipeline: " + VulkanSetup.translateVulkanResult(result));
+            instancedFlatPipeline = pPipeline.get(0);
+        }
+        // Release resources
+        vkDestroyShaderModule(VulkanSetup.logicalDevice.device, vertShaderModule, null);
+        vkDestroyShaderModule(VulkanSetup.logicalDevice.device, fragShaderModule, null);
+    }
+
+    /** create overlay text pipeline */
+    private void createTextPipeline(long renderPass) {
+        // get resources
+        long vertShaderModule = createShaderModule(ShaderCache.get("es/optocom/jovp/shaders/text.vert", ShaderKind.VERTEX_SHADER));
+        long fragShaderModule = createShaderModule(ShaderCache.get("es/optocom/jovp/shaders/text.frag", ShaderKind.FRAGMENT_SHADER));
+        try (MemoryStack stack = stackPush()) {
+            VkPipelineShaderStageCreateInfo.Buffer shaderStages = createShaderStages(stack, vertShaderModule, fragShaderModule);
+            VkPipelineVertexInputStateCreateInfo vertexInput = createVertexStage(stack);
+            VkPipelineInputAssemblyStateCreateInfo inputAssembly = createAssemblyStage(stack);
+            VkPipelineViewportStateCreateInfo viewportState = createViewPortState(stack);
+            VkPipelineDynamicStateCreateInfo dynamicState = createDynamicState(stack);
+            VkPipelineRasterizationStateCreateInfo rasterizer = createTextRasterizer(stack);
+            VkPipelineMultisampleStateCreateInfo multisampling = createMultisampling(stack);
+            VkPipelineDepthStencilStateCreateInfo depthStencil = createTextDepthStencil(stack);
+            VkPipelineColorBlendStateCreateInfo colorBlending = createColorBlending(stack);
+
+            VkPipelineLayoutCreateInfo pipelineLayoutInfo = VkPipelineLayoutCreateInfo.calloc(stack)
+                .sType(VK_STRUCTURE_TYPE_PIPELINE_LAYOUT_CREATE_INFO)
+                .pSetLayouts(stack.longs(VulkanSetup.logicalDevice.descriptorSetLayout));
+            LongBuffer pPipelineLayout = stack.longs(VK_NULL_HANDLE);
+            int result = vkCreatePipelineLayout(VulkanSetup.logicalDevice.device, pipelineLayoutInfo,
+                    null, pPipelineLayout);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to create pipeline layout: " + VulkanSetup.translateVulkanResult(result));
+            textPipelineLayout = pPipelineLayout.get(0);
+            VkGraphicsPipelineCreateInfo.Buffer textPipelineInfo = VkGraphicsPipelineCreateInfo.calloc(1, stack)
+                    .sType(VK_STRUCTURE_TYPE_GRAPHICS_PIPELINE_CREATE_INFO).pStages(shaderStages)
+                    .pVertexInputState(vertexInput).pInputAssemblyState(inputAssembly)
+                    .pViewportState(viewportState).pDynamicState(dynamicState).pRasterizationState(rasterizer)
+                    .pMultisampleState(multisampling).pDepthStencilState(depthStencil)
+                    .pColorBlendState(colorBlending).layout(textPipelineLayout)
+                    .renderPass(renderPass).subpass(0)
+                    .basePipelineHandle(VK_NULL_HANDLE).basePipelineIndex(-1);
+            LongBuffer pPipeline = stack.mallocLong(1);
+            result = vkCreateGraphicsPipelines(VulkanSetup.logicalDevice.device, VulkanSetup.pipelineCache.handle, textPipelineInfo,
+                    null, pPipeline);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to create graphics pipeline: " + VulkanSetup.translateVulkanResult(result));
+            textPipeline = pPipeline.get(0);
+        }
+        // Release resources
+        vkDestroyShaderModule(VulkanSetup.logicalDevice.device, vertShaderModule, null);
+        vkDestroyShaderModule(VulkanSetup.logicalDevice.device, fragShaderModule, null);
+    }
+
+    /** Shader stages */
+    private VkPipelineShaderStageCreateInfo.Buffer createShaderStages(MemoryStack stack, long vert, long frag) {
+        ByteBuffer entryPoint = stack.UTF8("main");
+        VkPipelineShaderStageCreateInfo.Buffer shaderStages = VkPipelineShaderStageCreateInfo.calloc(2, stack);
+        shaderStages.get(0).sType(VK_STRUCTURE_TYPE_PIPELINE_SHADER_STAGE_CREATE_INFO)
+                                 .stage(VK_SHADER_STAGE_VERTEX_BIT).module(vert).pName(entryPoint);
+        shaderStages.get(1).sType(VK_STRUCTURE_TYPE_PIPELINE_SHADER_STAGE_CREATE_INFO)
+                                 .stage(VK_SHADER_STAGE_FRAGMENT_BIT).module(frag).pName(entryPoint);
+        return shaderStages;
+    }
+
+    /** create shader module */
+    private long createShaderModule(ByteBuffer spirvCode) {
+        try (MemoryStack stack = stackPush()) {
+            VkShaderModuleCreateInfo createInfo = VkShaderModuleCreateInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_SHADER_MODULE_CREATE_INFO).pCode(spirvCode);
+            LongBuffer pShaderModule = stack.mallocLong(1);
+            int result = vkCreateShaderModule(VulkanSetup.logicalDevice.device, createInfo, null, pShaderModule);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to create shader module: " +
+                        VulkanSetup.translateVulkanResult(result));
+            return pShaderModule.get(0);
+        }
+    }
+
+    /** Vertex stage */
+    private VkPipelineVertexInputStateCreateInfo createVertexStage(MemoryStack stack) {
+        return VkPipelineVertexInputStateCreateInfo.calloc(stack)
+            .sType(VK_STRUCTURE_TYPE_PIPELINE_VERTEX_INPUT_STATE_CREATE_INFO)
+            .pVertexBindingDescriptions(getBindingDescription())
+            .pVertexAttributeDescriptions(getAttributeDescriptions());
+    }
+
+    /** Assembly stage */
+    private VkPipelineInputAssemblyStateCreateInfo createAssemblyStage(MemoryStack stack) {
+        return VkPipelineInputAssemblyStateCreateInfo.calloc(stack)
+            .sType(VK_STRUCTURE_TYPE_PIPELINE_INPUT_ASSEMBLY_STATE_CREATE_INFO)
+            .topology(PRIMITIVE_TOPOLOGY)
+            .primitiveRestartEnable(PRIMITIVE_RESTART_ENABLE);
+    }
+
+    /** create viewport state, viewport and scissor are set when recording */
+    private VkPipelineViewportStateCreateInfo createViewPortState(MemoryStack stack) {
+        return VkPipelineViewportStateCreateInfo.calloc(stack)
+            .sType(VK_STRUCTURE_TYPE_PIPELINE_VIEWPORT_STATE_CREATE_INFO)
+            .viewportCount(1).scissorCount(1);
+    }
+
+    /** create dynamic state */
+    private VkPipelineDynamicStateCreateInfo createDynamicState(MemoryStack stack) {
+        return VkPipelineDynamicStateCreateInfo.calloc(stack)
+            .sType(VK_STRUCTURE_TYPE_PIPELINE_DYNAMIC_STATE_CREATE_INFO)
+            .pDynamicStates(stack.ints(DYNAMIC_STATES));
+    }
+
+    /** create graphics rasterizer */
+    private VkPipelineRasterizationStateCreateInfo createGraphicsRasterizer(MemoryStack stack) {
+        return VkPipelineRasterizationStateCreateInfo.calloc(stack)
+            .sType(VK_STRUCTURE_TYPE_PIPELINE_RASTERIZATION_STATE_CREATE_INFO)
+            .depthClampEnable(DEPTH_CLAMP_ENABLE)
+            .rasterizerDiscardEnable(RASTERIZER_DISCARD_ENABLE)
+            .polygonMode(POLYGON_MODE).lineWidth(LINE_WIDTH)
+            .cullMode(CULL_MODE).frontFace(FRONT_FACE)
+            .depthBiasEnable(DEPTH_BIAS_ENABLE);
+    }
+
+    /** create overlay text rasterizer */
+    private VkPipelineRasterizationStateCreateInfo createTextRasterizer(MemoryStack stack) {
+        return VkPipelineRasterizationStateCreateInfo.calloc(stack)
+            .sType(VK_STRUCTURE_TYPE_PIPELINE_RASTERIZATION_STATE_CREATE_INFO)
+            .depthClampEnable(DEPTH_CLAMP_ENABLE)
+            .rasterizerDiscardEnable(RASTERIZER_DISCARD_ENABLE)
+            .polygonMode(POLYGON_MODE).lineWidth(LINE_WIDTH)
+            .cullMode(VK_CULL_MODE_NONE).frontFace(VK_FRONT_FACE_CLOCKWISE)
+            .depthBiasEnable(DEPTH_BIAS_ENABLE);
+    }
+
+    /** create multisampling */
+    private VkPipelineMultisampleStateCreateInfo createMultisampling(MemoryStack stack) {
+        return VkPipelineMultisampleStateCreateInfo.calloc(stack)
+            .sType(VK_STRUCTURE_TYPE_PIPELINE_MULTISAMPLE_STATE_CREATE_INFO)
+            .sampleShadingEnable(SAMPLE_SHADING_ENABLE)
+            .rasterizationSamples(VulkanSetup.logicalDevice.msaaSamples)
+            .minSampleShading(1.0f)
+            .alphaToCoverageEnable(false)
+            .alphaToOneEnable(false);
+    }
+
+    /** create graphics depth stencil */
+    private VkPipelineDepthStencilStateCreateInfo createGraphicsDepthStencil(MemoryStack stack) {
+        return VkPipelineDepthStencilStateCreateInfo.calloc(stack)
+            .sType(VK_STRUCTURE_TYPE_PIPELINE_DEPTH_STENCIL_STATE_CREATE_INFO)
+            .depthTestEnable(DEPTH_TEST_ENABLE)
+            .depthWriteEnable(DEPTH_WRITE_ENABLE)
+            .depthCompareOp(DEPTH_COMPARE_OPERATION)
+            .depthBoundsTestEnable(DEPTH_BOUNDS_TEST_ENABLE)
+            .stencilTestEnable(STENCIL_TEST_ENABLE);
+    }
+
+    /** create overlay text depth stencil */
+    private VkPipelineDepthStencilStateCreateInfo createTextDepthStencil(MemoryStack stack) {
+        return VkPipelineDepthStencilStateCreateInfo.calloc(stack)
+            .sType(VK_STRUCTURE_TYPE_PIPELINE_DEPTH_STENCIL_STATE_CREATE_INFO)
+            .depthTestEnable(false).depthWriteEnable(false)
+            .depthCompareOp(VK_COMPARE_OP_ALWAYS)
+            .depthBoundsTestEnable(false).stencilTestEnable(false);
+    }
+
+    /** color blending */
+    private VkPipelineColorBlendStateCreateInfo createColorBlending(MemoryStack stack) {
+        VkPipelineColorBlendAttachmentState.Buffer colorBlendAttachment = VkPipelineColorBlendAttachmentState
+            .calloc(1, stack).colorWriteMask(COLOR_WRITE_MASK).blendEnable(BLEND_ENABLE)
+            .srcColorBlendFactor(BLEND_COLOR_SOURCE_FACTOR)
+            .dstColorBlendFactor(BLEND_COLOR_DESTINATION_FACTOR)
+            .colorBlendOp(BLEND_COLOR_OPERATION)
+            .srcAlphaBlendFactor(BLEND_ALPHA_SOURCE_FACTOR)
+            .dstAlphaBlendFactor(BLEND_ALPHA_DESTINATION_FACTOR)
+            .alphaBlendOp(BLEND_ALPHA_OPERATION);
+        return VkPipelineColorBlendStateCreateInfo.calloc(stack)
+            .sType(VK_STRUCTURE_TYPE_PIPELINE_COLOR_BLEND_STATE_CREATE_INFO)
+            .logicOpEnable(LOGIC_OPERATION_ENABLE).logicOp(LOGIC_OPERATION)
+            .pAttachments(colorBlendAttachment)
+            .blendConstants(stack.floats(BLEND_CONSTANTS_X,BLEND_CONSTANTS_Y, BLEND_CONSTANTS_Z,BLEND_CONSTANTS_W));
+    }
+
+    /** get vertex input binding description */
+    public static VkVertexInputBindingDescription.Buffer getBindingDescription() {
+        return VkVertexInputBindingDescription.calloc(1)
+                .binding(0).stride(VulkanSetup.MODEL_SIZEOF).inputRate(VK_VERTEX_INPUT_RATE_VERTEX);
+    }
+
+    /** get attribute descriptions */
+    public static VkVertexInputAttributeDescription.Buffer getAttributeDescriptions() {
+        VkVertexInputAttributeDescription.Buffer attributeDescriptions = VkVertexInputAttributeDescription.calloc(2);
+        // Position
+        VkVertexInputAttributeDescription positionDescription = attributeDescriptions.get(0);
+        positionDescription.binding(0).location(0).format(VERTEX_FORMAT).offset(VERTEX_OFFSET);
+        // Texture coordinates
+        VkVertexInputAttributeDescription texturesCoordinatesDescription = attributeDescriptions.get(1);
+        texturesCoordinatesDescription.binding(0).location(1)
+                .format(TEXTURE_FORMAT).offset(TEXTURE_OFFSET);
+        return attributeDescriptions.rewind();
+    }
+
+}
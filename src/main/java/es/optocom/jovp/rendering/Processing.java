@@ -25,6 +25,7 @@ class Processing {
     Vector3f defocus = new Vector3f(); // xy = Geometric defocus x and y axes, z = astigmatism axis
 
     TextureType type;
+    long version; // last change to the postprocessing settings
 
     /**
      * 
@@ -66,6 +67,7 @@ class Processing {
             case IMAGE -> 2;
             case TEXT -> -1;
         };
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -80,7 +82,8 @@ class Processing {
      * @since 0.0.1
      */
     public void frequency(double xp, double xf, double yp, double yf) {
-        this.frequency = new Vector4f((float) xp, (float) yp, (float) xf, (float) yf);
+        frequency.set((float) xp, (float) yp, (float) xf, (float) yf);
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -95,7 +98,8 @@ class Processing {
      * @since 0.0.1
      */
     public void contrast(double r, double g, double b, double a) {
-        this.contrast = new Vector4f((float) r, (float) g, (float) b, (float) a);
+        contrast.set((float) r, (float) g, (float) b, (float) a);
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -109,7 +113,8 @@ class Processing {
      * @since 0.0.1
      */
     public void rotation(double ucenter, double vcenter, double rotation) {
-        this.rotation = new Vector3f((float) ucenter, (float) vcenter, (float) Math.toRadians(rotation));
+        this.rotation.set((float) ucenter, (float) vcenter, (float) Math.toRadians(rotation));
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -133,6 +138,7 @@ class Processing {
         envelope.x = (float) x;
         envelope.y = (float) y;
         envelope.z = (float) Math.toRadians(angle);
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -143,7 +149,8 @@ class Processing {
      */
     void removeEnvelope() {
         settings.y = 0;
-        envelope = new Vector3f();
+        envelope.zero();
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -165,6 +172,7 @@ class Processing {
         //defocus.x = (float) Math.toRadians(sdx) / 2;
         //defocus.y = (float) Math.toRadians(sdy) / 2;
         //defocus.z = (float) Math.toRadians(angle);
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -175,13 +183,14 @@ class Processing {
      */
     void removeDefocus() {
         settings.z = 0;
-        defocus = new Vector3f();
+        defocus.zero();
+        version = VulkanSetup.nextVersion();
     }
 
 
-    /** get frequency parameters to send to the shader */
-    Vector4f getFrequency(Vector2d size) {
-        return new Vector4f(
+    /** get frequency parameters to send to the shader into dest */
+    Vector4f getFrequency(Vector2d size, Vector4f dest) {
+        return dest.set(
             (float) (Math.toRadians(frequency.x) / (2 * Math.PI)),
             (float) (Math.toRadians(frequency.y) / (2 * Math.PI)),
             frequency.z == 0 ? 1 : frequency.z * (float) size.x,
@@ -189,18 +198,18 @@ class Processing {
         );
     }
 
-    /** get texture rotation parameters to send to the shader */
-    Vector3f getRotation(Vector4f freq) {
-        return new Vector3f(
+    /** get texture rotation parameters to send to the shader into dest */
+    Vector3f getRotation(Vector4f freq, Vector3f dest) {
+        return dest.set(
             freq.z * rotation.x,
             freq.w * rotation.y,
             rotation.z
         );
     }
 
-    /** get texture rotation parameters to send to the shader */
-    Vector3f getEnvelope(Vector3d size) {
-        return new Vector3f(
+    /** get envelope parameters to send to the shader into dest */
+    Vector3f getEnvelope(Vector3d size, Vector3f dest) {
+        return dest.set(
             envelope.x / (float) size.x,
             envelope.y / (float) size.y,
             envelope.z
@@ -0,0 +1,171 @@
+package es.optocom.jovp.rendering;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.util.shaderc.Shaderc.shaderc_compilation_status_success;
+import static org.lwjgl.util.shaderc.Shaderc.shaderc_compile_into_spv;
+import static org.lwjgl.util.shaderc.Shaderc.shaderc_compiler_initialize;
+import static org.lwjgl.util.shaderc.Shaderc.shaderc_compiler_release;
+import static org.lwjgl.util.shaderc.Shaderc.shaderc_result_get_bytes;
+import static org.lwjgl.util.shaderc.Shaderc.shaderc_result_get_compilation_status;
+import static org.lwjgl.util.shaderc.Shaderc.shaderc_result_get_error_message;
+import static org.lwjgl.util.shaderc.Shaderc.shaderc_result_release;
+
+import es.optocom.jovp.definitions.ShaderKind;
+
+/**
+ *
+ * SPIR-V bytecode of the engine shaders. Shaders compiled at build time are
+ * packaged next to their sources with the .spv extension, together with the
+ * SHA-256 of the source they were compiled from, and used as they are while
+ * the source is unchanged. Otherwise the source is compiled with shaderc once
+ * and stored in the cache directory under the hash of its source, so later
+ * runs skip compilation. Bytecode is kept in memory for the life of the
+ * process.
+ *
+ * @since 0.0.1
+ */
+class ShaderCache {
+
+    static final String CHECKSUM = ".spv.sha256"; // extension of the source hash of precompiled bytecode
+    private static final Map<String, ByteBuffer> SHADERS = new ConcurrentHashMap<>();
+
+    static int compilations = 0; // shaders compiled with shaderc since the process started
+
+    /**
+     *
+     * Get the SPIR-V bytecode of a shader
+     *
+     * @param shaderFile The shader source resource
+     * @param shaderKind Whether vertex or fragment shader
+     *
+     * @return The bytecode in a direct buffer
+     *
+     * @since 0.0.1
+     */
+    static ByteBuffer get(String shaderFile, ShaderKind shaderKind) {
+        return SHADERS.computeIfAbsent(shaderFile, file -> load(file, shaderKind)).duplicate();
+    }
+
+    /**
+     *
+     * Get precompiled bytecode, cached bytecode, or compile it, bypassing the
+     * bytecode kept in memory
+     *
+     * @param shaderFile The shader source resource
+     * @param shaderKind Whether vertex or fragment shader
+     *
+     * @return The bytecode in a direct buffer
+     *
+     * @since 0.0.1
+     */
+    static ByteBuffer load(String shaderFile, ShaderKind shaderKind) {
+        try {
+            byte[] source = readResource(shaderFile);
+            if (source == null)
+                throw new RuntimeException("Cannot find shader file " + shaderFile);
+            byte[] bytecode = precompiled(shaderFile, source);
+            if (bytecode != null) return direct(bytecode);
+            Path cached = VulkanSetup.cacheDirectory.resolve("shaders").resolve(hash(source, shaderKind) + ".spv");
+            if (Files.isRegularFile(cached)) return direct(Files.readAllBytes(cached));
+            ByteBuffer compiled = compileShader(shaderFile, new String(source, StandardCharsets.UTF_8), shaderKind);
+            store(cached, compiled);
+            return compiled;
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot load shader file " + shaderFile, e);
+        }
+    }
+
+    /** bytecode compiled at build time, null if there is none or it was compiled from another source */
+    private static byte[] precompiled(String shaderFile, byte[] source) throws IOException {
+        byte[] checksum = readResource(shaderFile + CHECKSUM);
+        if (checksum == null || !new String(checksum, StandardCharsets.US_ASCII).trim().equalsIgnoreCase(hash(source, null)))
+            return null;
+        return readResource(shaderFile + ".spv");
+    }
+
+    /** read a resource, null if it does not exist */
+    private static byte[] readResource(String name) throws IOException {
+        try (InputStream inputStream = ShaderCache.class.getClassLoader().getResourceAsStream(name)) {
+            return inputStream == null ? null : inputStream.readAllBytes();
+        }
+    }
+
+    /** write compiled bytecode to the cache, the cache is only an optimization so failures are ignored */
+    private static void store(Path path, ByteBuffer bytecode) {
+        byte[] bytes = new byte[bytecode.remaining()];
+        bytecode.duplicate().get(bytes);
+        Path temporary = null;
+        try {
+            Files.createDirectories(path.getParent());
+            temporary = Files.createTempFile(path.getParent(), "shader", ".tmp");
+            Files.write(temporary, bytes);
+            Files.move(temporary, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException | UnsupportedOperationException e) {
+            delete(temporary); // next run compiles again
+        }
+    }
+
+    /** hash of the shader source and kind, or of the source alone if there is no kind */
+    private static String hash(byte[] source, ShaderKind shaderKind) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source);
+            if (shaderKind != null) digest.update((byte) shaderKind.ordinal());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Cannot hash shader source", e);
+        }
+    }
+
+    /** copy bytecode into a direct buffer */
+    private static ByteBuffer direct(byte[] bytecode) {
+        return ByteBuffer.allocateDirect(bytecode.length).put(bytecode).flip();
+    }
+
+    /** compile shader */
+    private static ByteBuffer compileShader(String filename, String source, ShaderKind shaderKind) {
+        compilations++;
+        long compiler = shaderc_compiler_initialize();
+        if (compiler == NULL)
+            throw new RuntimeException("Failed to create shader compiler");
+        long result = shaderc_compile_into_spv(compiler, source, shaderKind.kind,
+                filename, "main", NULL);
+        shaderc_compiler_release(compiler);
+        if (result == NULL)
+            throw new RuntimeException("Failed to compile shader " + filename + " into SPIR-V");
+        if (shaderc_result_get_compilation_status(result) != shaderc_compilation_status_success) {
+            String message = shaderc_result_get_error_message(result);
+            shaderc_result_release(result);
+            throw new RuntimeException("Failed to compile shader " + filename + " into SPIR-V:\n " + message);
+        }
+        ByteBuffer bytes = shaderc_result_get_bytes(result);
+        ByteBuffer bytecode = ByteBuffer.allocateDirect(bytes.remaining()).put(bytes).flip();
+        shaderc_result_release(result);
+        return bytecode;
+    }
+
+    /** delete a temporary file left by a failed write, if there is one */
+    private static void delete(Path temporary) {
+        if (temporary == null) return;
+        try {
+            Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+            // left for the operating system to clean
+        }
+    }
+
+}
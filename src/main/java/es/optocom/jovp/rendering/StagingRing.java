@@ -0,0 +1,125 @@
+package es.optocom.jovp.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+import org.lwjgl.system.MemoryStack;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.vulkan.VK10.VK_BUFFER_USAGE_TRANSFER_SRC_BIT;
+import static org.lwjgl.vulkan.VK10.VK_MEMORY_PROPERTY_HOST_COHERENT_BIT;
+import static org.lwjgl.vulkan.VK10.VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT;
+import static org.lwjgl.vulkan.VK10.vkDestroyBuffer;
+
+/**
+ *
+ * Host-visible staging buffer mapped for its whole life and used as a ring.
+ * Uploads take regions at the head, and regions are given back in the order
+ * they were taken once the upload batch using them is done. Positions grow
+ * monotonically and wrap around the buffer, so the used space is always the
+ * difference between head and tail.
+ *
+ * @since 0.0.1
+ */
+class StagingRing {
+
+    static final long SIZE = 16L << 20;
+    static final long ALIGNMENT = 16; // multiple of the texel size of every upload format
+
+    final long buffer;
+    private final MemoryAllocator.Allocation memory;
+    private final ByteBuffer mapping;
+    private long head = 0;
+    private long tail = 0;
+
+    /**
+     *
+     * Create the staging ring
+     *
+     * @since 0.0.1
+     */
+    StagingRing() {
+        try (MemoryStack stack = stackPush()) {
+            LongBuffer pBuffer = stack.mallocLong(1);
+            memory = VulkanSetup.createBuffer(SIZE, VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT | VK_MEMORY_PROPERTY_HOST_COHERENT_BIT, pBuffer);
+            buffer = pBuffer.get(0);
+            mapping = memory.mapping();
+        }
+    }
+
+    /**
+     *
+     * Take a region at the head of the ring. A region never wraps around the
+     * end of the buffer
+     *
+     * @param size Size of the region
+     *
+     * @return Offset of the region in the buffer, or -1 if there is not
+     *         enough free space until earlier uploads are done
+     *
+     * @since 0.0.1
+     */
+    long allocate(long size) {
+        size = (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        long start = head;
+        long offset = start % SIZE;
+        if (offset + size > SIZE) {
+            start += SIZE - offset;
+            offset = 0;
+        }
+        if (start + size - tail > SIZE) return -1;
+        head = start + size;
+        return offset;
+    }
+
+    /**
+     *
+     * Get the mapped memory of a region
+     *
+     * @param offset Offset of the region
+     * @param size Size of the region
+     *
+     * @return Buffer to write the region
+     *
+     * @since 0.0.1
+     */
+    ByteBuffer data(long offset, int size) {
+        return mapping.slice((int) offset, size).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     *
+     * Get the head of the ring, every region taken so far ends before it
+     *
+     * @return The position of the head
+     *
+     * @since 0.0.1
+     */
+    long head() {
+        return head;
+    }
+
+    /**
+     *
+     * Give back every region taken before a position
+     *
+     * @param position A position returned earlier by head
+     *
+     * @since 0.0.1
+     */
+    void release(long position) {
+        tail = Math.max(tail, position);
+    }
+
+    /**
+     *
+     * Destroy the staging ring
+     *
+     * @since 0.0.1
+     */
+    void destroy() {
+        vkDestroyBuffer(VulkanSetup.logicalDevice.device, buffer, null);
+        VulkanSetup.memoryAllocator.free(memory);
+    }
+
+}
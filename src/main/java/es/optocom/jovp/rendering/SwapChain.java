@@ -49,7 +49,6 @@ import static org.lwjgl.vulkan.VK10.vkDestroyFramebuffer;
 import static org.lwjgl.vulkan.VK10.vkDestroyImage;
 import static org.lwjgl.vulkan.VK10.vkDestroyImageView;
 import static org.lwjgl.vulkan.VK10.vkDestroyRenderPass;
-import static org.lwjgl.vulkan.VK10.vkFreeMemory;
 import org.lwjgl.vulkan.VkAttachmentDescription;
 import org.lwjgl.vulkan.VkAttachmentReference;
 import org.lwjgl.vulkan.VkExtent2D;
@@ -77,17 +76,16 @@ class SwapChain {
     static final int COLOR_SPACE = VK_COLOR_SPACE_SRGB_NONLINEAR_KHR;
     static final int PRESENT_MODE = VK_PRESENT_MODE_MAILBOX_KHR;
 
-    final long commandPool;
     long swapChain;
     List<Long> images;
     List<Long> imageViews;
     int imageFormat;
     VkExtent2D extent;
     long colorImage;
-    long colorImageMemory;
+    MemoryAllocator.Allocation colorImageMemory;
     long colorImageView;
     long depthImage;
-    long depthImageMemory;
+    MemoryAllocator.Allocation depthImageMemory;
     long depthImageView;
     long renderPass;
     List<ViewPass> viewPasses;
@@ -101,7 +99,6 @@ class SwapChain {
      * @since 0.0.1
      */
     SwapChain(ViewMode viewMode) {
-        commandPool = VulkanSetup.createCommandPool();
         createSwapChain();
         createImageViews();
         createColorResources();
@@ -121,31 +118,31 @@ class SwapChain {
      */
     void destroy() {
         frameBuffers.forEach(framebuffer -> vkDestroyFramebuffer(VulkanSetup.logicalDevice.device, framebuffer, null));
-        for (ViewPass viewPass : viewPasses) viewPass.destroy();
         vkDestroyRenderPass(VulkanSetup.logicalDevice.device, renderPass, null);
         vkDestroyImage(VulkanSetup.logicalDevice.device, depthImage, null);
-        vkFreeMemory(VulkanSetup.logicalDevice.device, depthImageMemory, null);
-        vkFreeMemory(VulkanSetup.logicalDevice.device, colorImageMemory, null);
+        VulkanSetup.memoryAllocator.free(depthImageMemory);
+        VulkanSetup.memoryAllocator.free(colorImageMemory);
         vkDestroyImageView(VulkanSetup.logicalDevice.device, depthImageView, null);
         vkDestroyImageView(VulkanSetup.logicalDevice.device, colorImageView, null);
         vkDestroyImage(VulkanSetup.logicalDevice.device, colorImage, null);
         imageViews.forEach(imageView -> vkDestroyImageView(VulkanSetup.logicalDevice.device, imageView, null));
         vkDestroySwapchainKHR(VulkanSetup.logicalDevice.device, swapChain, null);
-        VulkanSetup.destroyCommandPool(commandPool);
     }
 
     /** set swap chain for monocular view */
     private void monoSwapChain() {
         viewPasses = new ArrayList<>(1);
-        viewPasses.add(new ViewPass(renderPass, 0, extent));
+        viewPasses.add(new ViewPass(0, extent));
     }
 
     /** set swap chain for stereoscopic view */
     private void stereoSwapChain() {
-        VkExtent2D halfExtent = VkExtent2D.malloc().set(extent.width() / 2, extent.height());
-        viewPasses = new ArrayList<>(2);
-        viewPasses.add(new ViewPass(renderPass, 0, halfExtent));
-        viewPasses.add(new ViewPass(renderPass, halfExtent.width(), halfExtent));
+        try (MemoryStack stack = stackPush()) {
+            VkExtent2D halfExtent = VkExtent2D.malloc(stack).set(extent.width() / 2, extent.height());
+            viewPasses = new ArrayList<>(2);
+            viewPasses.add(new ViewPass(0, halfExtent));
+            viewPasses.add(new ViewPass(halfExtent.width(), halfExtent));
+        }
     }
 
     /** create swap chain */
@@ -207,12 +204,10 @@ class SwapChain {
     private void createColorResources() {
         try (MemoryStack stack = stackPush()) {
             LongBuffer pColorImage = stack.mallocLong(1);
-            LongBuffer pColorImageMemory = stack.mallocLong(1);
-            VulkanSetup.createImage(extent.width(), extent.height(), MIP_LEVELS, VulkanSetup.logicalDevice.msaaSamples, imageFormat, VK_IMAGE_USAGE_TRANSIENT_ATTACHMENT_BIT | VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT, pColorImage, pColorImageMemory);
+            colorImageMemory = VulkanSetup.createImage(extent.width(), extent.height(), MIP_LEVELS, VulkanSetup.logicalDevice.msaaSamples, imageFormat, VK_IMAGE_USAGE_TRANSIENT_ATTACHMENT_BIT | VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT, pColorImage);
             colorImage = pColorImage.get(0);
-            colorImageMemory = pColorImageMemory.get(0);
             colorImageView = VulkanSetup.createImageView(VulkanSetup.logicalDevice.device, colorImage, imageFormat, VK_IMAGE_ASPECT_COLOR_BIT, MIP_LEVELS);
-            VulkanSetup.transitionImageLayout(commandPool, colorImage, imageFormat, VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL, MIP_LEVELS);
+            VulkanSetup.transitionImageLayout(Uploads.commandBuffer(), colorImage, imageFormat, VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL, MIP_LEVELS);
         }
     }
 
@@ -273,12 +268,10 @@ class SwapChain {
         try (MemoryStack stack = stackPush()) {
             int depthFormat = VulkanSetup.findDepthFormat();
             LongBuffer pDepthImage = stack.mallocLong(1);
-            LongBuffer pDepthImageMemory = stack.mallocLong(1);
-            VulkanSetup.createImage(extent.width(), extent.height(), MIP_LEVELS, VulkanSetup.logicalDevice.msaaSamples, depthFormat, VK_IMAGE_USAGE_DEPTH_STENCIL_ATTACHMENT_BIT, pDepthImage, pDepthImageMemory);
+            depthImageMemory = VulkanSetup.createImage(extent.width(), extent.height(), MIP_LEVELS, VulkanSetup.logicalDevice.msaaSamples, depthFormat, VK_IMAGE_USAGE_DEPTH_STENCIL_ATTACHMENT_BIT, pDepthImage);
             depthImage = pDepthImage.get(0);
-            depthImageMemory = pDepthImageMemory.get(0);
             depthImageView = VulkanSetup.createImageView(VulkanSetup.logicalDevice.device, depthImage, depthFormat, VK_IMAGE_ASPECT_DEPTH_BIT, MIP_LEVELS);
-            VulkanSetup.transitionImageLayout(commandPool, depthImage, depthFormat, VK_IMAGE_LAYOUT_DEPTH_STENCIL_ATTACHMENT_OPTIMAL, MIP_LEVELS);
+            VulkanSetup.transitionImageLayout(Uploads.commandBuffer(), depthImage, depthFormat, VK_IMAGE_LAYOUT_DEPTH_STENCIL_ATTACHMENT_OPTIMAL, MIP_LEVELS);
         }
     }
 
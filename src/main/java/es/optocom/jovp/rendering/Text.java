@@ -1,31 +1,18 @@
 package es.optocom.jovp.rendering;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Objects;
 
 import org.joml.Matrix4f;
-import org.joml.Quaternionf;
 import org.joml.Vector2f;
-import org.joml.Vector3f;
-import org.lwjgl.BufferUtils;
-import org.lwjgl.PointerBuffer;
-import org.lwjgl.stb.STBTTAlignedQuad;
-import org.lwjgl.stb.STBTTBakedChar;
-import org.lwjgl.stb.STBTTFontinfo;
-import org.lwjgl.stb.STBTruetype;
 import org.lwjgl.system.MemoryStack;
-import static org.lwjgl.system.MemoryStack.stackPush;
-import org.lwjgl.system.MemoryUtil;
-import static org.lwjgl.vulkan.VK10.vkMapMemory;
-import static org.lwjgl.vulkan.VK10.vkUnmapMemory;
+import static org.lwjgl.vulkan.VK10.VK_INDEX_TYPE_UINT32;
+import static org.lwjgl.vulkan.VK10.vkCmdBindIndexBuffer;
+import static org.lwjgl.vulkan.VK10.vkCmdBindVertexBuffers;
 import org.lwjgl.vulkan.VkCommandBuffer;
 
 import es.optocom.jovp.definitions.FontType;
-import es.optocom.jovp.definitions.Vertex;
-import es.optocom.jovp.definitions.ViewEye;
-import es.optocom.jovp.definitions.ViewMode;
 
 /**
  * Text manager for rendering text
@@ -37,22 +24,18 @@ public class Text extends Renderable {
     private static final FontType DEFAULT_FONT_TYPE = FontType.SANS;
     private static final float DEFAULT_FONT_SIZE = 0.1f;
     private static final double[] DEFAULT_RGBA = new double[] { 1, 1, 1, 1 };
-    private static final int ATLAS_WIDTH = 1024;
-    private static final int ATLAS_HEIGHT = 1024;
-    private static final int ATLAS_PIXEL_HEIGHT = 200;
-    private static final int CHAR_START = 32;
-    private static final int CHAR_AMT   = 96;
+    private static final int MIN_GLYPHS = 16;
 
     private Vector2f position = new Vector2f(0.5f, 0.5f);
     private float size;
     private String text = null;
-    private int ascent;
-    private int descent;
-    private int lineGap;
-    private ByteBuffer ttf;
-    private ByteBuffer bitmap;
-    private STBTTFontinfo fontInfo = STBTTFontinfo.create();
-    private STBTTBakedChar.Buffer cdata = STBTTBakedChar.create(CHAR_AMT);
+    private final FontAtlas atlas;
+    private int capacity = MIN_GLYPHS; // glyphs the layout and the glyph buffer can hold
+    private float[] layout = new float[MIN_GLYPHS * GlyphBuffer.GLYPH_FLOATS]; // glyph quad vertices, zeros past the end of the text
+    private int layoutFloats = 0;
+    private long layoutVersion = VulkanSetup.nextVersion();
+    private GlyphBuffer glyphBuffer;
+    private long[] glyphVersions; // layout version written to the glyph buffer of each frame in flight
     private Matrix4f modelMatrix = new Matrix4f();
     private Matrix4f projection = new Matrix4f().setOrtho2D(0, 1, 0, 1);
  
@@ -113,24 +96,8 @@ public class Text extends Renderable {
     public Text(FontType fontType, float size, double[] rgba) {
         super();
         this.size = size;
-        String file;
-        switch (fontType) { // font types
-            case MONSERRAT -> file = "es/optocom/jovp/fonts/montserrat/Montserrat-Regular.otf";
-            case MONSERRAT_BOLD -> file = "es/optocom/jovp/fonts/montserrat/Montserrat-Bold.otf";
-            case SANS -> file = "es/optocom/jovp/fonts/openSans/OpenSans-Regular.ttf";
-            case SANS_BOLD -> file = "es/optocom/jovp/fonts/openSans/OpenSans-Bold.ttf";
-            default -> file = null;
-        }
-        bitmap = BufferUtils.createByteBuffer(4 * ATLAS_WIDTH * ATLAS_HEIGHT);
-        try {
-            ttf = loadResourceToByteBuffer(file);
-            getFontMetrics(ttf);
-            int result = STBTruetype.stbtt_BakeFontBitmap(ttf, ATLAS_PIXEL_HEIGHT, bitmap, ATLAS_WIDTH, ATLAS_HEIGHT, CHAR_START, cdata);
-            if (result < 1) throw new RuntimeException("stbtt_BakeFontBitmap failed with return value: " + result);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        createAtlasTexture(bitmap, rgba);
+        atlas = FontAtlas.acquire(fontType);
+        update(atlas.texture(rgba));
         update(new Model());
     }
 
@@ -143,61 +110,31 @@ public class Text extends Renderable {
     @Override
     public void destroy() {
         super.destroy();
-        fontInfo.free();
-        cdata.free();
-        MemoryUtil.memFree(bitmap);
+        FontAtlas.release(atlas);
     }
 
     /**
-     * Set text to render
+     * Set text to render. Setting the same text again does nothing, and
+     * other texts are laid out into the glyph buffer without allocating
+     * unless they are longer than any text set before
      *
      * @param text The text to render
      *
      * @since 0.0.1
      */
     public void setText(String text) {
+        if (Objects.equals(text, this.text)) return;
         this.text = text;
-        float[] xpos = new float[] {0.0f};
-        float[] ypos = new float[] {0.0f};
-        Vertex[] vertices = new Vertex[4 * text.length()];
-        Integer[] indices = new Integer[6 * text.length()];
-        int lastCodepoint = -1;
-        STBTTAlignedQuad quad = STBTTAlignedQuad.malloc();
-        for (int i = 0; i < text.length(); i++) {
-            int codepoint = text.charAt(i) - CHAR_START;
-            if (lastCodepoint != -1) xpos[0] += STBTruetype.stbtt_GetCodepointKernAdvance(fontInfo, lastCodepoint, codepoint);
-            STBTruetype.stbtt_GetBakedQuad(cdata, ATLAS_WIDTH, ATLAS_HEIGHT, codepoint, xpos, ypos, quad, true);
-            lastCodepoint = codepoint;
+        int length = text == null ? 0 : text.length();
+        if (length > capacity) {
+            capacity = Math.max(2 * capacity, length);
+            layout = Arrays.copyOf(layout, capacity * GlyphBuffer.GLYPH_FLOATS);
+            if (glyphBuffer != null) updateModel = true;
         }
-        float width = quad.x1();
-        lastCodepoint = -1;
-        xpos[0] = 0;
-        for (int i = 0; i < text.length(); i++) {
-            int codepoint = text.charAt(i) - CHAR_START;
-            // Apply kerning adjustment
-            if (lastCodepoint != -1) xpos[0] += STBTruetype.stbtt_GetCodepointKernAdvance(fontInfo, lastCodepoint, codepoint);
-            STBTruetype.stbtt_GetBakedQuad(cdata, ATLAS_WIDTH, ATLAS_HEIGHT, codepoint, xpos, ypos, quad, true);
-            float x0 = quad.x0() / width;
-            float x1 = quad.x1() / width;
-            float y0 = quad.y0() / width;
-            float y1 = quad.y1() / width;
-            vertices[4 * i] = new Vertex(new Vector3f(x0, y0, 0.0f), new Vector2f(quad.s0(), quad.t0())); // top left
-            vertices[4 * i + 1] = new Vertex(new Vector3f(x0, y1, 0.0f), new Vector2f(quad.s0(), quad.t1())); // bottom left
-            vertices[4 * i + 2] = new Vertex(new Vector3f(x1, y1, 0.0f), new Vector2f(quad.s1(), quad.t1())); // bottom right
-            vertices[4 * i + 3] = new Vertex(new Vector3f(x1, y0, 0.0f), new Vector2f(quad.s1(), quad.t0())); // top right
-            indices[6 * i] = 4 * i;
-            indices[6 * i + 1] = 4 * i + 1;
-            indices[6 * i + 2] = 4 * i + 2;
-            indices[6 * i + 3] = 4 * i + 2;
-            indices[6 * i + 4] = 4 * i + 3;
-            indices[6 * i + 5] = 4 * i;
-            lastCodepoint = codepoint;
-        }
-        quad.free();
-        Model model = getModel();
-        model.setVertices(vertices);
-        model.setIndices(indices);
-        update(model);
+        int floats = layout(text);
+        if (floats < layoutFloats) Arrays.fill(layout, floats, layoutFloats, 0);
+        layoutFloats = floats;
+        layoutVersion = VulkanSetup.nextVersion();
     }
 
     /**
@@ -248,6 +185,7 @@ public class Text extends Renderable {
         this.position.x = x;
         this.position.y = y;
         updateModelMatrix = true;
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -271,6 +209,7 @@ public class Text extends Renderable {
     public void setSize(float size) {
         this.size = size;
         updateModelMatrix = true;
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -292,7 +231,7 @@ public class Text extends Renderable {
      * @since 0.0.1
      */
     public int getBitmapWidth() {
-        return ATLAS_WIDTH;
+        return FontAtlas.WIDTH;
     }
  
     /**
@@ -303,7 +242,7 @@ public class Text extends Renderable {
      * @since 0.0.1
      */
     public int getBitmapHeight() {
-        return ATLAS_HEIGHT;
+        return FontAtlas.HEIGHT;
     }
  
     /**
@@ -314,7 +253,7 @@ public class Text extends Renderable {
      * @since 0.0.1
      */
     public int getAscent() {
-        return this.ascent;
+        return atlas.ascent;
     }
  
     /**
@@ -325,7 +264,7 @@ public class Text extends Renderable {
      * @since 0.0.1
      */
     public int getDescent() {
-        return this.descent;
+        return atlas.descent;
     }
  
     /**
@@ -336,104 +275,145 @@ public class Text extends Renderable {
      * @since 0.0.1
      */
     public int getLineGap() {
-        return this.lineGap;
+        return atlas.lineGap;
+    }
+
+    /**
+     * 
+     * Write the glyphs and uniforms of an in-flight frame
+     *
+     * @param frame in-flight frame to render
+     *
+     * @since 0.0.1
+     */
+    void prepare(int frame) {
+        if (glyphVersions[frame] != layoutVersion) {
+            glyphBuffer.write(frame, layout);
+            glyphVersions[frame] = layoutVersion;
+        }
+        for (int passNumber = 0; passNumber < VulkanSetup.swapChain.viewPasses.size(); passNumber++)
+            if (shows(passNumber)) updateUniforms(frame, passNumber, VulkanSetup.observer.optics);
     }
 
     /**
      * 
-     * Render item or text
+     * Record the draw commands of the text
      *
      * @param stack Memory stack
      * @param commandBuffer Command buffer
-     * @param image in-flight frame to render
+     * @param frame in-flight frame to render
      *
      * @since 0.0.1
      */
-     void render(MemoryStack stack, VkCommandBuffer commandBuffer, int image) {
-        if (viewEye == ViewEye.NONE) return;
-        if (VulkanSetup.observer.viewMode == ViewMode.MONO) {
-            draw(stack, commandBuffer, image, 0);
-            return;
-        }
-        switch (viewEye) {
-            case LEFT -> draw(stack, commandBuffer, image, 0);
-            case RIGHT-> draw(stack, commandBuffer, image, 1);
-            case BOTH-> {
-                draw(stack, commandBuffer, image, 0);
-                draw(stack, commandBuffer, image, 1);
-            }
-            default-> {return;}
+    void render(MemoryStack stack, VkCommandBuffer commandBuffer, int frame) {
+        for (int passNumber = 0; passNumber < VulkanSetup.swapChain.viewPasses.size(); passNumber++) {
+            if (!shows(passNumber)) continue;
+            VulkanSetup.swapChain.viewPasses.get(passNumber).setViewport(stack, commandBuffer);
+            draw(stack, commandBuffer, frame, passNumber, VulkanSetup.pipelines.textPipeline, VulkanSetup.pipelines.textPipelineLayout);
         }
     }
 
-    /** Update uniforms for the image to be rendered */
-    private void draw(MemoryStack stack, VkCommandBuffer commandBuffer, int image, int passNumber) {
-        ViewPass viewPass = VulkanSetup.swapChain.viewPasses.get(passNumber);
-        updateUniforms(image, passNumber, VulkanSetup.observer.optics);
-        draw(stack, commandBuffer, image, passNumber, viewPass.textPipeline, viewPass.textPipelineLayout);
+    /**
+     * 
+     * Create the glyph buffer, text does not use the geometry cache. When
+     * the engine has started, this runs from the renderable constructor
+     * before the fields of the text are initialized
+     *
+     * @since 0.0.1
+     */
+    @Override
+    void createModelObjects() {
+        glyphBuffer = new GlyphBuffer(Math.max(capacity, MIN_GLYPHS));
+        glyphVersions = new long[VulkanSetup.framesInFlight];
+        Arrays.fill(glyphVersions, -1);
     }
 
-    /** Update uniforms for the image to be rendered */
-    private void updateUniforms(int image, int eye, Optics optics) {
-        if (updateModelMatrix) {
-            modelMatrix.translationRotateScale(new Vector3f(position.x, position.y, 0.0f), new Quaternionf(), new Vector3f(size, size, 0.0f));
-            updateModelMatrix = false;
-        }
-        int n = 0;
-        try (MemoryStack stack = stackPush()) {
-            PointerBuffer data = stack.mallocPointer(1);
-            vkMapMemory(VulkanSetup.logicalDevice.device, getUniformMemory(image, eye), 0, UNIFORM_SIZEOF, 0, data);
-            {
-                ByteBuffer buffer = data.getByteBuffer(0, UNIFORM_TEXTSIZEOF);
-                modelMatrix.get(n * Float.BYTES, buffer); n += 16;
-                projection.get(n * Float.BYTES, buffer); n += 16;
-                optics.lensCenter.get(n * Float.BYTES, buffer); n += 4;
-                optics.coefficients.get(n * Float.BYTES, buffer); n += 4;
-                getTexture().rgba0.get(n * Float.BYTES, buffer);
-            }
-            vkUnmapMemory(VulkanSetup.logicalDevice.device, getUniformMemory(image, eye));
-        }
+    /**
+     * 
+     * Destroy the glyph buffer once frames in flight are done with it
+     *
+     * @since 0.0.1
+     */
+    @Override
+    void destroyModelObjects() {
+        if (glyphBuffer == null) return;
+        GlyphBuffer buffer = glyphBuffer;
+        glyphBuffer = null;
+        VulkanSetup.retire(buffer::destroy);
     }
 
-    /** read resource to bytebuffer */
-    private ByteBuffer loadResourceToByteBuffer(String file) throws IOException{
-        ByteBuffer buffer = null;
-        try (InputStream is = getClass().getClassLoader().getResourceAsStream(file)) {
-            if (is == null) throw new IOException("Resource not found: " + file);
-            byte[] byteArray = is.readAllBytes();
-            buffer = BufferUtils.createByteBuffer(byteArray.length).put(byteArray);
+    /**
+     * 
+     * Bind the region of the glyph buffer of an in-flight frame. Every glyph
+     * the buffer can hold is drawn, those past the end of the text are empty
+     *
+     * @param stack stack
+     * @param commandBuffer Command buffer
+     * @param frame in-flight frame to render
+     *
+     * @return Number of indices to draw
+     *
+     * @since 0.0.1
+     */
+    @Override
+    int bindGeometry(MemoryStack stack, VkCommandBuffer commandBuffer, int frame) {
+        vkCmdBindVertexBuffers(commandBuffer, 0, stack.longs(glyphBuffer.buffer), stack.longs(glyphBuffer.vertexOffset(frame)));
+        vkCmdBindIndexBuffer(commandBuffer, glyphBuffer.buffer, 0, VK_INDEX_TYPE_UINT32);
+        return GlyphBuffer.GLYPH_INDICES * glyphBuffer.capacity;
+    }
+
+    /** lay out the glyph quads of a text, scaled to unit width, and return the number of floats written */
+    private int layout(String text) {
+        if (text == null || text.isEmpty()) return 0;
+        int n = 0;
+        float xpos = 0;
+        float width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char character = text.charAt(i);
+            // Apply kerning adjustment
+            if (i > 0) xpos += atlas.kerning(text.charAt(i - 1), character);
+            FontAtlas.Glyph glyph = atlas.glyph(character);
+            float x0 = xpos + glyph.x0();
+            float x1 = xpos + glyph.x1();
+            n = vertex(n, x0, glyph.y0(), glyph.s0(), glyph.t0()); // top left
+            n = vertex(n, x0, glyph.y1(), glyph.s0(), glyph.t1()); // bottom left
+            n = vertex(n, x1, glyph.y1(), glyph.s1(), glyph.t1()); // bottom right
+            n = vertex(n, x1, glyph.y0(), glyph.s1(), glyph.t0()); // top right
+            width = glyph.x1() > glyph.x0() ? x1 - FontAtlas.PADDING : xpos + glyph.advance();
+            xpos += glyph.advance();
+        }
+        if (width <= 0) return n;
+        for (int k = 0; k < n; k += GlyphBuffer.GLYPH_FLOATS / GlyphBuffer.GLYPH_VERTICES) {
+            layout[k] /= width;
+            layout[k + 1] /= width;
         }
-        return buffer.flip();
+        return n;
     }
 
-    /** get font vertical metrics */
-    private void getFontMetrics(ByteBuffer ttf) {
-        // vertical metrics
-        if (!STBTruetype.stbtt_InitFont(fontInfo, ttf))
-            throw new IllegalStateException("Failed to initialize font information.");
-        IntBuffer pAscent = BufferUtils.createIntBuffer(1);
-        IntBuffer pDescent = BufferUtils.createIntBuffer(1);
-        IntBuffer pLineGap = BufferUtils.createIntBuffer(1);
-        STBTruetype.stbtt_GetFontVMetrics(fontInfo, pAscent, pDescent, pLineGap);
-        ascent = pAscent.get(0);
-        descent = pDescent.get(0);
-        lineGap = pLineGap.get(0);
+    /** write a glyph vertex into the layout and return the next position */
+    private int vertex(int n, float x, float y, float u, float v) {
+        layout[n++] = x;
+        layout[n++] = y;
+        layout[n++] = 0.0f;
+        layout[n++] = u;
+        layout[n++] = v;
+        return n;
     }
 
-    /** create Atlas texture */
-    private void createAtlasTexture(ByteBuffer bitmap, double[] rgba) {
-        float[] pixels = new float[4 * ATLAS_HEIGHT * ATLAS_WIDTH];
-        int k = 0;
-        for (int y = 0; y < ATLAS_HEIGHT; y++) {
-            for (int x = 0; x < ATLAS_WIDTH; x++) {
-                float alpha = (float) (bitmap.get() & 0xFF) / 255.0f; // to int then to float
-                pixels[k++] = alpha;
-                pixels[k++] = alpha;
-                pixels[k++] = alpha;
-                pixels[k++] = alpha;
-            }
+    /** Update uniforms for the frame to be rendered */
+    private void updateUniforms(int frame, int eye, Optics optics) {
+        if (!uniformsOutdated(frame, eye)) return;
+        if (updateModelMatrix) {
+            modelMatrix.translationRotateScale(position.x, position.y, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, size, size, 0.0f);
+            updateModelMatrix = false;
         }
-        update(new Texture(rgba, pixels, ATLAS_WIDTH, ATLAS_HEIGHT));
+        ByteBuffer buffer = getUniforms(frame, eye);
+        int n = 0;
+        modelMatrix.get(n * Float.BYTES, buffer); n += 16;
+        projection.get(n * Float.BYTES, buffer); n += 16;
+        optics.lensCenter.get(n * Float.BYTES, buffer); n += 4;
+        optics.coefficients.get(n * Float.BYTES, buffer); n += 4;
+        getTexture().rgba0.get(n * Float.BYTES, buffer);
     }
 
 }
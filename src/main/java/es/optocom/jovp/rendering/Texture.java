@@ -1,19 +1,28 @@
 package es.optocom.jovp.rendering;
 
 import org.joml.Vector4f;
+import org.lwjgl.BufferUtils;
 import org.lwjgl.system.MemoryStack;
 
+import es.optocom.jovp.definitions.MipmapFilter;
+import es.optocom.jovp.definitions.TextureFormat;
 import es.optocom.jovp.definitions.TextureType;
 
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.lang.ClassLoader.getSystemClassLoader;
 import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memByteBuffer;
 import static org.lwjgl.stb.STBImage.*;
 
 /**
@@ -25,17 +34,24 @@ public class Texture {
 
     private static final Vector4f TRANSPARENT = new Vector4f(0, 0, 0, 0);
 
-    private static final int PIXEL_SIZE = 4 * Float.BYTES;
     private static final int TEXTURE_SIZE = 512;
+    private static final Map<TextureType, float[]> PATTERNS = new ConcurrentHashMap<>(); // procedural pixels, never modified
 
     final TextureType type;
+    TextureFormat format = TextureFormat.RGBA32F;
     int size;
     int width;
     int height;
     Vector4f rgba0;
     Vector4f rgba1;
     int mipLevels;
-    float[] pixels;
+    MipmapFilter mipmapFilter = MipmapFilter.LINEAR;
+    boolean gammaCorrect = false;
+    float[] pixels; // channels of the format per texel, procedural patterns or converted from data on request
+    ByteBuffer data; // texels in the layout of the format, off the heap, for images and text
+    int[] levelOffsets; // offset of each mip level in data when the mip chain is stored, null to generate it on the device
+    long version = VulkanSetup.nextVersion(); // last change to the colors
+    TextureCache.Key key; // identifies the pixels to share the image between renderables, null if it cannot be shared
 
     /**
      * 
@@ -61,6 +77,7 @@ public class Texture {
         type = TextureType.FLAT;
         setColor(rgba);
         flat();
+        key = new TextureCache.Key(type, format, null, 0);
     }
 
     /**
@@ -115,6 +132,7 @@ public class Texture {
             case G3 -> g3();
             default -> throw new RuntimeException("Wrong texture type");
         }
+        key = new TextureCache.Key(type, format, null, 0);
     }
 
     /**
@@ -122,26 +140,30 @@ public class Texture {
      * Generate the texture for text
      *
      * @param rgba   texture color
-     * @param pixels texture pixels
+     * @param format texture format
+     * @param data   texels in the layout of the format
      * @param width  texture width
      * @param height texture height
      *
      * @since 0.0.1
      * 
      */
-    Texture(double[] rgba, float[] pixels, int width, int height) {
+    Texture(double[] rgba, TextureFormat format, ByteBuffer data, int width, int height) {
         type = TextureType.TEXT;
+        this.format = format;
         setColor(rgba);
         this.width = width;
         this.height = height;
-        this.pixels = pixels;
-        size = PIXEL_SIZE * width * height;
+        this.data = data;
+        size = format.texelSize() * width * height;
         mipLevels = (int) Math.floor(log2(Math.max(width, height))) + 1;
     }
 
     /**
      * 
-     * Generate the texture from an image file
+     * Generate the texture from an image file. 8-bit images are stored as
+     * RGBA8, 16-bit images as RGBA16F, and HDR images as RGBA32F. Texture
+     * containers (.ktx2) keep their format and stored mip chain
      *
      * @param fileName The Image's filename
      *
@@ -149,34 +171,25 @@ public class Texture {
      * 
      */
     public Texture(String fileName) {
+        this(fileName, null);
+    }
+
+    /**
+     * 
+     * Generate the texture from an image file
+     *
+     * @param fileName The Image's filename
+     * @param format   The texture format, or null to choose it from the bit
+     *                 depth of the image
+     *
+     * @since 0.0.1
+     * 
+     */
+    public Texture(String fileName, TextureFormat format) {
         type = TextureType.IMAGE;
         this.rgba0 = TRANSPARENT;
         this.rgba1 = TRANSPARENT;
-        String path;
-        try (MemoryStack stack = stackPush()) {
-            URL resource = getSystemClassLoader().getResource("es/optocom/jovp/samplers/" + fileName);
-            if (resource == null)
-                path = fileName;
-            else
-                path = String.valueOf(Paths.get(new URI(resource.toExternalForm())));
-            IntBuffer pWidth = stack.mallocInt(1);
-            IntBuffer pHeight = stack.mallocInt(1);
-            IntBuffer pChannels = stack.mallocInt(1);
-            stbi_ldr_to_hdr_gamma(1.0f);
-            FloatBuffer floats = stbi_loadf(path, pWidth, pHeight, pChannels, STBI_rgb_alpha);
-            if (floats == null)
-                throw new RuntimeException("Failed to load texture image " + path);
-            pixels = new float[floats.capacity()];
-            for (int i = 0; i < floats.capacity(); i++)
-                pixels[i] = floats.get(i);
-            stbi_image_free(floats);
-            width = pWidth.get(0);
-            height = pHeight.get(0);
-            size = PIXEL_SIZE * width * height;
-            mipLevels = (int) Math.floor(log2(Math.max(width, height))) + 1;
-        } catch (URISyntaxException e) {
-            throw new RuntimeException("Cannot create texture.", e);
-        }
+        load(fileName, format);
     }
 
     /**
@@ -205,6 +218,9 @@ public class Texture {
         height = 0;
         mipLevels = 0;
         pixels = null;
+        data = null;
+        levelOffsets = null;
+        key = null;
     }
 
     /**
@@ -235,7 +251,10 @@ public class Texture {
 
     /**
      * 
-     * Get image pixels
+     * Get image pixels, one value per channel of the format. Images and text
+     * keep their texels off the heap, so for them the values are converted
+     * on the first call. Procedural patterns are shared by every texture of
+     * their type, so for them a copy is returned
      *
      * @return pixels the image
      *
@@ -243,9 +262,120 @@ public class Texture {
      * 
      */
     public float[] getPixels() {
+        if (data == null) return pixels == null ? null : pixels.clone(); // null once destroyed
+        if (pixels == null && data != null) pixels = unpack(data, levelOffsets == null ? 0 : levelOffsets[0], size / format.bytes, format);
         return pixels;
     }
 
+    /**
+     * 
+     * Write the texels in the layout of the format, a single copy for images
+     * and text
+     *
+     * @param buffer Buffer to write to, from its position
+     *
+     * @since 0.0.1
+     */
+    void write(ByteBuffer buffer) {
+        if (data != null) buffer.put(buffer.position(), data, levelOffsets == null ? 0 : levelOffsets[0], size);
+        else pack(pixels, format, buffer);
+    }
+
+    /**
+     * 
+     * Set how the mip chain is built. Linear filtering is left to the device
+     * when it can blit the format, other filters and gamma-correct filtering
+     * build the chain on the CPU when the texture is uploaded. Textures from
+     * containers keep their stored mip chain. Must be set before the texture
+     * is used
+     *
+     * @param filter The filter
+     * @param gammaCorrect Whether to filter colors in linear light, as sRGB
+     *                     formats always are
+     *
+     * @since 0.0.1
+     */
+    public void setMipmapFilter(MipmapFilter filter, boolean gammaCorrect) {
+        mipmapFilter = filter;
+        this.gammaCorrect = gammaCorrect;
+        if (key != null) key = new TextureCache.Key(key.type(), key.format(), key.path(), key.hash(), filter, gammaCorrect);
+    }
+
+    /**
+     * 
+     * Check whether device blits build the mip chain as it is set, when the
+     * format supports them
+     *
+     * @return Whether the device can build the mip chain
+     *
+     * @since 0.0.1
+     */
+    boolean deviceMipmaps() {
+        return levelOffsets == null && mipmapFilter == MipmapFilter.LINEAR && (!gammaCorrect || format == TextureFormat.SRGBA8);
+    }
+
+    /**
+     * 
+     * Get every mip level in the layout of the format, the stored ones or
+     * built on the CPU with the mipmap filter
+     *
+     * @return The mip chain
+     *
+     * @since 0.0.1
+     */
+    MipChain mipChain() {
+        if (levelOffsets != null) return new MipChain(data, levelOffsets);
+        float[] base = pixels != null ? pixels : unpack(data, 0, size / format.bytes, format);
+        float[][] levels = MipmapGenerator.generate(base, width, height, format.channels, mipLevels, mipmapFilter,
+                gammaCorrect || format == TextureFormat.SRGBA8);
+        int alignment = Math.max(4, format.texelSize()); // copies start at multiples of the texel size and of 4
+        int[] offsets = new int[mipLevels];
+        int end = 0;
+        for (int level = 0; level < mipLevels; level++) {
+            offsets[level] = (end + alignment - 1) / alignment * alignment;
+            end = offsets[level] + format.bytes * levels[level].length;
+        }
+        ByteBuffer chain = BufferUtils.createByteBuffer(end);
+        for (int level = 0; level < mipLevels; level++) pack(levels[level], format, chain.position(offsets[level]));
+        return new MipChain(chain.position(0), offsets);
+    }
+
+    /**
+     * 
+     * Texels of every mip level in the layout of the format, and the offset
+     * of each level
+     *
+     * @since 0.0.1
+     */
+    record MipChain(ByteBuffer data, int[] offsets) {}
+
+    /**
+     * 
+     * Write values per channel in the layout of a format
+     *
+     * @param pixels One value per channel
+     * @param format The texture format
+     * @param buffer Buffer to write to, from its position
+     *
+     * @since 0.0.1
+     */
+    static void pack(float[] pixels, TextureFormat format, ByteBuffer buffer) {
+        switch (format) {
+            case R8, RGBA8, SRGBA8 -> {
+                for (float pixel : pixels) buffer.put((byte) Math.round(Math.clamp(pixel, 0, 1) * 255));
+            }
+            case R16 -> {
+                for (float pixel : pixels) buffer.putShort((short) Math.round(Math.clamp(pixel, 0, 1) * 65535));
+            }
+            case RGBA16F -> {
+                for (float pixel : pixels) buffer.putShort(Float.floatToFloat16(pixel));
+            }
+            case RGBA32F -> {
+                for (float pixel : pixels) buffer.putFloat(pixel);
+            }
+        }
+    }
+
     /**
      * 
      * Get texture colors
@@ -301,6 +431,7 @@ public class Texture {
             this.rgba1.z = (float)rgba1[2];
             this.rgba1.w = (float)rgba1[3];
         }
+        version = VulkanSetup.nextVersion();
     }
 
     /**
@@ -330,173 +461,229 @@ public class Texture {
     }
 
     /** 
-     * Updates the pixels for an image texture.
-     * If the new image is the same size as the current image, then overwrite pixels, otherwise
-     * create a new pixels array.
+     * Updates the pixels for an image texture, keeping its format.
+     * If the new image is the same size as the current image, then overwrite its texels, otherwise
+     * allocate new ones.
      * TODO: Would it be better to make pixels an ArrayList so that resizing is possible?
     */
     public void updateImage(String fileName) {
         if (type != TextureType.IMAGE)
             throw new RuntimeException("Cannot updateImage for a Texture whose 'type' is not IMAGE.");
+        load(fileName, format);
+    }
 
-        String path;
-        URL resource = getSystemClassLoader().getResource("es/optocom/jovp/samplers/" + fileName);
-        if (resource == null)
-            path = fileName;
-        else
-            try {
-                path = String.valueOf(Paths.get(new URI(resource.toExternalForm())));
-            } catch (URISyntaxException e) {
-                throw new RuntimeException("Cannot load texture image.", e);
-            }
+    /**
+     * 
+     * Get texture format
+     *
+     * @return The texture format
+     *
+     * @since 0.0.1
+     * 
+     */
+    public TextureFormat getFormat() {
+        return format;
+    }
+
+    /** load the pixels of an image file, in the format or one that fits its bit depth */
+    private void load(String fileName, TextureFormat format) {
+        String path = resolve(fileName);
+        if (path.endsWith(TextureContainer.EXTENSION)) {
+            open(path, format);
+            return;
+        }
+        levelOffsets = null;
+        if (format == null)
+            format = stbi_is_hdr(path) ? TextureFormat.RGBA32F : stbi_is_16_bit(path) ? TextureFormat.RGBA16F : TextureFormat.RGBA8;
+        this.format = format;
 
         try (MemoryStack stack = stackPush()) {
             IntBuffer pWidth = stack.mallocInt(1);
             IntBuffer pHeight = stack.mallocInt(1);
             IntBuffer pChannels = stack.mallocInt(1);
+            int channels = format.channels == 1 ? STBI_grey : STBI_rgb_alpha;
             stbi_ldr_to_hdr_gamma(1.0f);
-            FloatBuffer floats = stbi_loadf(path, pWidth, pHeight, pChannels, STBI_rgb_alpha);
-            if (floats == null)
+            stbi_hdr_to_ldr_gamma(1.0f);
+            Buffer loaded = switch (format) {
+                case R8, RGBA8, SRGBA8 -> stbi_load(path, pWidth, pHeight, pChannels, channels);
+                case R16 -> stbi_load_16(path, pWidth, pHeight, pChannels, channels);
+                case RGBA16F, RGBA32F -> stbi_loadf(path, pWidth, pHeight, pChannels, channels);
+            };
+            if (loaded == null)
                 throw new RuntimeException("Failed to load texture image " + path);
 
-            if (pixels.length != floats.capacity())
-                pixels = new float[floats.capacity()];
-
-            for (int i = 0; i < floats.capacity(); i++)
-                pixels[i] = floats.get(i);
-
-            stbi_image_free(floats);
-
             width = pWidth.get(0);
             height = pHeight.get(0);
-            size = PIXEL_SIZE * width * height;
+            size = format.texelSize() * width * height;
+            if (data == null || data.capacity() != size || data.isReadOnly())
+                data = BufferUtils.createByteBuffer(size);
+            if (format == TextureFormat.RGBA16F) {
+                FloatBuffer floats = (FloatBuffer) loaded;
+                for (int i = 0; i < floats.capacity(); i++)
+                    data.putShort(2 * i, Float.floatToFloat16(floats.get(i)));
+            } else
+                data.put(0, memByteBuffer(memAddress(loaded), size), 0, size);
+            stbi_image_free(memByteBuffer(memAddress(loaded), size));
+            pixels = null;
+
             mipLevels = (int) Math.floor(log2(Math.max(width, height))) + 1;
+            key = new TextureCache.Key(type, format, path, data.hashCode(), mipmapFilter, gammaCorrect);
         }
     }
 
+    /** map a texture container, its texels stay in the file */
+    private void open(String path, TextureFormat format) {
+        TextureContainer.Contents contents = TextureContainer.read(path, format);
+        this.format = contents.format();
+        width = contents.width();
+        height = contents.height();
+        size = this.format.texelSize() * width * height;
+        mipLevels = contents.mipLevels();
+        data = contents.data();
+        levelOffsets = contents.levelOffsets();
+        pixels = null;
+        key = new TextureCache.Key(type, this.format, path, contents.version(), mipmapFilter, gammaCorrect);
+    }
+
+    /** path of an image file, looked up first among the bundled samplers */
+    private static String resolve(String fileName) {
+        URL resource = getSystemClassLoader().getResource("es/optocom/jovp/samplers/" + fileName);
+        if (resource == null) return fileName;
+        try {
+            return String.valueOf(Paths.get(new URI(resource.toExternalForm())));
+        } catch (URISyntaxException e) {
+            throw new RuntimeException("Cannot load texture image.", e);
+        }
+    }
+
+    /** convert texels in the layout of a format, from an offset, to one value per channel */
+    private static float[] unpack(ByteBuffer data, int offset, int count, TextureFormat format) {
+        float[] pixels = new float[count];
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = switch (format) {
+                case R8, RGBA8, SRGBA8 -> (data.get(offset + i) & 0xFF) / 255.0f;
+                case R16 -> (data.getShort(offset + 2 * i) & 0xFFFF) / 65535.0f;
+                case RGBA16F -> Float.float16ToFloat(data.getShort(offset + 2 * i));
+                case RGBA32F -> data.getFloat(offset + 4 * i);
+            };
+        return pixels;
+    }
+
     /** creates a sampler for a flat surface */
     private void flat() {
-        pixels = new float[4];
-        pixels[0] = 1;
-        pixels[1] = 1;
-        pixels[2] = 1;
-        pixels[3] = 1;
+        pixels = PATTERNS.computeIfAbsent(TextureType.FLAT, type -> new float[] { 1, 1, 1, 1 });
         width = 1;
         height = 1;
-        size = PIXEL_SIZE * width * height;
+        size = format.texelSize() * width * height;
         mipLevels = 1;
     }
 
     /** creates a sampler for checkerboard */
     private void checkerboard() {
-        pixels = new float[16];
-        pixels[0] = 0;
-        pixels[1] = 0;
-        pixels[2] = 0;
-        pixels[3] = 1;
-        pixels[4] = 1;
-        pixels[5] = 1;
-        pixels[6] = 1;
-        pixels[7] = 1;
-        pixels[8] = 1;
-        pixels[9] = 1;
-        pixels[10] = 1;
-        pixels[11] = 1;
-        pixels[12] = 0;
-        pixels[13] = 0;
-        pixels[14] = 0;
-        pixels[15] = 1;
+        pixels = PATTERNS.computeIfAbsent(TextureType.CHECKERBOARD, type -> new float[] {
+            0, 0, 0, 1,
+            1, 1, 1, 1,
+            1, 1, 1, 1,
+            0, 0, 0, 1
+        });
         width = 2;
         height = 2;
-        size = PIXEL_SIZE * width * height;
+        size = format.texelSize() * width * height;
         mipLevels = 2;
     }
 
     /** creates a sampler for square sin and cos */
     private void sine() {
-        pixels = new float[4 * TEXTURE_SIZE];
-        for (int i = 0; i < TEXTURE_SIZE; i++) {
-            float level = (float) (0.5 * Math.sin(2 * Math.PI * i / (double) TEXTURE_SIZE) + 0.5);
-            pixels[4 * i] = level;
-            pixels[4 * i + 1] = level;
-            pixels[4 * i + 2] = level;
-            pixels[4 * i + 3] = 1;
-        }
+        pixels = PATTERNS.computeIfAbsent(TextureType.SINE, type -> {
+            float[] pixels = new float[4 * TEXTURE_SIZE];
+            for (int i = 0; i < TEXTURE_SIZE; i++) {
+                float level = (float) (0.5 * Math.sin(2 * Math.PI * i / (double) TEXTURE_SIZE) + 0.5);
+                pixels[4 * i] = level;
+                pixels[4 * i + 1] = level;
+                pixels[4 * i + 2] = level;
+                pixels[4 * i + 3] = 1;
+            }
+            return pixels;
+        });
         width = TEXTURE_SIZE;
         height = 1;
-        size = PIXEL_SIZE * width * height;
+        size = format.texelSize() * width * height;
         mipLevels = (int) Math.floor(log2(width)) + 1;
     }
 
     /** creates a sampler the first Gaussian derivative */
     private void g1() {
-        pixels = new float[4 * TEXTURE_SIZE];
-        double scale = 2 * Math.exp(-0.5);
-        for (int i = 0; i < TEXTURE_SIZE; i++) {
-            double x = (8 * i / (double) (TEXTURE_SIZE - 1) - 4);
-            float level = (float) (0.5 - x * phi(x) / scale);
-            pixels[4 * i] = level;
-            pixels[4 * i + 1] = level;
-            pixels[4 * i + 2] = level;
-            pixels[4 * i + 3] = 1;
-        }
+        pixels = PATTERNS.computeIfAbsent(TextureType.G1, type -> {
+            float[] pixels = new float[4 * TEXTURE_SIZE];
+            double scale = 2 * Math.exp(-0.5);
+            for (int i = 0; i < TEXTURE_SIZE; i++) {
+                double x = (8 * i / (double) (TEXTURE_SIZE - 1) - 4);
+                float level = (float) (0.5 - x * phi(x) / scale);
+                pixels[4 * i] = level;
+                pixels[4 * i + 1] = level;
+                pixels[4 * i + 2] = level;
+                pixels[4 * i + 3] = 1;
+            }
+            return pixels;
+        });
         width = TEXTURE_SIZE;
         height = 1;
-        size = PIXEL_SIZE * width * height;
+        size = format.texelSize() * width * height;
         mipLevels = (int) Math.floor(log2(width)) + 1;
     }
 
     /** creates a sampler the second Gaussian derivative */
     private void g2() {
-        pixels = new float[4 * TEXTURE_SIZE];
-        double scale = 2 * phi(Math.sqrt(3)) + 1;
-        for (int i = 0; i < TEXTURE_SIZE; i++) {
-            double x = (8 * i / (double) (TEXTURE_SIZE - 1) - 4);
-            float level = (float) ((1 + (Math.pow(x, 2) - 1) * phi(x)) / scale);
-            pixels[4 * i] = level;
-            pixels[4 * i + 1] = level;
-            pixels[4 * i + 2] = level;
-            pixels[4 * i + 3] = 1;
-        }
+        pixels = PATTERNS.computeIfAbsent(TextureType.G2, type -> {
+            float[] pixels = new float[4 * TEXTURE_SIZE];
+            double scale = 2 * phi(Math.sqrt(3)) + 1;
+            for (int i = 0; i < TEXTURE_SIZE; i++) {
+                double x = (8 * i / (double) (TEXTURE_SIZE - 1) - 4);
+                float level = (float) ((1 + (Math.pow(x, 2) - 1) * phi(x)) / scale);
+                pixels[4 * i] = level;
+                pixels[4 * i + 1] = level;
+                pixels[4 * i + 2] = level;
+                pixels[4 * i + 3] = 1;
+            }
+            return pixels;
+        });
         width = TEXTURE_SIZE;
         height = 1;
-        size = PIXEL_SIZE * width * height;
+        size = format.texelSize() * width * height;
         mipLevels = (int) Math.floor(log2(width)) + 1;
     }
 
     /** creates a sampler the third Gaussian derivative */
     private void g3() {
-        double xmin = Math.sqrt(3 - Math.sqrt(6));
-        double scale = 2 * (3 * xmin - (Math.pow(xmin, 3))) * phi(xmin);
-        pixels = new float[4 * TEXTURE_SIZE];
-        for (int i = 0; i < TEXTURE_SIZE; i++) {
-            double x = (8 * i / (double) (TEXTURE_SIZE - 1) - 4);
-            float level = (float) (0.5 + (3 * x - (Math.pow(x, 3))) * phi(x) / scale);
-            pixels[4 * i] = level;
-            pixels[4 * i + 1] = level;
-            pixels[4 * i + 2] = level;
-            pixels[4 * i + 3] = 1;
-        }
+        pixels = PATTERNS.computeIfAbsent(TextureType.G3, type -> {
+            double xmin = Math.sqrt(3 - Math.sqrt(6));
+            double scale = 2 * (3 * xmin - (Math.pow(xmin, 3))) * phi(xmin);
+            float[] pixels = new float[4 * TEXTURE_SIZE];
+            for (int i = 0; i < TEXTURE_SIZE; i++) {
+                double x = (8 * i / (double) (TEXTURE_SIZE - 1) - 4);
+                float level = (float) (0.5 + (3 * x - (Math.pow(x, 3))) * phi(x) / scale);
+                pixels[4 * i] = level;
+                pixels[4 * i + 1] = level;
+                pixels[4 * i + 2] = level;
+                pixels[4 * i + 3] = 1;
+            }
+            return pixels;
+        });
         width = TEXTURE_SIZE;
         height = 1;
-        size = PIXEL_SIZE * width * height;
+        size = format.texelSize() * width * height;
         mipLevels = (int) Math.floor(log2(width)) + 1;
     }
 
     /** creates a sampler for sin and cos */
     private void squareSine() {
-        pixels = new float[8];
-        pixels[0] = 0;
-        pixels[1] = 0;
-        pixels[2] = 0;
-        pixels[3] = 1;
-        pixels[4] = 1;
-        pixels[5] = 1;
-        pixels[6] = 1;
-        pixels[7] = 1;
+        pixels = PATTERNS.computeIfAbsent(TextureType.SQUARESINE, type -> new float[] {
+            0, 0, 0, 1,
+            1, 1, 1, 1
+        });
         width = 2;
         height = 1;
-        size = PIXEL_SIZE * width * height;
+        size = format.texelSize() * width * height;
         mipLevels = 2;
     }
 
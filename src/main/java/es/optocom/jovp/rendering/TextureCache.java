@@ -0,0 +1,410 @@
+package es.optocom.jovp.rendering;
+
+import java.nio.LongBuffer;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lwjgl.system.MemoryStack;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.vulkan.VK10.VK_ACCESS_SHADER_READ_BIT;
+import static org.lwjgl.vulkan.VK10.VK_ACCESS_TRANSFER_READ_BIT;
+import static org.lwjgl.vulkan.VK10.VK_ACCESS_TRANSFER_WRITE_BIT;
+import static org.lwjgl.vulkan.VK10.VK_COMPONENT_SWIZZLE_ONE;
+import static org.lwjgl.vulkan.VK10.VK_COMPONENT_SWIZZLE_R;
+import static org.lwjgl.vulkan.VK10.VK_FORMAT_FEATURE_SAMPLED_IMAGE_FILTER_LINEAR_BIT;
+import static org.lwjgl.vulkan.VK10.VK_IMAGE_ASPECT_COLOR_BIT;
+import static org.lwjgl.vulkan.VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL;
+import static org.lwjgl.vulkan.VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL;
+import static org.lwjgl.vulkan.VK10.VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL;
+import static org.lwjgl.vulkan.VK10.VK_IMAGE_LAYOUT_UNDEFINED;
+import static org.lwjgl.vulkan.VK10.VK_IMAGE_USAGE_SAMPLED_BIT;
+import static org.lwjgl.vulkan.VK10.VK_IMAGE_USAGE_TRANSFER_DST_BIT;
+import static org.lwjgl.vulkan.VK10.VK_IMAGE_USAGE_TRANSFER_SRC_BIT;
+import static org.lwjgl.vulkan.VK10.VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT;
+import static org.lwjgl.vulkan.VK10.VK_PIPELINE_STAGE_TRANSFER_BIT;
+import static org.lwjgl.vulkan.VK10.VK_QUEUE_FAMILY_IGNORED;
+import static org.lwjgl.vulkan.VK10.VK_SAMPLE_COUNT_1_BIT;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_SAMPLER_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_SUCCESS;
+import static org.lwjgl.vulkan.VK10.vkCmdBlitImage;
+import static org.lwjgl.vulkan.VK10.vkCmdCopyBufferToImage;
+import static org.lwjgl.vulkan.VK10.vkCmdPipelineBarrier;
+import static org.lwjgl.vulkan.VK10.vkCreateSampler;
+import static org.lwjgl.vulkan.VK10.vkDestroyImage;
+import static org.lwjgl.vulkan.VK10.vkDestroyImageView;
+import static org.lwjgl.vulkan.VK10.vkDestroySampler;
+import static org.lwjgl.vulkan.VK10.vkGetPhysicalDeviceFormatProperties;
+import org.lwjgl.vulkan.VkBufferImageCopy;
+import org.lwjgl.vulkan.VkCommandBuffer;
+import org.lwjgl.vulkan.VkComponentMapping;
+import org.lwjgl.vulkan.VkFormatProperties;
+import org.lwjgl.vulkan.VkImageBlit;
+import org.lwjgl.vulkan.VkImageMemoryBarrier;
+import org.lwjgl.vulkan.VkSamplerCreateInfo;
+
+import es.optocom.jovp.definitions.MipmapFilter;
+import es.optocom.jovp.definitions.TextureFormat;
+import es.optocom.jovp.definitions.TextureType;
+
+/**
+ *
+ * Texture images, views and samplers shared by renderables with identical
+ * textures. Colors are not part of the image, they reach the shaders as
+ * uniforms, so all textures of the same type share one image. Images are
+ * reference counted and destroyed when the last renderable using them
+ * releases them. Textures without a key, like text atlases, get their own
+ * image. Images are stored in the format of their texture, single-channel
+ * formats are swizzled by the image view so that shaders read them as RGBA.
+ * Mip chains are blitted by the device, or built on the CPU when the device
+ * cannot blit the format with linear filtering or another filter is asked for.
+ *
+ * @since 0.0.1
+ */
+class TextureCache {
+
+    private static final Map<Key, Image> IMAGES = new HashMap<>();
+    private static final Map<TextureFormat, Long> MEMORY = new EnumMap<>(TextureFormat.class); // bytes of device memory per format
+    private static final Map<TextureFormat, Boolean> LINEAR_BLIT = new EnumMap<>(TextureFormat.class); // device blits with linear filtering
+
+    /**
+     *
+     * Get the image of a texture, uploading it if it is not cached yet
+     *
+     * @param texture The texture
+     *
+     * @return The image, with one more reference
+     *
+     * @since 0.0.1
+     */
+    static Image acquire(Texture texture) {
+        if (texture.key == null) return new Image(null, texture);
+        Image image = IMAGES.computeIfAbsent(texture.key, key -> new Image(key, texture));
+        image.references++;
+        return image;
+    }
+
+    /**
+     *
+     * Release a reference to an image. When no references are left, it is
+     * destroyed once frames in flight are done with it
+     *
+     * @param image The image
+     *
+     * @since 0.0.1
+     */
+    static void release(Image image) {
+        if (image == null) return;
+        if (image.key != null) {
+            if (--image.references > 0) return;
+            IMAGES.remove(image.key);
+        }
+        VulkanSetup.retire(image::destroy);
+    }
+
+    /**
+     *
+     * Upload a texture into the image a renderable already holds, keeping
+     * image, view, sampler and descriptors. Only possible when format,
+     * dimensions and mip levels match and no other renderable shares the image. Frames in
+     * flight sampling the image finish before it is overwritten
+     *
+     * @param image The image of the renderable
+     * @param texture The new texture
+     *
+     * @return Whether the image now holds the texture. If not, the
+     *         renderable must release the image and acquire the texture
+     *
+     * @since 0.0.1
+     */
+    static boolean update(Image image, Texture texture) {
+        if (image == null || image.format != texture.format || image.width != texture.width ||
+                image.height != texture.height || image.mipLevels != texture.mipLevels) return false;
+        if (image.key != null && image.references > 1) return false;
+        if (texture.key != null && image.key != null && texture.key.equals(image.key)) return true;
+        if (texture.key != null && IMAGES.containsKey(texture.key)) return false; // better share the cached one
+        if (image.key != null) IMAGES.remove(image.key);
+        image.key = texture.key;
+        if (image.key != null) {
+            IMAGES.put(image.key, image);
+            image.references = 1;
+        }
+        image.upload(texture, true);
+        VulkanSetup.textureUpdates++;
+        return true;
+    }
+
+    /**
+     *
+     * Get the number of cached images
+     *
+     * @return The number of images
+     *
+     * @since 0.0.1
+     */
+    static int size() {
+        return IMAGES.size();
+    }
+
+    /**
+     *
+     * Get the device memory taken by texture images, mipmaps included
+     *
+     * @return Bytes per texture format
+     *
+     * @since 0.0.1
+     */
+    static Map<TextureFormat, Long> memory() {
+        return new EnumMap<>(MEMORY);
+    }
+
+    /**
+     *
+     * Destroy images still referenced, the device must be idle
+     *
+     * @since 0.0.1
+     */
+    static void destroy() {
+        IMAGES.values().forEach(Image::destroy);
+        IMAGES.clear();
+        LINEAR_BLIT.clear();
+    }
+
+    /** everything that defines the pixels of a texture and its mip chain, path and content hash only for images */
+    record Key(TextureType type, TextureFormat format, String path, int hash, MipmapFilter filter, boolean gammaCorrect) {
+
+        /** key of a texture with the default mip chain */
+        Key(TextureType type, TextureFormat format, String path, int hash) {
+            this(type, format, path, hash, MipmapFilter.LINEAR, false);
+        }
+
+    }
+
+    /** whether the device blits images of a format with linear filtering */
+    private static boolean linearBlit(TextureFormat format) {
+        return LINEAR_BLIT.computeIfAbsent(format, key -> {
+            try (MemoryStack stack = stackPush()) {
+                VkFormatProperties formatProperties = VkFormatProperties.malloc(stack);
+                vkGetPhysicalDeviceFormatProperties(VulkanSetup.logicalDevice.device.getPhysicalDevice(), format.format, formatProperties);
+                return (formatProperties.optimalTilingFeatures() & VK_FORMAT_FEATURE_SAMPLED_IMAGE_FILTER_LINEAR_BIT) != 0;
+            }
+        });
+    }
+
+    /** image, view and sampler of a texture */
+    static class Image {
+
+        Key key;
+        long sampler;
+        long imageView;
+        private final TextureFormat format;
+        private final int width;
+        private final int height;
+        private final int mipLevels;
+        private long image;
+        private MemoryAllocator.Allocation imageMemory;
+        private int references;
+
+        /** upload the texture */
+        private Image(Key key, Texture texture) {
+            this.key = key;
+            format = texture.format;
+            width = texture.width;
+            height = texture.height;
+            mipLevels = texture.mipLevels;
+            createSampler(texture);
+            createImage(texture);
+        }
+
+        /** destroy image and sampler */
+        private void destroy() {
+            vkDestroySampler(VulkanSetup.logicalDevice.device, sampler, null);
+            vkDestroyImageView(VulkanSetup.logicalDevice.device, imageView, null);
+            vkDestroyImage(VulkanSetup.logicalDevice.device, image, null);
+            VulkanSetup.memoryAllocator.free(imageMemory);
+            MEMORY.merge(format, -imageMemory.size, (used, freed) -> used + freed == 0 ? null : used + freed);
+        }
+
+        /** create texture sampler */
+        private void createSampler(Texture texture) {
+            try (MemoryStack stack = stackPush()) {
+                VkSamplerCreateInfo samplerInfo = VkSamplerCreateInfo.calloc(stack)
+                        .sType(VK_STRUCTURE_TYPE_SAMPLER_CREATE_INFO)
+                        .magFilter(Renderable.SAMPLER_FILTER)
+                        .minFilter(Renderable.SAMPLER_FILTER)
+                        .addressModeU(Renderable.SAMPLER_ADDRESS_MODE)
+                        .addressModeV(Renderable.SAMPLER_ADDRESS_MODE)
+                        .addressModeW(Renderable.SAMPLER_ADDRESS_MODE)
+                        .anisotropyEnable(true)
+                        .maxAnisotropy(Renderable.SAMPLER_MAX_ANISOTROPY)
+                        .borderColor(Renderable.SAMPLER_BORDER_COLOR)
+                        .unnormalizedCoordinates(false)
+                        .compareEnable(false)
+                        .compareOp(Renderable.SAMPLER_COMPARISONS)
+                        .mipmapMode(Renderable.SAMPLER_MIPMAP_MODE)
+                        .minLod(0)
+                        .maxLod((float) texture.getMipLevels())
+                        .mipLodBias(0);
+                LongBuffer pTextureSampler = stack.mallocLong(1);
+                int result = vkCreateSampler(VulkanSetup.logicalDevice.device, samplerInfo, null, pTextureSampler);
+                if (result != VK_SUCCESS)
+                    throw new AssertionError("Failed to create texture sampler: " + VulkanSetup.translateVulkanResult(result));
+                sampler = pTextureSampler.get(0);
+            }
+        }
+
+        /** create texture image */
+        private void createImage(Texture texture) {
+            try (MemoryStack stack = stackPush()) {
+                LongBuffer pTextureImage = stack.mallocLong(1);
+                imageMemory = VulkanSetup.createImage(texture.width, texture.height, texture.mipLevels, VK_SAMPLE_COUNT_1_BIT, format.format, VK_IMAGE_USAGE_TRANSFER_SRC_BIT | VK_IMAGE_USAGE_TRANSFER_DST_BIT | VK_IMAGE_USAGE_SAMPLED_BIT, pTextureImage);
+                image = pTextureImage.get(0);
+                MEMORY.merge(format, imageMemory.size, Long::sum);
+                upload(texture, false);
+                imageView = VulkanSetup.createImageView(VulkanSetup.logicalDevice.device, image, format.format, VK_IMAGE_ASPECT_COLOR_BIT, texture.mipLevels, components(stack, format));
+            }
+        }
+
+        /** swizzle that reads single-channel formats as RGBA, null for the identity */
+        private static VkComponentMapping components(MemoryStack stack, TextureFormat format) {
+            return switch (format) {
+                case R8 -> VkComponentMapping.calloc(stack).set(VK_COMPONENT_SWIZZLE_R, VK_COMPONENT_SWIZZLE_R, VK_COMPONENT_SWIZZLE_R, VK_COMPONENT_SWIZZLE_R);
+                case R16 -> VkComponentMapping.calloc(stack).set(VK_COMPONENT_SWIZZLE_R, VK_COMPONENT_SWIZZLE_R, VK_COMPONENT_SWIZZLE_R, VK_COMPONENT_SWIZZLE_ONE);
+                default -> null;
+            };
+        }
+
+        /** record the upload of the pixels and the mip chain, or of the pixels to blit it from, after earlier frames are done sampling if the image is in use */
+        private void upload(Texture texture, boolean inUse) {
+            boolean blit = texture.deviceMipmaps() && linearBlit(texture.format);
+            Texture.MipChain chain = blit ? null : texture.mipChain();
+            Uploads.Staging staging = Uploads.stage(blit ? texture.size : chain.data().capacity());
+            if (blit) texture.write(staging.data());
+            else staging.data().put(staging.data().position(), chain.data(), 0, chain.data().capacity());
+            VkCommandBuffer commandBuffer = Uploads.commandBuffer();
+            if (inUse) discard(commandBuffer, image, texture.mipLevels);
+            else VulkanSetup.transitionImageLayout(commandBuffer, image, format.format, VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, texture.mipLevels);
+            copyBufferToImage(commandBuffer, staging, image, texture, blit ? null : chain.offsets());
+            if (blit) generateMipmaps(commandBuffer, texture, image);
+            else ready(commandBuffer, image, texture.mipLevels);
+        }
+
+        /** record the transition of a sampled image to be overwritten, once earlier fragment shaders are done */
+        private static void discard(VkCommandBuffer commandBuffer, long image, int mipLevels) {
+            try (MemoryStack stack = stackPush()) {
+                VkImageMemoryBarrier.Buffer barrier = VkImageMemoryBarrier.calloc(1, stack)
+                        .sType(VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER)
+                        .oldLayout(VK_IMAGE_LAYOUT_UNDEFINED)
+                        .newLayout(VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL)
+                        .srcQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                        .dstQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                        .srcAccessMask(0)
+                        .dstAccessMask(VK_ACCESS_TRANSFER_WRITE_BIT)
+                        .image(image);
+                barrier.subresourceRange().aspectMask(VK_IMAGE_ASPECT_COLOR_BIT)
+                        .baseMipLevel(0)
+                        .levelCount(mipLevels)
+                        .baseArrayLayer(0)
+                        .layerCount(1);
+                vkCmdPipelineBarrier(commandBuffer, VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT, VK_PIPELINE_STAGE_TRANSFER_BIT,
+                        0, null, null, barrier);
+            }
+        }
+
+        /** record the transition of an image with every mip level copied to be sampled */
+        private static void ready(VkCommandBuffer commandBuffer, long image, int mipLevels) {
+            try (MemoryStack stack = stackPush()) {
+                VkImageMemoryBarrier.Buffer barrier = VkImageMemoryBarrier.calloc(1, stack)
+                        .sType(VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER)
+                        .oldLayout(VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL)
+                        .newLayout(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
+                        .srcQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                        .dstQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                        .srcAccessMask(VK_ACCESS_TRANSFER_WRITE_BIT)
+                        .dstAccessMask(VK_ACCESS_SHADER_READ_BIT)
+                        .image(image);
+                barrier.subresourceRange().aspectMask(VK_IMAGE_ASPECT_COLOR_BIT)
+                        .baseMipLevel(0)
+                        .levelCount(mipLevels)
+                        .baseArrayLayer(0)
+                        .layerCount(1);
+                vkCmdPipelineBarrier(commandBuffer, VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT,
+                        0, null, null, barrier);
+            }
+        }
+
+        /** record mipmap generation */
+        private static void generateMipmaps(VkCommandBuffer commandBuffer, Texture texture, long image) {
+            try (MemoryStack stack = stackPush()) {
+                VkImageMemoryBarrier.Buffer barrier = VkImageMemoryBarrier.calloc(1, stack)
+                        .sType(VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER)
+                        .image(image)
+                        .srcQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                        .dstQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                        .dstAccessMask(VK_QUEUE_FAMILY_IGNORED);
+                barrier.subresourceRange().aspectMask(VK_IMAGE_ASPECT_COLOR_BIT)
+                        .baseArrayLayer(0)
+                        .layerCount(1)
+                        .levelCount(1);
+                int mipWidth = texture.width;
+                int mipHeight = texture.height;
+                for (int i = 1; i < texture.mipLevels; i++) {
+                    barrier.subresourceRange().baseMipLevel(i - 1);
+                    barrier.oldLayout(VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL)
+                           .newLayout(VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL)
+                           .srcAccessMask(VK_ACCESS_TRANSFER_WRITE_BIT)
+                           .dstAccessMask(VK_ACCESS_TRANSFER_READ_BIT);
+                    vkCmdPipelineBarrier(commandBuffer, VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_TRANSFER_BIT,
+                            0, null, null, barrier);
+                    VkImageBlit.Buffer blit = VkImageBlit.calloc(1, stack);
+                    blit.srcOffsets(0).set(0, 0, 0);
+                    blit.srcOffsets(1).set(mipWidth, mipHeight, 1);
+                    blit.srcSubresource().aspectMask(VK_IMAGE_ASPECT_COLOR_BIT)
+                        .mipLevel(i - 1)
+                        .baseArrayLayer(0)
+                        .layerCount(1);
+                    blit.dstOffsets(0).set(0, 0, 0);
+                    blit.dstOffsets(1).set(mipWidth > 1 ? mipWidth / 2 : 1, mipHeight > 1 ? mipHeight / 2 : 1, 1);
+                    blit.dstSubresource().aspectMask(VK_IMAGE_ASPECT_COLOR_BIT)
+                        .mipLevel(i)
+                        .baseArrayLayer(0)
+                        .layerCount(1);
+                    vkCmdBlitImage(commandBuffer, image, VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL, image, VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, blit, Renderable.SAMPLER_MIPMAP_FILTER);
+                    barrier.oldLayout(VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL)
+                           .newLayout(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
+                           .srcAccessMask(VK_ACCESS_TRANSFER_READ_BIT)
+                           .dstAccessMask(VK_ACCESS_SHADER_READ_BIT);
+                    vkCmdPipelineBarrier(commandBuffer, VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT, 0, null, null, barrier);
+                    if (mipWidth > 1) mipWidth /= 2;
+                    if (mipHeight > 1) mipHeight /= 2;
+                }
+                barrier.subresourceRange().baseMipLevel(texture.mipLevels - 1);
+                barrier.oldLayout(VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL)
+                       .newLayout(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
+                       .srcAccessMask(VK_ACCESS_TRANSFER_WRITE_BIT)
+                       .dstAccessMask(VK_ACCESS_SHADER_READ_BIT);
+                vkCmdPipelineBarrier(commandBuffer, VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT, 0, null, null, barrier);
+            }
+        }
+
+        /** record buffer to image copy of the first level, or of every level at their offsets */
+        private static void copyBufferToImage(VkCommandBuffer commandBuffer, Uploads.Staging staging, long image, Texture texture, int[] levelOffsets) {
+            try (MemoryStack stack = stackPush()) {
+                int levels = levelOffsets == null ? 1 : texture.mipLevels;
+                VkBufferImageCopy.Buffer regions = VkBufferImageCopy.calloc(levels, stack);
+                for (int level = 0; level < levels; level++) {
+                    VkBufferImageCopy region = regions.get(level);
+                    region.bufferOffset(staging.offset() + (levelOffsets == null ? 0 : levelOffsets[level])).bufferRowLength(0).bufferImageHeight(0);
+                    region.imageSubresource().aspectMask(VK_IMAGE_ASPECT_COLOR_BIT)
+                            .mipLevel(level).baseArrayLayer(0).layerCount(1);
+                    region.imageOffset().set(0, 0, 0);
+                    region.imageExtent().set(Math.max(1, texture.width >> level), Math.max(1, texture.height >> level), 1);
+                }
+                vkCmdCopyBufferToImage(commandBuffer, staging.buffer(), image, VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, regions);
+            }
+        }
+
+    }
+
+}
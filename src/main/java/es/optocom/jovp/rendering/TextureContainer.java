@@ -0,0 +1,239 @@
+package es.optocom.jovp.rendering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import static java.nio.file.StandardOpenOption.READ;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import es.optocom.jovp.definitions.MipmapFilter;
+import es.optocom.jovp.definitions.TextureFormat;
+
+/**
+ *
+ * KTX2 texture containers holding an image in its final texture format
+ * together with its whole mip chain. Converting image stimuli offline skips
+ * decoding and mipmap generation when they are loaded: the file is
+ * memory-mapped and every mip level is uploaded with a single copy. Textures
+ * load from a container when the file name ends in .ktx2. Only uncompressed
+ * 2D containers in one of the texture formats are supported.
+ *
+ * @since 0.0.1
+ */
+public class TextureContainer {
+
+    static final String EXTENSION = ".ktx2";
+
+    private static final byte[] IDENTIFIER = {(byte) 0xAB, 'K', 'T', 'X', ' ', '2', '0', (byte) 0xBB, '\r', '\n', 0x1A, '\n'};
+    private static final int HEADER_SIZE = 80; // identifier, header and index
+    private static final int LEVEL_SIZE = 3 * Long.BYTES; // offset, length and uncompressed length of a level
+    private static final int BLOCK_SIZE = 24; // basic data format descriptor block without samples
+    private static final int SAMPLE_SIZE = 16;
+    private static final byte MODEL_RGBSDA = 1;
+    private static final byte PRIMARIES_BT709 = 1;
+    private static final byte TRANSFER_LINEAR = 1;
+    private static final byte TRANSFER_SRGB = 2;
+    private static final int CHANNEL_ALPHA = 15;
+    private static final int QUALIFIER_LINEAR = 0x10;
+    private static final int QUALIFIER_SIGNED = 0x40;
+    private static final int QUALIFIER_FLOAT = 0x80;
+    private static final Set<String> IMAGES = Set.of(".png", ".jpg", ".jpeg", ".bmp", ".tga", ".gif", ".psd", ".hdr", ".pgm", ".ppm", ".pnm");
+
+    private TextureContainer() {}
+
+    /**
+     *
+     * Convert image files, or every image in directories, to texture
+     * containers next to them, in the format that fits their bit depth
+     *
+     * @param args Image files and directories
+     *
+     * @throws IOException If a container cannot be written
+     *
+     * @since 0.0.1
+     */
+    public static void main(String[] args) throws IOException {
+        for (String arg : args) {
+            List<Path> images;
+            try (Stream<Path> files = Files.walk(Paths.get(arg))) {
+                images = files.filter(file -> Files.isRegularFile(file) && IMAGES.contains(extension(file))).toList();
+            }
+            for (Path image : images) {
+                String name = image.getFileName().toString();
+                Path container = image.resolveSibling(name.substring(0, name.lastIndexOf('.')) + EXTENSION);
+                convert(image.toString(), container, null);
+            }
+        }
+    }
+
+    /**
+     *
+     * Convert an image to a texture container. The mip chain is built as
+     * the device would build it, with linear filtering of each level from the
+     * one above, in linear light for sRGB formats
+     *
+     * @param imageFile The image file
+     * @param containerFile The container file to write
+     * @param format The texture format, or null to choose it from the bit
+     *               depth of the image
+     *
+     * @throws IOException If the container cannot be written
+     *
+     * @since 0.0.1
+     */
+    public static void convert(String imageFile, Path containerFile, TextureFormat format) throws IOException {
+        convert(imageFile, containerFile, format, MipmapFilter.LINEAR, false);
+    }
+
+    /**
+     *
+     * Convert an image to a texture container with its mip chain built with
+     * a filter
+     *
+     * @param imageFile The image file
+     * @param containerFile The container file to write
+     * @param format The texture format, or null to choose it from the bit
+     *               depth of the image
+     * @param filter The mipmap filter
+     * @param gammaCorrect Whether to filter colors in linear light
+     *
+     * @throws IOException If the container cannot be written
+     *
+     * @since 0.0.1
+     */
+    public static void convert(String imageFile, Path containerFile, TextureFormat format, MipmapFilter filter, boolean gammaCorrect) throws IOException {
+        Texture texture = new Texture(imageFile, format);
+        texture.setMipmapFilter(filter, gammaCorrect);
+        Texture.MipChain chain = texture.mipChain();
+        ByteBuffer[] levels = new ByteBuffer[texture.mipLevels];
+        for (int level = 0; level < levels.length; level++)
+            levels[level] = chain.data().slice(chain.offsets()[level],
+                    texture.format.texelSize() * Math.max(1, texture.width >> level) * Math.max(1, texture.height >> level));
+        Files.write(containerFile, write(texture.format, texture.width, texture.height, levels).array());
+    }
+
+    /**
+     *
+     * Memory-map a texture container
+     *
+     * @param path Path of the container
+     * @param format Format expected, or null for the one stored
+     *
+     * @return The contents of the container
+     *
+     * @since 0.0.1
+     */
+    static Contents read(String path, TextureFormat format) {
+        ByteBuffer file;
+        int version;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), READ)) {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            version = Long.hashCode(31 * Files.getLastModifiedTime(Paths.get(path)).toMillis() + channel.size());
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot load texture container " + path, e);
+        }
+        byte[] identifier = new byte[IDENTIFIER.length];
+        if (file.capacity() >= HEADER_SIZE) file.get(0, identifier);
+        if (!Arrays.equals(identifier, IDENTIFIER))
+            throw new RuntimeException("Not a KTX2 texture container: " + path);
+        int vkFormat = file.getInt(12);
+        TextureFormat stored = Arrays.stream(TextureFormat.values()).filter(value -> value.format == vkFormat).findFirst()
+                .orElseThrow(() -> new RuntimeException("Unsupported format " + vkFormat + " of texture container " + path));
+        int width = file.getInt(20), height = file.getInt(24), levelCount = file.getInt(40);
+        if (file.getInt(28) != 0 || file.getInt(32) > 1 || file.getInt(36) != 1 || file.getInt(44) != 0)
+            throw new RuntimeException("Only uncompressed 2D texture containers are supported: " + path);
+        if (format != null && format != stored)
+            throw new RuntimeException("Texture container " + path + " is stored as " + stored + ", not " + format);
+        int levels = Math.max(levelCount, 1);
+        long[] offsets = new long[levels];
+        long start = Long.MAX_VALUE, end = 0;
+        for (int level = 0; level < levels; level++) {
+            offsets[level] = file.getLong(HEADER_SIZE + LEVEL_SIZE * level);
+            long length = file.getLong(HEADER_SIZE + LEVEL_SIZE * level + Long.BYTES);
+            if (length != (long) stored.texelSize() * Math.max(1, width >> level) * Math.max(1, height >> level) ||
+                    offsets[level] + length > file.capacity())
+                throw new RuntimeException("Wrong size of mip level " + level + " of texture container " + path);
+            start = Math.min(start, offsets[level]);
+            end = Math.max(end, offsets[level] + length);
+        }
+        ByteBuffer data = file.slice((int) start, (int) (end - start)).order(ByteOrder.LITTLE_ENDIAN);
+        if (levelCount == 0) // the mip chain is left to the device
+            return new Contents(stored, width, height, (int) Math.floor(Math.log(Math.max(width, height)) / Math.log(2)) + 1, data, null, version);
+        int[] levelOffsets = new int[levels];
+        for (int level = 0; level < levels; level++) levelOffsets[level] = (int) (offsets[level] - start);
+        return new Contents(stored, width, height, levels, data, levelOffsets, version);
+    }
+
+    /**
+     *
+     * Format, dimensions and texels of a texture container. Mip levels are
+     * at their offsets in the data, or only the first level is stored if
+     * there are no offsets. The version identifies the file as it was when
+     * it was read, so its texels need not be hashed
+     *
+     * @since 0.0.1
+     */
+    record Contents(TextureFormat format, int width, int height, int mipLevels, ByteBuffer data, int[] levelOffsets, int version) {}
+
+    /** lay out the container: header, level index, data format descriptor, and levels from the smallest */
+    private static ByteBuffer write(TextureFormat format, int width, int height, ByteBuffer[] levels) {
+        int alignment = Math.max(4, format.texelSize()); // least common multiple of texel size and 4
+        int descriptorOffset = HEADER_SIZE + LEVEL_SIZE * levels.length;
+        int descriptorSize = Integer.BYTES + BLOCK_SIZE + SAMPLE_SIZE * format.channels;
+        int[] offsets = new int[levels.length];
+        int end = descriptorOffset + descriptorSize;
+        for (int level = levels.length - 1; level >= 0; level--) {
+            offsets[level] = (end + alignment - 1) / alignment * alignment;
+            end = offsets[level] + levels[level].capacity();
+        }
+        ByteBuffer out = ByteBuffer.allocate(end).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(IDENTIFIER)
+           .putInt(format.format).putInt(format.bytes).putInt(width).putInt(height)
+           .putInt(0).putInt(0).putInt(1).putInt(levels.length).putInt(0) // depth, layers, faces, levels, supercompression
+           .putInt(descriptorOffset).putInt(descriptorSize).putInt(0).putInt(0).putLong(0).putLong(0);
+        for (int level = 0; level < levels.length; level++)
+            out.putLong(offsets[level]).putLong(levels[level].capacity()).putLong(levels[level].capacity());
+        descriptor(out, format);
+        for (int level = 0; level < levels.length; level++)
+            out.put(offsets[level], levels[level], 0, levels[level].capacity());
+        return out;
+    }
+
+    /** basic data format descriptor of a texture format, one sample per channel */
+    private static void descriptor(ByteBuffer out, TextureFormat format) {
+        boolean floating = format == TextureFormat.RGBA16F || format == TextureFormat.RGBA32F;
+        boolean srgb = format == TextureFormat.SRGBA8;
+        int blockSize = BLOCK_SIZE + SAMPLE_SIZE * format.channels;
+        int bits = Byte.SIZE * format.bytes;
+        out.putInt(Integer.BYTES + blockSize)
+           .putInt(0) // Khronos basic descriptor
+           .putInt(2 | blockSize << 16) // version
+           .put(MODEL_RGBSDA).put(PRIMARIES_BT709).put(srgb ? TRANSFER_SRGB : TRANSFER_LINEAR).put((byte) 0)
+           .putInt(0) // texel block of 1 x 1
+           .putInt(format.texelSize()).putInt(0); // bytes per plane
+        for (int channel = 0; channel < format.channels; channel++) {
+            int type = channel == 3 ? CHANNEL_ALPHA : channel;
+            if (floating) type |= QUALIFIER_FLOAT | QUALIFIER_SIGNED;
+            if (srgb && channel == 3) type |= QUALIFIER_LINEAR;
+            out.putInt(channel * bits | (bits - 1) << 16 | type << 24).putInt(0)
+               .putInt(floating ? Float.floatToIntBits(-1) : 0)
+               .putInt(floating ? Float.floatToIntBits(1) : (int) ((1L << bits) - 1));
+        }
+    }
+
+    /** lower-case file extension, with the dot */
+    private static String extension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot).toLowerCase(Locale.ROOT);
+    }
+
+}
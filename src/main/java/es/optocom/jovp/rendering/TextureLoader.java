@@ -0,0 +1,112 @@
+package es.optocom.jovp.rendering;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import es.optocom.jovp.definitions.TextureFormat;
+
+/**
+ *
+ * Decodes image textures in the background, so that loading large images
+ * between trials does not stall the frame loop. Images are decoded on a small
+ * pool of daemon threads into off-heap buffers, and the returned future can be
+ * handed to an item straight away: it keeps its current texture until the
+ * image is ready. Images expected in the next trials can be prefetched, and
+ * the next load of the same file takes the prefetched image.
+ *
+ * @since 0.0.1
+ */
+public class TextureLoader {
+
+    static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "jovp-texture-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Map<Request, CompletableFuture<Texture>> PREFETCHED = new ConcurrentHashMap<>();
+
+    private TextureLoader() {}
+
+    /**
+     *
+     * Decode an image texture in the background, in the format that fits
+     * its bit depth
+     *
+     * @param fileName The image file
+     *
+     * @return The texture once decoded
+     *
+     * @since 0.0.1
+     */
+    public static CompletableFuture<Texture> load(String fileName) {
+        return load(fileName, null);
+    }
+
+    /**
+     *
+     * Decode an image texture in the background
+     *
+     * @param fileName The image file
+     * @param format The texture format
+     *
+     * @return The texture once decoded
+     *
+     * @since 0.0.1
+     */
+    public static CompletableFuture<Texture> load(String fileName, TextureFormat format) {
+        CompletableFuture<Texture> prefetched = PREFETCHED.remove(new Request(fileName, format));
+        return prefetched != null ? prefetched : decode(fileName, format);
+    }
+
+    /**
+     *
+     * Start decoding image textures that are loaded later, in the format
+     * that fits their bit depth
+     *
+     * @param fileNames The image files
+     *
+     * @since 0.0.1
+     */
+    public static void prefetch(List<String> fileNames) {
+        prefetch(fileNames, null);
+    }
+
+    /**
+     *
+     * Start decoding image textures that are loaded later
+     *
+     * @param fileNames The image files
+     * @param format The texture format
+     *
+     * @since 0.0.1
+     */
+    public static void prefetch(List<String> fileNames, TextureFormat format) {
+        for (String fileName : fileNames)
+            PREFETCHED.computeIfAbsent(new Request(fileName, format), request -> decode(fileName, format));
+    }
+
+    /**
+     *
+     * Drop prefetched images that were never loaded
+     *
+     * @since 0.0.1
+     */
+    public static void clear() {
+        PREFETCHED.clear();
+    }
+
+    /** image file and format asked for */
+    private record Request(String fileName, TextureFormat format) {}
+
+    /** decode an image on a worker thread */
+    private static CompletableFuture<Texture> decode(String fileName, TextureFormat format) {
+        return CompletableFuture.supplyAsync(() -> new Texture(fileName, format), WORKERS);
+    }
+
+}
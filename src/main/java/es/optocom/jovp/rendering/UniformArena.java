@@ -0,0 +1,152 @@
+package es.optocom.jovp.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.system.MemoryStack;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.vulkan.VK10.VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT;
+import static org.lwjgl.vulkan.VK10.VK_MEMORY_PROPERTY_HOST_COHERENT_BIT;
+import static org.lwjgl.vulkan.VK10.VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT;
+import static org.lwjgl.vulkan.VK10.vkDestroyBuffer;
+
+/**
+ *
+ * Engine-owned uniform memory. Host-visible pages are allocated once,
+ * and split into blocks holding the uniforms of one renderable for every frame
+ * in flight and eye. Blocks are bound with dynamic offsets.
+ *
+ * @since 0.0.1
+ */
+class UniformArena {
+
+    static final int BLOCKS_PER_PAGE = 256;
+
+    final int sliceSize; // aligned size of the uniforms for one frame and eye
+    final int blockSize; // size of the uniforms for all frames in flight and eyes
+    private final List<Page> pages = new ArrayList<>();
+
+    /**
+     *
+     * Create the uniform arena
+     *
+     * @param uniformSize Size of the uniform block in the shaders
+     *
+     * @since 0.0.1
+     */
+    UniformArena(int uniformSize) {
+        long alignment = VulkanSetup.getDeviceProperties(VulkanSetup.physicalDevice).limits().minUniformBufferOffsetAlignment();
+        sliceSize = (int) ((uniformSize + alignment - 1) / alignment * alignment);
+        blockSize = 2 * VulkanSetup.framesInFlight * sliceSize;
+    }
+
+    /**
+     *
+     * Allocate a block of uniforms
+     *
+     * @return The block
+     *
+     * @since 0.0.1
+     */
+    Block allocate() {
+        for (Page page : pages)
+            if (!page.free.isEmpty()) return page.allocate();
+        Page page = new Page();
+        pages.add(page);
+        return page.allocate();
+    }
+
+    /**
+     *
+     * Return a block to the arena
+     *
+     * @param block The block
+     *
+     * @since 0.0.1
+     */
+    void free(Block block) {
+        block.page.free.push(block.offset / blockSize);
+    }
+
+    /**
+     *
+     * Destroy all pages
+     *
+     * @since 0.0.1
+     */
+    void destroy() {
+        pages.forEach(Page::destroy);
+        pages.clear();
+    }
+
+    /** host-visible uniform buffer mapped for its whole life */
+    private class Page {
+
+        final long buffer;
+        final MemoryAllocator.Allocation memory;
+        final ByteBuffer mapping;
+        final ArrayDeque<Integer> free = new ArrayDeque<>(BLOCKS_PER_PAGE);
+
+        /** create and map the page */
+        Page() {
+            long size = (long) BLOCKS_PER_PAGE * blockSize;
+            try (MemoryStack stack = stackPush()) {
+                LongBuffer pBuffer = stack.mallocLong(1);
+                memory = VulkanSetup.createBuffer(size, VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT | VK_MEMORY_PROPERTY_HOST_COHERENT_BIT, pBuffer);
+                buffer = pBuffer.get(0);
+                mapping = memory.mapping();
+            }
+            for (int i = 0; i < BLOCKS_PER_PAGE; i++) free.add(i);
+        }
+
+        /** take a free block */
+        Block allocate() {
+            return new Block(this, free.pop() * blockSize);
+        }
+
+        /** unmap and destroy the page */
+        void destroy() {
+            vkDestroyBuffer(VulkanSetup.logicalDevice.device, buffer, null);
+            VulkanSetup.memoryAllocator.free(memory);
+        }
+
+    }
+
+    /** uniforms of one renderable, one slice per frame in flight and eye */
+    class Block {
+
+        final Page page;
+        final int offset;
+        private final ByteBuffer[] slices;
+
+        /** create views into the page mapping for each slice */
+        private Block(Page page, int offset) {
+            this.page = page;
+            this.offset = offset;
+            slices = new ByteBuffer[2 * VulkanSetup.framesInFlight];
+            for (int i = 0; i < slices.length; i++)
+                slices[i] = page.mapping.slice(offset + i * sliceSize, sliceSize).order(ByteOrder.nativeOrder());
+        }
+
+        /** buffer holding the block */
+        long buffer() {
+            return page.buffer;
+        }
+
+        /** mapped memory of the slice for a frame and eye */
+        ByteBuffer slice(int frame, int eye) {
+            return slices[frame + VulkanSetup.framesInFlight * eye];
+        }
+
+        /** dynamic offset of the slice for a frame and eye within the block */
+        int dynamicOffset(int frame, int eye) {
+            return (frame + VulkanSetup.framesInFlight * eye) * sliceSize;
+        }
+
+    }
+
+}
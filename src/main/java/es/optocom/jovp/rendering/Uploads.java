@@ -0,0 +1,208 @@
+package es.optocom.jovp.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.system.MemoryStack;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.vulkan.VK10.VK_ACCESS_INDEX_READ_BIT;
+import static org.lwjgl.vulkan.VK10.VK_ACCESS_TRANSFER_WRITE_BIT;
+import static org.lwjgl.vulkan.VK10.VK_ACCESS_VERTEX_ATTRIBUTE_READ_BIT;
+import static org.lwjgl.vulkan.VK10.VK_BUFFER_USAGE_TRANSFER_SRC_BIT;
+import static org.lwjgl.vulkan.VK10.VK_MEMORY_PROPERTY_HOST_COHERENT_BIT;
+import static org.lwjgl.vulkan.VK10.VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT;
+import static org.lwjgl.vulkan.VK10.VK_PIPELINE_STAGE_TRANSFER_BIT;
+import static org.lwjgl.vulkan.VK10.VK_PIPELINE_STAGE_VERTEX_INPUT_BIT;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_FENCE_CREATE_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_MEMORY_BARRIER;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_SUBMIT_INFO;
+import static org.lwjgl.vulkan.VK10.VK_SUCCESS;
+import static org.lwjgl.vulkan.VK10.vkCmdPipelineBarrier;
+import static org.lwjgl.vulkan.VK10.vkCreateFence;
+import static org.lwjgl.vulkan.VK10.vkDestroyBuffer;
+import static org.lwjgl.vulkan.VK10.vkDestroyFence;
+import static org.lwjgl.vulkan.VK10.vkEndCommandBuffer;
+import static org.lwjgl.vulkan.VK10.vkFreeCommandBuffers;
+import static org.lwjgl.vulkan.VK10.vkGetFenceStatus;
+import static org.lwjgl.vulkan.VK10.vkQueueSubmit;
+import static org.lwjgl.vulkan.VK10.vkWaitForFences;
+import org.lwjgl.vulkan.VkCommandBuffer;
+import org.lwjgl.vulkan.VkFenceCreateInfo;
+import org.lwjgl.vulkan.VkMemoryBarrier;
+import org.lwjgl.vulkan.VkSubmitInfo;
+
+/**
+ *
+ * Batches resource uploads. Staging copies, layout transitions and mipmap
+ * blits are recorded into a single command buffer that is submitted once per
+ * frame, before the frame itself, instead of waiting for the queue to go idle
+ * after each of them. Upload data is staged in a ring buffer whose regions are
+ * recycled when the fence of their batch signals, so uploads do not allocate
+ * device memory. Only uploads too large for the ring get their own staging
+ * buffer.
+ *
+ * @since 0.0.1
+ */
+class Uploads {
+
+    private static final ArrayDeque<Batch> PENDING = new ArrayDeque<>();
+    private static final List<Runnable> RELEASE = new ArrayList<>();
+    private static VkCommandBuffer commandBuffer;
+    private static StagingRing ring;
+
+    /**
+     *
+     * Get the command buffer of the open batch, beginning a new batch if
+     * there is none
+     *
+     * @return The command buffer to record upload commands
+     *
+     * @since 0.0.1
+     */
+    static VkCommandBuffer commandBuffer() {
+        if (commandBuffer == null) commandBuffer = VulkanSetup.beginCommand(VulkanSetup.commandPool);
+        return commandBuffer;
+    }
+
+    /**
+     *
+     * Get staging memory for an upload in the open batch. The memory must be
+     * written before the batch is flushed
+     *
+     * @param size Size of the upload in bytes
+     *
+     * @return The staging region
+     *
+     * @since 0.0.1
+     */
+    static Staging stage(int size) {
+        if (size > StagingRing.SIZE / 2) return dedicated(size);
+        if (ring == null) ring = new StagingRing();
+        long offset = ring.allocate(size);
+        if (offset < 0) {
+            finish();
+            offset = ring.allocate(size);
+        }
+        return new Staging(ring.buffer, offset, ring.data(offset, size));
+    }
+
+    /**
+     *
+     * Release a staging resource once the open batch has been executed
+     *
+     * @param release What releases the resource
+     *
+     * @since 0.0.1
+     */
+    static void release(Runnable release) {
+        RELEASE.add(release);
+    }
+
+    /**
+     *
+     * Submit the open batch, if any. Uploaded buffers are made visible to
+     * vertex input, and images are left ready to be sampled
+     *
+     * @since 0.0.1
+     */
+    static void flush() {
+        if (commandBuffer == null) return;
+        try (MemoryStack stack = stackPush()) {
+            VkMemoryBarrier.Buffer barrier = VkMemoryBarrier.calloc(1, stack)
+                    .sType(VK_STRUCTURE_TYPE_MEMORY_BARRIER)
+                    .srcAccessMask(VK_ACCESS_TRANSFER_WRITE_BIT)
+                    .dstAccessMask(VK_ACCESS_VERTEX_ATTRIBUTE_READ_BIT | VK_ACCESS_INDEX_READ_BIT);
+            vkCmdPipelineBarrier(commandBuffer, VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_VERTEX_INPUT_BIT,
+                    0, barrier, null, null);
+            vkEndCommandBuffer(commandBuffer);
+            VkFenceCreateInfo fenceInfo = VkFenceCreateInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_FENCE_CREATE_INFO);
+            LongBuffer pFence = stack.mallocLong(1);
+            int result = vkCreateFence(VulkanSetup.logicalDevice.device, fenceInfo, null, pFence);
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to create upload fence: " + VulkanSetup.translateVulkanResult(result));
+            VkSubmitInfo submitInfo = VkSubmitInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_SUBMIT_INFO)
+                    .pCommandBuffers(stack.pointers(commandBuffer));
+            result = vkQueueSubmit(VulkanSetup.logicalDevice.graphicsQueue, submitInfo, pFence.get(0));
+            if (result != VK_SUCCESS)
+                throw new AssertionError("Failed to submit upload command buffer: " + VulkanSetup.translateVulkanResult(result));
+            PENDING.add(new Batch(pFence.get(0), commandBuffer, ring == null ? 0 : ring.head(), List.copyOf(RELEASE)));
+            VulkanSetup.uploadSubmits++;
+        }
+        commandBuffer = null;
+        RELEASE.clear();
+    }
+
+    /**
+     *
+     * Release the staging resources of the batches the device has finished
+     *
+     * @since 0.0.1
+     */
+    static void collect() {
+        while (!PENDING.isEmpty() &&
+                vkGetFenceStatus(VulkanSetup.logicalDevice.device, PENDING.peek().fence()) == VK_SUCCESS)
+            PENDING.poll().release();
+    }
+
+    /**
+     *
+     * Submit the open batch and wait for all batches to finish
+     *
+     * @since 0.0.1
+     */
+    static void finish() {
+        flush();
+        while (!PENDING.isEmpty()) {
+            Batch batch = PENDING.poll();
+            vkWaitForFences(VulkanSetup.logicalDevice.device, batch.fence(), true, VulkanSetup.UINT64_MAX);
+            batch.release();
+        }
+    }
+
+    /**
+     *
+     * Destroy the staging ring, all batches must be finished
+     *
+     * @since 0.0.1
+     */
+    static void destroy() {
+        if (ring != null) ring.destroy();
+        ring = null;
+    }
+
+    /** own staging buffer for an upload too large for the ring */
+    private static Staging dedicated(int size) {
+        try (MemoryStack stack = stackPush()) {
+            LongBuffer pBuffer = stack.mallocLong(1);
+            MemoryAllocator.Allocation memory = VulkanSetup.createBuffer(size, VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT | VK_MEMORY_PROPERTY_HOST_COHERENT_BIT, pBuffer);
+            long buffer = pBuffer.get(0);
+            release(() -> {
+                vkDestroyBuffer(VulkanSetup.logicalDevice.device, buffer, null);
+                VulkanSetup.memoryAllocator.free(memory);
+            });
+            return new Staging(buffer, 0, memory.mapping());
+        }
+    }
+
+    /** staging region of an upload: buffer, offset in the buffer, and mapped memory to write */
+    record Staging(long buffer, long offset, ByteBuffer data) {}
+
+    /** submitted batch and what to release once it is done */
+    private record Batch(long fence, VkCommandBuffer commandBuffer, long staged, List<Runnable> resources) {
+
+        /** release staging memory, the command buffer, and the fence */
+        void release() {
+            if (ring != null) ring.release(staged);
+            resources.forEach(Runnable::run);
+            vkFreeCommandBuffers(VulkanSetup.logicalDevice.device, VulkanSetup.commandPool, commandBuffer);
+            vkDestroyFence(VulkanSetup.logicalDevice.device, fence, null);
+        }
+
+    }
+
+}
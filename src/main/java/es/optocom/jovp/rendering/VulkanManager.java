@@ -2,8 +2,10 @@ package es.optocom.jovp.rendering;
 
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -23,24 +25,30 @@ import static org.lwjgl.vulkan.KHRSwapchain.VK_SUBOPTIMAL_KHR;
 import static org.lwjgl.vulkan.KHRSwapchain.vkAcquireNextImageKHR;
 import static org.lwjgl.vulkan.KHRSwapchain.vkQueuePresentKHR;
 import static org.lwjgl.vulkan.VK10.VK_COMMAND_BUFFER_LEVEL_PRIMARY;
+import static org.lwjgl.vulkan.VK10.VK_COMMAND_BUFFER_LEVEL_SECONDARY;
+import static org.lwjgl.vulkan.VK10.VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT;
+import static org.lwjgl.vulkan.VK10.VK_COMMAND_BUFFER_USAGE_RENDER_PASS_CONTINUE_BIT;
 import static org.lwjgl.vulkan.VK10.VK_FENCE_CREATE_SIGNALED_BIT;
 import static org.lwjgl.vulkan.VK10.VK_MAKE_VERSION;
+import static org.lwjgl.vulkan.VK10.VK_NOT_READY;
 import static org.lwjgl.vulkan.VK10.VK_NULL_HANDLE;
 import static org.lwjgl.vulkan.VK10.VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_APPLICATION_INFO;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_ALLOCATE_INFO;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_BEGIN_INFO;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_INHERITANCE_INFO;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_FENCE_CREATE_INFO;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_INSTANCE_CREATE_INFO;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_RENDER_PASS_BEGIN_INFO;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_SEMAPHORE_CREATE_INFO;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_SUBMIT_INFO;
-import static org.lwjgl.vulkan.VK10.VK_SUBPASS_CONTENTS_INLINE;
+import static org.lwjgl.vulkan.VK10.VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS;
 import static org.lwjgl.vulkan.VK10.VK_SUCCESS;
 import static org.lwjgl.vulkan.VK10.vkAllocateCommandBuffers;
 import static org.lwjgl.vulkan.VK10.vkBeginCommandBuffer;
 import static org.lwjgl.vulkan.VK10.vkCmdBeginRenderPass;
 import static org.lwjgl.vulkan.VK10.vkCmdEndRenderPass;
+import static org.lwjgl.vulkan.VK10.vkCmdExecuteCommands;
 import static org.lwjgl.vulkan.VK10.vkCreateFence;
 import static org.lwjgl.vulkan.VK10.vkCreateInstance;
 import static org.lwjgl.vulkan.VK10.vkCreateSemaphore;
@@ -51,6 +59,7 @@ import static org.lwjgl.vulkan.VK10.vkDeviceWaitIdle;
 import static org.lwjgl.vulkan.VK10.vkEndCommandBuffer;
 import static org.lwjgl.vulkan.VK10.vkEnumeratePhysicalDevices;
 import static org.lwjgl.vulkan.VK10.vkFreeCommandBuffers;
+import static org.lwjgl.vulkan.VK10.vkGetFenceStatus;
 import static org.lwjgl.vulkan.VK10.vkQueueSubmit;
 import static org.lwjgl.vulkan.VK10.vkResetFences;
 import static org.lwjgl.vulkan.VK10.vkWaitForFences;
@@ -59,6 +68,7 @@ import org.lwjgl.vulkan.VkClearValue;
 import org.lwjgl.vulkan.VkCommandBuffer;
 import org.lwjgl.vulkan.VkCommandBufferAllocateInfo;
 import org.lwjgl.vulkan.VkCommandBufferBeginInfo;
+import org.lwjgl.vulkan.VkCommandBufferInheritanceInfo;
 import org.lwjgl.vulkan.VkDebugUtilsMessengerCreateInfoEXT;
 import org.lwjgl.vulkan.VkDevice;
 import org.lwjgl.vulkan.VkFenceCreateInfo;
@@ -73,6 +83,7 @@ import org.lwjgl.vulkan.VkRenderPassBeginInfo;
 import org.lwjgl.vulkan.VkSemaphoreCreateInfo;
 import org.lwjgl.vulkan.VkSubmitInfo;
 
+import es.optocom.jovp.definitions.TextureFormat;
 import es.optocom.jovp.definitions.ViewMode;
 
 /**
@@ -84,12 +95,15 @@ import es.optocom.jovp.definitions.ViewMode;
  */
 public class VulkanManager {
 
-    static final int MAX_FRAMES_IN_FLIGHT = 2;
+    static final int DEFAULT_FRAMES_IN_FLIGHT = 2;
+    static final int MIN_BATCH_SIZE = 2; // items sharing vertex buffers and image needed to draw them instanced
 
     private VulkanCommands vulkanCommands;
     private List<Frame> inFlightFrames;
-    private Map<Integer, Frame> imagesInFlight;
     private int currentFrame;
+    private long overlappedFrames;
+    private long startTime;
+    private long timeToFirstFrame = -1;
 
     /**
      * 
@@ -105,6 +119,8 @@ public class VulkanManager {
         VulkanSetup.observer = observer;
         VulkanSetup.validationLayers = validationLayers;
         VulkanSetup.apiDump = apiDump;
+        VulkanSetup.framesInFlight = DEFAULT_FRAMES_IN_FLIGHT;
+        VulkanSetup.instancing = false;
         VulkanSetup.addValidationLayers();
         createInstance();
         createSurface();
@@ -122,17 +138,368 @@ public class VulkanManager {
      * @since 0.0.1
      */
     public void start(VkPhysicalDevice physicalDevice, ArrayList<Item> items, ArrayList<Text> texts) {
+        startTime = System.nanoTime();
+        timeToFirstFrame = -1;
         VulkanSetup.physicalDevice = physicalDevice;
         VulkanSetup.logicalDevice = new LogicalDevice(VulkanSetup.surface, physicalDevice);
-        VulkanSetup.swapChain = new SwapChain(VulkanSetup.observer.viewMode);
+        VulkanSetup.memoryAllocator = new MemoryAllocator();
+        VulkanSetup.pipelineCache = new PipelineCache(physicalDevice);
+        VulkanSetup.uniformArena = new UniformArena(Renderable.UNIFORM_SIZEOF);
         VulkanSetup.commandPool = VulkanSetup.createCommandPool();
+        VulkanSetup.swapChain = new SwapChain(VulkanSetup.observer.viewMode);
+        VulkanSetup.pipelines = new Pipelines(VulkanSetup.swapChain.renderPass, VulkanSetup.swapChain.imageFormat);
         for (Item item : items) item.createBuffers();
         for (Text text : texts) text.createBuffers();
+        Uploads.flush();
         vulkanCommands = new VulkanCommands(items, texts);
         createSyncObjects();
         VulkanSetup.observer.computeProjections();
     }
 
+    /**
+     * 
+     * Set how many frames the CPU can record while the GPU is still rendering previous ones.
+     * It must be set before the engine starts
+     *
+     * @param framesInFlight Number of frames in flight, at least 1
+     *
+     * @throws IllegalArgumentException if the number of frames is less than 1
+     * @throws IllegalStateException if the engine has already started
+     *
+     * @since 0.0.1
+     */
+    public void setFramesInFlight(int framesInFlight) {
+        if (framesInFlight < 1)
+            throw new IllegalArgumentException("At least one frame in flight is required");
+        if (VulkanSetup.logicalDevice != null)
+            throw new IllegalStateException("Frames in flight must be set before the engine starts");
+        VulkanSetup.framesInFlight = framesInFlight;
+    }
+
+    /**
+     * 
+     * Get how many frames the CPU can record while the GPU is still rendering previous ones
+     *
+     * @return Number of frames in flight
+     *
+     * @since 0.0.1
+     */
+    public int getFramesInFlight() {
+        return VulkanSetup.framesInFlight;
+    }
+
+    /**
+     * 
+     * Get the number of frames submitted so far
+     *
+     * @return Number of frames submitted
+     *
+     * @since 0.0.1
+     */
+    public long getFrameCount() {
+        return VulkanSetup.frameCount;
+    }
+
+    /**
+     * 
+     * Set the directory where compiled shaders and the pipeline cache are kept
+     * between runs. It must be set before the engine starts
+     *
+     * @param cacheDirectory Path to the cache directory
+     *
+     * @throws IllegalStateException if the engine has already started
+     *
+     * @since 0.0.1
+     */
+    public void setCacheDirectory(String cacheDirectory) {
+        if (VulkanSetup.logicalDevice != null)
+            throw new IllegalStateException("Cache directory must be set before the engine starts");
+        VulkanSetup.cacheDirectory = Paths.get(cacheDirectory);
+    }
+
+    /**
+     * 
+     * Get the directory where compiled shaders and the pipeline cache are kept
+     * between runs
+     *
+     * @return Path to the cache directory
+     *
+     * @since 0.0.1
+     */
+    public String getCacheDirectory() {
+        return VulkanSetup.cacheDirectory.toString();
+    }
+
+    /**
+     * 
+     * Get the time from the start of the engine until the first frame was presented
+     *
+     * @return Time to first frame in milliseconds, or -1 if no frame has been presented yet
+     *
+     * @since 0.0.1
+     */
+    public double getTimeToFirstFrame() {
+        return timeToFirstFrame == -1 ? -1 : timeToFirstFrame / 1e6;
+    }
+
+    /**
+     * 
+     * Get the size of the pipeline cache file the pipelines were built from.
+     * It is written on cleanup and only used by the same device and driver
+     *
+     * @return Size of the file in bytes, or 0 if the pipelines were built
+     *         from scratch or the engine is not running
+     *
+     * @since 0.0.1
+     */
+    public long getPipelineCacheSeed() {
+        return VulkanSetup.pipelineCache == null ? 0 : VulkanSetup.pipelineCache.seed;
+    }
+
+    /**
+     * 
+     * Get the number of frames that were recorded while the GPU was still
+     * executing the previous one, that is, frames where CPU and GPU work overlapped
+     *
+     * @return Number of overlapped frames
+     *
+     * @since 0.0.1
+     */
+    public long getOverlappedFrames() {
+        return overlappedFrames;
+    }
+
+    /**
+     * 
+     * Get the number of uniform blocks written in the last frame, that is,
+     * those whose item, texture, or observer changed since the slot was last used
+     *
+     * @return Number of uniform blocks written
+     *
+     * @since 0.0.1
+     */
+    public int getUniformsWritten() {
+        return VulkanSetup.uniformsWritten;
+    }
+
+    /**
+     * 
+     * Get the number of uniform blocks left untouched in the last frame
+     * because their inputs had not changed
+     *
+     * @return Number of uniform blocks skipped
+     *
+     * @since 0.0.1
+     */
+    public int getUniformsSkipped() {
+        return VulkanSetup.uniformsSkipped;
+    }
+
+    /**
+     * 
+     * Get the number of times the draw commands of the scene have been recorded.
+     * They are only recorded again when items or texts are added, removed, shown,
+     * hidden, or get a new model or texture, once for each frame in flight
+     *
+     * @return Number of times the draw commands were recorded
+     *
+     * @since 0.0.1
+     */
+    public long getCommandsRecorded() {
+        return vulkanCommands == null ? 0 : vulkanCommands.commandsRecorded();
+    }
+
+    /**
+     * 
+     * Draw items with identical models and textures with a single instanced
+     * draw call for each eye, even if they were constructed separately and
+     * have different colors. Instancing is off by default: instanced items are
+     * drawn after the items that precede the first of them, which changes the
+     * result for overlapping semi-transparent items
+     *
+     * @param instancing Whether to use instanced rendering
+     *
+     * @since 0.0.1
+     */
+    public void setInstancing(boolean instancing) {
+        VulkanSetup.instancing = instancing;
+        if (vulkanCommands != null) vulkanCommands.invalidate();
+    }
+
+    /**
+     * 
+     * Get whether items with identical models and textures are drawn instanced
+     *
+     * @return Whether instanced rendering is used
+     *
+     * @since 0.0.1
+     */
+    public boolean getInstancing() {
+        return VulkanSetup.instancing;
+    }
+
+    /**
+     * 
+     * Get the number of draw calls in the draw commands last recorded for the scene
+     *
+     * @return Number of draw calls
+     *
+     * @since 0.0.1
+     */
+    public int getDrawCalls() {
+        return VulkanSetup.drawCalls;
+    }
+
+    /**
+     * 
+     * Get the number of vertex and index buffers shared between items with identical models
+     *
+     * @return Number of cached geometries
+     *
+     * @since 0.0.1
+     */
+    public int getCachedGeometries() {
+        return GeometryCache.size();
+    }
+
+    /**
+     * 
+     * Get the number of texture images shared between items with identical textures
+     *
+     * @return Number of cached texture images
+     *
+     * @since 0.0.1
+     */
+    public int getCachedTextures() {
+        return TextureCache.size();
+    }
+
+    /**
+     * 
+     * Get the number of font atlases shared between text objects with the same font
+     *
+     * @return Number of baked font atlases
+     *
+     * @since 0.0.1
+     */
+    public int getFontAtlases() {
+        return FontAtlas.size();
+    }
+
+    /**
+     * 
+     * Get how many times the graphics pipelines were built since the engine
+     * started. Window resizes and view mode changes do not rebuild them
+     *
+     * @return Number of pipeline builds
+     *
+     * @since 0.0.1
+     */
+    public int getPipelineBuilds() {
+        return VulkanSetup.pipelineBuilds;
+    }
+
+    /**
+     * 
+     * Get how many upload batches were submitted since the engine started.
+     * Uploads are submitted at most once per frame
+     *
+     * @return Number of upload submits
+     *
+     * @since 0.0.1
+     */
+    public int getUploadSubmits() {
+        return VulkanSetup.uploadSubmits;
+    }
+
+    /**
+     * 
+     * Get how many texture updates were uploaded into the image of the
+     * texture they replace, without recreating image and descriptors
+     *
+     * @return Number of in-place texture updates
+     *
+     * @since 0.0.1
+     */
+    public int getTextureUpdates() {
+        return VulkanSetup.textureUpdates;
+    }
+
+    /**
+     * 
+     * Get the number of buffers and images with device memory
+     *
+     * @return Number of memory allocations
+     *
+     * @since 0.0.1
+     */
+    public int getMemoryAllocations() {
+        return VulkanSetup.memoryAllocator.stats().allocations();
+    }
+
+    /**
+     * 
+     * Get the number of device memory blocks the allocations are taken from.
+     * Each block is a single device allocation, which devices limit to a few
+     * thousand
+     *
+     * @return Number of device memory blocks
+     *
+     * @since 0.0.1
+     */
+    public int getMemoryBlocks() {
+        return VulkanSetup.memoryAllocator.stats().blocks();
+    }
+
+    /**
+     * 
+     * Get the bytes of device memory in use by buffers and images
+     *
+     * @return Bytes in use
+     *
+     * @since 0.0.1
+     */
+    public long getMemoryUsed() {
+        return VulkanSetup.memoryAllocator.stats().used();
+    }
+
+    /**
+     * 
+     * Get the bytes of device memory allocated in blocks, used or free
+     *
+     * @return Bytes allocated
+     *
+     * @since 0.0.1
+     */
+    public long getMemoryAllocated() {
+        return VulkanSetup.memoryAllocator.stats().allocated();
+    }
+
+    /**
+     * 
+     * Get the fragmentation of free device memory, from 0 when it is all one
+     * range to close to 1 when it is split in many small ranges
+     *
+     * @return Fragmentation of free memory
+     *
+     * @since 0.0.1
+     */
+    public double getMemoryFragmentation() {
+        return VulkanSetup.memoryAllocator.stats().fragmentation();
+    }
+
+    /**
+     * 
+     * Get the device memory taken by texture images, mipmaps included
+     *
+     * @return Bytes per texture format
+     *
+     * @since 0.0.1
+     */
+    public Map<TextureFormat, Long> getTextureMemory() {
+        return TextureCache.memory();
+    }
+
     /**
      * 
      * Set the view mode
@@ -158,6 +525,8 @@ public class VulkanManager {
             IntBuffer pImageIndex = stack.mallocInt(1);
             Frame thisFrame = inFlightFrames.get(currentFrame);
             vkWaitForFences(VulkanSetup.logicalDevice.device, thisFrame.pFence(), true, VulkanSetup.UINT64_MAX);
+            VulkanSetup.releaseRetired(VulkanSetup.frameCount - VulkanSetup.framesInFlight);
+            Uploads.collect();
             int result = vkAcquireNextImageKHR(VulkanSetup.logicalDevice.device, VulkanSetup.swapChain.swapChain,
                     VulkanSetup.UINT64_MAX,
                     thisFrame.imageAvailableSemaphore(), VK_NULL_HANDLE, pImageIndex);
@@ -167,25 +536,27 @@ public class VulkanManager {
             } else if (result != VK_SUCCESS)
                 throw new AssertionError("Cannot get image: " + VulkanSetup.translateVulkanResult(result));
             final int imageIndex = pImageIndex.get(0);
-            if (imagesInFlight.containsKey(imageIndex))
-                vkWaitForFences(VulkanSetup.logicalDevice.device, imagesInFlight.get(imageIndex).fence(), true,
-                        VulkanSetup.UINT64_MAX);
-            vkDeviceWaitIdle(VulkanSetup.logicalDevice.device);
-            vulkanCommands.renderPass(imageIndex);
-            imagesInFlight.put(imageIndex, thisFrame);
+            Frame previousFrame = inFlightFrames.get((currentFrame + VulkanSetup.framesInFlight - 1) % VulkanSetup.framesInFlight);
+            if (vkGetFenceStatus(VulkanSetup.logicalDevice.device, previousFrame.fence()) == VK_NOT_READY)
+                overlappedFrames++;
+            VulkanSetup.uniformsWritten = 0;
+            VulkanSetup.uniformsSkipped = 0;
+            vulkanCommands.renderPass(currentFrame, imageIndex);
             VkSubmitInfo submitInfo = VkSubmitInfo.calloc(stack)
                     .sType(VK_STRUCTURE_TYPE_SUBMIT_INFO)
                     .waitSemaphoreCount(1)
                     .pWaitSemaphores(thisFrame.pImageAvailableSemaphore())
                     .pWaitDstStageMask(stack.ints(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT))
                     .pSignalSemaphores(thisFrame.pRenderFinishedSemaphore())
-                    .pCommandBuffers(stack.pointers(vulkanCommands.commandBuffers.get(imageIndex)));
+                    .pCommandBuffers(stack.pointers(vulkanCommands.commandBuffers.get(currentFrame)));
+            Uploads.flush();
             vkResetFences(VulkanSetup.logicalDevice.device, thisFrame.pFence());
             result = vkQueueSubmit(VulkanSetup.logicalDevice.graphicsQueue, submitInfo, thisFrame.fence());
             if (result != VK_SUCCESS) {
                 vkResetFences(VulkanSetup.logicalDevice.device, thisFrame.pFence());
                 throw new AssertionError("Failed to submit draw command buffer: " + VulkanSetup.translateVulkanResult(result));
             }
+            VulkanSetup.frameCount++;
             VkPresentInfoKHR presentInfo = VkPresentInfoKHR.calloc(stack)
                     .sType(VK_STRUCTURE_TYPE_PRESENT_INFO_KHR)
                     .pWaitSemaphores(thisFrame.pRenderFinishedSemaphore())
@@ -193,12 +564,13 @@ public class VulkanManager {
                     .pSwapchains(stack.longs(VulkanSetup.swapChain.swapChain))
                     .pImageIndices(pImageIndex);
             result = vkQueuePresentKHR(VulkanSetup.logicalDevice.presentQueue, presentInfo);
+            if (timeToFirstFrame == -1) timeToFirstFrame = System.nanoTime() - startTime;
+            currentFrame = (currentFrame + 1) % VulkanSetup.framesInFlight;
             if (VulkanSetup.observer.window.resized()) {
                 recreateSwapChain();
                 VulkanSetup.observer.window.resized(false);
             } else if (result != VK_SUCCESS)
                 throw new AssertionError("Failed to present swap chain image: " + VulkanSetup.translateVulkanResult(result));
-            currentFrame = (currentFrame + 1) % MAX_FRAMES_IN_FLIGHT;
         }
     }
 
@@ -210,11 +582,26 @@ public class VulkanManager {
      */
     public void cleanup() {
         if (VulkanSetup.logicalDevice != null) {
+            vkDeviceWaitIdle(VulkanSetup.logicalDevice.device);
+            Uploads.finish();
+            Uploads.destroy();
             destroySyncObjects();
             vulkanCommands.destroy();
+            VulkanSetup.releaseRetired();
+            GeometryCache.destroy();
+            TextureCache.destroy();
+            VulkanSetup.uniformArena.destroy();
+            VulkanSetup.uniformArena = null;
             VulkanSetup.destroyCommandPool(VulkanSetup.commandPool);
             VulkanSetup.commandPool = 0;
             VulkanSetup.swapChain.destroy();
+            VulkanSetup.pipelines.destroy();
+            VulkanSetup.pipelines = null;
+            VulkanSetup.pipelineCache.save();
+            VulkanSetup.pipelineCache.destroy();
+            VulkanSetup.pipelineCache = null;
+            VulkanSetup.memoryAllocator.destroy();
+            VulkanSetup.memoryAllocator = null;
             VulkanSetup.logicalDevice.destroy();
             VulkanSetup.swapChain = null;
             VulkanSetup.logicalDevice = null;
@@ -377,7 +764,14 @@ public class VulkanManager {
             throw new RuntimeException("Failed to find a suitable GPU");
     }
 
-    /** recreate the swap chain as necessary */
+    /**
+     *
+     * Recreate the swap chain as necessary, after a window resize or a change
+     * of view mode. Pipelines are kept, as viewport and scissor are dynamic,
+     * unless the new swap chain images have a different format
+     *
+     * @since 0.0.1
+     */
     public void recreateSwapChain() {
         try (MemoryStack stack = stackPush()) {
             IntBuffer width = stack.ints(0);
@@ -388,15 +782,21 @@ public class VulkanManager {
             }
         }
         vkDeviceWaitIdle(VulkanSetup.logicalDevice.device);
+        Uploads.finish();
+        VulkanSetup.releaseRetired();
         VulkanSetup.swapChain.destroy();
         VulkanSetup.swapChain = new SwapChain(VulkanSetup.observer.viewMode);
+        if (VulkanSetup.pipelines.imageFormat != VulkanSetup.swapChain.imageFormat) {
+            VulkanSetup.pipelines.destroy();
+            VulkanSetup.pipelines = new Pipelines(VulkanSetup.swapChain.renderPass, VulkanSetup.swapChain.imageFormat);
+        }
         VulkanSetup.observer.computeProjections();
+        vulkanCommands.invalidate();
     }
 
     /** create synchronization objects */
     private void createSyncObjects() {
-        inFlightFrames = new ArrayList<>(MAX_FRAMES_IN_FLIGHT);
-        imagesInFlight = new HashMap<>(VulkanSetup.swapChain.images.size());
+        inFlightFrames = new ArrayList<>(VulkanSetup.framesInFlight);
         try (MemoryStack stack = stackPush()) {
             VkSemaphoreCreateInfo semaphoreInfo = VkSemaphoreCreateInfo.calloc(stack)
                     .sType(VK_STRUCTURE_TYPE_SEMAPHORE_CREATE_INFO);
@@ -406,7 +806,7 @@ public class VulkanManager {
             LongBuffer pImageAvailableSemaphore = stack.mallocLong(1);
             LongBuffer pRenderFinishedSemaphore = stack.mallocLong(1);
             LongBuffer pFence = stack.mallocLong(1);
-            for (int i = 0; i < MAX_FRAMES_IN_FLIGHT; i++) {
+            for (int i = 0; i < VulkanSetup.framesInFlight; i++) {
                 if (vkCreateSemaphore(VulkanSetup.logicalDevice.device, semaphoreInfo,
                         null, pImageAvailableSemaphore) != VK_SUCCESS
                         || vkCreateSemaphore(VulkanSetup.logicalDevice.device, semaphoreInfo,
@@ -420,7 +820,8 @@ public class VulkanManager {
     }
 
     /**
-     * Command buffers for Vulkan rendering
+     * Command buffers for Vulkan rendering. The draw commands of the scene are recorded
+     * into secondary command buffers that are kept while the scene does not change
      *
      * @since 0.0.1
      */
@@ -428,8 +829,15 @@ public class VulkanManager {
 
         final long commandPool;
         List<VkCommandBuffer> commandBuffers;
+        List<VkCommandBuffer> sceneBuffers;
         final ArrayList<Item> items;
         final ArrayList<Text> texts;
+        private final Renderable[][] recordedScenes; // renderables recorded into each scene buffer
+        private final long[] recordedVersions; // latest draw commands version recorded into each scene buffer
+        private long commandsRecorded;
+        private final List<InstancedBatch> batches = new ArrayList<>();
+        private Renderable[] batchedScene; // renderables the batches were built for
+        private long batchedVersion;
 
         /**
          * 
@@ -443,20 +851,47 @@ public class VulkanManager {
             this.items = items;
             this.texts = texts;
             commandPool = VulkanSetup.createCommandPool();
-            createCommandBuffers();
+            commandBuffers = createCommandBuffers(VK_COMMAND_BUFFER_LEVEL_PRIMARY);
+            sceneBuffers = createCommandBuffers(VK_COMMAND_BUFFER_LEVEL_SECONDARY);
+            recordedScenes = new Renderable[VulkanSetup.framesInFlight][];
+            recordedVersions = new long[VulkanSetup.framesInFlight];
         }
 
         /** destroy command pool and buffers */
         void destroy() {
+            destroyBatches();
+            vkFreeCommandBuffers(VulkanSetup.logicalDevice.device, commandPool, commandsPointerBuffer(sceneBuffers));
             vkFreeCommandBuffers(VulkanSetup.logicalDevice.device, commandPool, commandsPointerBuffer(commandBuffers));
             VulkanSetup.destroyCommandPool(commandPool);
         }
 
-        /** do a render pass */
-        void renderPass(int image) {
+        /** force the scene to be recorded again, for instance, after the swap chain is recreated */
+        void invalidate() {
+            Arrays.fill(recordedScenes, null);
+            batchedScene = null;
+        }
+
+        /** number of times the scene has been recorded */
+        long commandsRecorded() {
+            return commandsRecorded;
+        }
+
+        /** record the render pass of an in-flight frame into its command buffer */
+        void renderPass(int frame, int image) {
+            for (int i = 0; i < items.size(); i++) items.get(i).applyUpdates();
+            for (int i = 0; i < texts.size(); i++) texts.get(i).applyUpdates();
+            if (sceneChanged(frame)) {
+                if (!matches(batchedScene, batchedVersion)) buildBatches();
+                recordScene(frame);
+            }
+            for (int i = 0; i < items.size(); i++)
+                if (items.get(i).batch == null) items.get(i).prepare(frame);
+            for (int i = 0; i < batches.size(); i++) batches.get(i).prepare(frame);
+            for (int i = 0; i < texts.size(); i++) texts.get(i).prepare(frame);
             try (MemoryStack stack = stackPush()) {
                 VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc(stack)
-                        .sType(VK_STRUCTURE_TYPE_COMMAND_BUFFER_BEGIN_INFO);
+                        .sType(VK_STRUCTURE_TYPE_COMMAND_BUFFER_BEGIN_INFO)
+                        .flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
                 VkRenderPassBeginInfo renderPassInfo = VkRenderPassBeginInfo.calloc(stack)
                         .sType(VK_STRUCTURE_TYPE_RENDER_PASS_BEGIN_INFO)
                         .renderPass(VulkanSetup.swapChain.renderPass);
@@ -467,17 +902,14 @@ public class VulkanManager {
                 clearValues.get(0).color().float32(stack.floats(0.0f, 0.0f, 0.0f, 1.0f));
                 clearValues.get(1).depthStencil().set(1.0f, 0);
                 renderPassInfo.pClearValues(clearValues);
-                VkCommandBuffer commandBuffer = commandBuffers.get(image);
+                VkCommandBuffer commandBuffer = commandBuffers.get(frame);
                 int result = vkBeginCommandBuffer(commandBuffer, beginInfo);
                 if (result != VK_SUCCESS)
                     throw new AssertionError("Failed to begin recording command buffers: " +
                             VulkanSetup.translateVulkanResult(result));
                 renderPassInfo.framebuffer(VulkanSetup.swapChain.frameBuffers.get(image));
-                vkCmdBeginRenderPass(commandBuffer, renderPassInfo, VK_SUBPASS_CONTENTS_INLINE);
-                {
-                    for (Item item : items) item.render(stack, commandBuffer, image);
-                    for (Text text : texts) text.render(stack, commandBuffer, image);
-                }
+                vkCmdBeginRenderPass(commandBuffer, renderPassInfo, VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS);
+                vkCmdExecuteCommands(commandBuffer, stack.pointers(sceneBuffers.get(frame)));
                 vkCmdEndRenderPass(commandBuffer);
                 result = vkEndCommandBuffer(commandBuffer);
                 if (result != VK_SUCCESS)
@@ -485,26 +917,114 @@ public class VulkanManager {
             }
         }
 
-        /** create command buffers for each command pool */
-        private void createCommandBuffers() {
-            int size = VulkanSetup.swapChain.frameBuffers.size();
-            commandBuffers = new ArrayList<>(size);
+        /** whether renderables were added, removed, shown, hidden, or swapped since the scene buffer was recorded */
+        private boolean sceneChanged(int frame) {
+            return !matches(recordedScenes[frame], recordedVersions[frame]);
+        }
+
+        /** whether a snapshot of the scene still holds the same renderables, none of them changed after version */
+        private boolean matches(Renderable[] recorded, long version) {
+            if (recorded == null || recorded.length != items.size() + texts.size()) return false;
+            int n = 0;
+            for (int i = 0; i < items.size(); i++)
+                if (recorded[n++] != items.get(i) || items.get(i).commandsVersion > version) return false;
+            for (int i = 0; i < texts.size(); i++)
+                if (recorded[n++] != texts.get(i) || texts.get(i).commandsVersion > version) return false;
+            return true;
+        }
+
+        /** take a snapshot of the renderables in the scene */
+        private Renderable[] snapshot() {
+            Renderable[] recorded = new Renderable[items.size() + texts.size()];
+            int n = 0;
+            for (Item item : items) recorded[n++] = item;
+            for (Text text : texts) recorded[n++] = text;
+            return recorded;
+        }
+
+        /** latest draw commands version among the renderables of a snapshot */
+        private static long latestVersion(Renderable[] recorded) {
+            long version = 0;
+            for (Renderable renderable : recorded) version = Math.max(version, renderable.commandsVersion);
+            return version;
+        }
+
+        /** group showing items that share vertex buffers and image into instanced batches, whatever their colors */
+        private void buildBatches() {
+            destroyBatches();
+            batchedScene = snapshot();
+            batchedVersion = latestVersion(batchedScene);
+            if (!VulkanSetup.instancing) return;
+            Map<BatchKey, List<Item>> groups = new LinkedHashMap<>();
+            for (Item item : items)
+                if (item.showing())
+                    groups.computeIfAbsent(new BatchKey(item.geometry, item.image), key -> new ArrayList<>()).add(item);
+            for (List<Item> group : groups.values())
+                if (group.size() >= MIN_BATCH_SIZE) batches.add(new InstancedBatch(group));
+        }
+
+        /** release the instanced batches */
+        private void destroyBatches() {
+            batches.forEach(InstancedBatch::destroy);
+            batches.clear();
+        }
+
+        /** record the draw commands of the scene into the secondary command buffer of an in-flight frame */
+        private void recordScene(int frame) {
+            Renderable[] recorded = snapshot();
+            long version = latestVersion(recorded);
+            VulkanSetup.drawCalls = 0;
+            try (MemoryStack stack = stackPush()) {
+                VkCommandBufferInheritanceInfo inheritanceInfo = VkCommandBufferInheritanceInfo.calloc(stack)
+                        .sType(VK_STRUCTURE_TYPE_COMMAND_BUFFER_INHERITANCE_INFO)
+                        .renderPass(VulkanSetup.swapChain.renderPass)
+                        .subpass(0)
+                        .framebuffer(VK_NULL_HANDLE);
+                VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc(stack)
+                        .sType(VK_STRUCTURE_TYPE_COMMAND_BUFFER_BEGIN_INFO)
+                        .flags(VK_COMMAND_BUFFER_USAGE_RENDER_PASS_CONTINUE_BIT)
+                        .pInheritanceInfo(inheritanceInfo);
+                VkCommandBuffer commandBuffer = sceneBuffers.get(frame);
+                int result = vkBeginCommandBuffer(commandBuffer, beginInfo);
+                if (result != VK_SUCCESS)
+                    throw new AssertionError("Failed to begin recording command buffers: " +
+                            VulkanSetup.translateVulkanResult(result));
+                for (Item item : items) {
+                    if (item.batch == null) item.render(stack, commandBuffer, frame);
+                    else if (item.batch.members[0] == item) item.batch.render(stack, commandBuffer, frame);
+                }
+                for (Text text : texts) text.render(stack, commandBuffer, frame);
+                result = vkEndCommandBuffer(commandBuffer);
+                if (result != VK_SUCCESS)
+                    throw new AssertionError("Failed to record command buffer: " + VulkanSetup.translateVulkanResult(result));
+            }
+            recordedScenes[frame] = recorded;
+            recordedVersions[frame] = version;
+            commandsRecorded++;
+        }
+
+        /** create one command buffer of a level for each frame in flight */
+        private List<VkCommandBuffer> createCommandBuffers(int level) {
+            int size = VulkanSetup.framesInFlight;
+            List<VkCommandBuffer> buffers = new ArrayList<>(size);
             try (MemoryStack stack = stackPush()) {
                 VkCommandBufferAllocateInfo allocInfo = VkCommandBufferAllocateInfo.calloc(stack)
                         .sType(VK_STRUCTURE_TYPE_COMMAND_BUFFER_ALLOCATE_INFO).commandPool(commandPool)
-                        .level(VK_COMMAND_BUFFER_LEVEL_PRIMARY).commandBufferCount(size);
+                        .level(level).commandBufferCount(size);
                 PointerBuffer pCommandBuffers = stack.mallocPointer(size);
                 int result = vkAllocateCommandBuffers(VulkanSetup.logicalDevice.device, allocInfo, pCommandBuffers);
                 if (result != VK_SUCCESS)
                     throw new AssertionError("Failed to allocate command buffers: " +
                             VulkanSetup.translateVulkanResult(result));
                 for (int i = 0; i < size; i++)
-                    commandBuffers.add(new VkCommandBuffer(pCommandBuffers.get(i), VulkanSetup.logicalDevice.device));
+                    buffers.add(new VkCommandBuffer(pCommandBuffers.get(i), VulkanSetup.logicalDevice.device));
             }
-            for (int image = 0; image < size; image++)
-                renderPass(image);
+            return buffers;
         }
 
+        /** items sharing vertex and index buffers and texture image, identical models and textures share them */
+        private record BatchKey(GeometryCache.Geometry geometry, TextureCache.Image image) {}
+
         /** list to pointer buffer */
         private static PointerBuffer commandsPointerBuffer(List<? extends Pointer> list) {
             MemoryStack stack = stackGet();
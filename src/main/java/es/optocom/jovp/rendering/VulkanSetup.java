@@ -3,6 +3,9 @@ package es.optocom.jovp.rendering;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -11,6 +14,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import static java.util.stream.Collectors.toSet;
 import java.util.stream.IntStream;
@@ -112,6 +116,7 @@ import static org.lwjgl.vulkan.VK10.VK_IMAGE_TILING_OPTIMAL;
 import static org.lwjgl.vulkan.VK10.VK_IMAGE_TYPE_2D;
 import static org.lwjgl.vulkan.VK10.VK_IMAGE_VIEW_TYPE_2D;
 import static org.lwjgl.vulkan.VK10.VK_INCOMPLETE;
+import static org.lwjgl.vulkan.VK10.VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT;
 import static org.lwjgl.vulkan.VK10.VK_NOT_READY;
 import static org.lwjgl.vulkan.VK10.VK_NULL_HANDLE;
 import static org.lwjgl.vulkan.VK10.VK_PHYSICAL_DEVICE_TYPE_CPU;
@@ -125,30 +130,29 @@ import static org.lwjgl.vulkan.VK10.VK_PIPELINE_STAGE_TRANSFER_BIT;
 import static org.lwjgl.vulkan.VK10.VK_QUEUE_FAMILY_IGNORED;
 import static org.lwjgl.vulkan.VK10.VK_QUEUE_GRAPHICS_BIT;
 import static org.lwjgl.vulkan.VK10.VK_SHARING_MODE_EXCLUSIVE;
+import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_BUFFER_CREATE_INFO;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_ALLOCATE_INFO;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_BEGIN_INFO;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_COMMAND_POOL_CREATE_INFO;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_IMAGE_CREATE_INFO;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER;
 import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_IMAGE_VIEW_CREATE_INFO;
-import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_MEMORY_ALLOCATE_INFO;
-import static org.lwjgl.vulkan.VK10.VK_STRUCTURE_TYPE_SUBMIT_INFO;
 import static org.lwjgl.vulkan.VK10.VK_SUCCESS;
 import static org.lwjgl.vulkan.VK10.VK_TIMEOUT;
 import static org.lwjgl.vulkan.VK10.VK_TRUE;
 import static org.lwjgl.vulkan.VK10.vkAllocateCommandBuffers;
-import static org.lwjgl.vulkan.VK10.vkAllocateMemory;
 import static org.lwjgl.vulkan.VK10.vkBeginCommandBuffer;
+import static org.lwjgl.vulkan.VK10.vkBindBufferMemory;
 import static org.lwjgl.vulkan.VK10.vkBindImageMemory;
 import static org.lwjgl.vulkan.VK10.vkCmdPipelineBarrier;
+import static org.lwjgl.vulkan.VK10.vkCreateBuffer;
 import static org.lwjgl.vulkan.VK10.vkCreateCommandPool;
 import static org.lwjgl.vulkan.VK10.vkCreateImage;
 import static org.lwjgl.vulkan.VK10.vkCreateImageView;
 import static org.lwjgl.vulkan.VK10.vkDestroyCommandPool;
-import static org.lwjgl.vulkan.VK10.vkEndCommandBuffer;
 import static org.lwjgl.vulkan.VK10.vkEnumerateDeviceExtensionProperties;
 import static org.lwjgl.vulkan.VK10.vkEnumerateInstanceLayerProperties;
-import static org.lwjgl.vulkan.VK10.vkFreeCommandBuffers;
+import static org.lwjgl.vulkan.VK10.vkGetBufferMemoryRequirements;
 import static org.lwjgl.vulkan.VK10.vkGetImageMemoryRequirements;
 import static org.lwjgl.vulkan.VK10.vkGetInstanceProcAddr;
 import static org.lwjgl.vulkan.VK10.vkGetPhysicalDeviceFeatures;
@@ -156,13 +160,13 @@ import static org.lwjgl.vulkan.VK10.vkGetPhysicalDeviceFormatProperties;
 import static org.lwjgl.vulkan.VK10.vkGetPhysicalDeviceMemoryProperties;
 import static org.lwjgl.vulkan.VK10.vkGetPhysicalDeviceProperties;
 import static org.lwjgl.vulkan.VK10.vkGetPhysicalDeviceQueueFamilyProperties;
-import static org.lwjgl.vulkan.VK10.vkQueueSubmit;
-import static org.lwjgl.vulkan.VK10.vkQueueWaitIdle;
 import static org.lwjgl.vulkan.VK11.VK_ERROR_OUT_OF_POOL_MEMORY;
 import static org.lwjgl.vulkan.VK13.VK_API_VERSION_1_3;
+import org.lwjgl.vulkan.VkBufferCreateInfo;
 import org.lwjgl.vulkan.VkCommandBuffer;
 import org.lwjgl.vulkan.VkCommandBufferAllocateInfo;
 import org.lwjgl.vulkan.VkCommandBufferBeginInfo;
+import org.lwjgl.vulkan.VkComponentMapping;
 import org.lwjgl.vulkan.VkCommandPoolCreateInfo;
 import org.lwjgl.vulkan.VkDebugUtilsMessengerCallbackDataEXT;
 import org.lwjgl.vulkan.VkDebugUtilsMessengerCreateInfoEXT;
@@ -174,7 +178,6 @@ import org.lwjgl.vulkan.VkImageMemoryBarrier;
 import org.lwjgl.vulkan.VkImageViewCreateInfo;
 import org.lwjgl.vulkan.VkInstance;
 import org.lwjgl.vulkan.VkLayerProperties;
-import org.lwjgl.vulkan.VkMemoryAllocateInfo;
 import org.lwjgl.vulkan.VkMemoryRequirements;
 import org.lwjgl.vulkan.VkPhysicalDevice;
 import org.lwjgl.vulkan.VkPhysicalDeviceFeatures;
@@ -182,7 +185,6 @@ import org.lwjgl.vulkan.VkPhysicalDeviceLimits;
 import org.lwjgl.vulkan.VkPhysicalDeviceMemoryProperties;
 import org.lwjgl.vulkan.VkPhysicalDeviceProperties;
 import org.lwjgl.vulkan.VkQueueFamilyProperties;
-import org.lwjgl.vulkan.VkSubmitInfo;
 import org.lwjgl.vulkan.VkSurfaceCapabilitiesKHR;
 import org.lwjgl.vulkan.VkSurfaceFormatKHR;
 
@@ -214,8 +216,28 @@ class VulkanSetup {
     static VkPhysicalDevice physicalDevice;
     static LogicalDevice logicalDevice;
     static SwapChain swapChain;
+    static Pipelines pipelines;
     static long commandPool = 0;
+    static MemoryAllocator memoryAllocator;
+    static UniformArena uniformArena;
+    static PipelineCache pipelineCache;
     static Observer observer;
+    // Frames in flight
+    static int framesInFlight = 2; // frames the CPU may record ahead of the GPU
+    static long frameCount = 0; // frames submitted so far
+    static final ArrayDeque<Retired> RETIRED = new ArrayDeque<>();
+    // Uniform dirty tracking
+    private static final AtomicLong VERSIONS = new AtomicLong(); // single clock for all version stamps
+    static int uniformsWritten = 0; // uniform blocks rewritten in the last recorded frame
+    static int uniformsSkipped = 0; // uniform blocks left untouched in the last recorded frame
+    // Instancing
+    static boolean instancing = false; // whether items sharing model and texture are drawn instanced
+    static int drawCalls = 0; // draw calls in the last recorded scene
+    static int pipelineBuilds = 0; // times the pipelines were built since the engine started
+    static int uploadSubmits = 0; // upload batches submitted since the engine started
+    static int textureUpdates = 0; // textures uploaded into the image they replace since the engine started
+
+    static Path cacheDirectory = Paths.get(System.getProperty("user.home"), ".jovp", "cache"); // compiled shaders and pipelines
 
     /** clean after use */
     static void cleanup() {
@@ -228,7 +250,15 @@ class VulkanSetup {
         physicalDevice = null;
         logicalDevice = null;
         swapChain = null;
+        pipelines = null;
+        memoryAllocator = null;
+        uniformArena = null;
+        pipelineCache = null;
         observer = null;
+        frameCount = 0;
+        pipelineBuilds = 0;
+        uploadSubmits = 0;
+        textureUpdates = 0;
     }
 
     /** result translator */
@@ -603,13 +633,14 @@ class VulkanSetup {
 
     /** find memory type */
     static int findMemoryType(int typeFilter, int properties) {
-        VkPhysicalDeviceMemoryProperties memProperties = VkPhysicalDeviceMemoryProperties.malloc();
-        vkGetPhysicalDeviceMemoryProperties(physicalDevice, memProperties);
-        for (int i = 0; i < memProperties.memoryTypeCount(); i++) {
-            if ((typeFilter & (1 << i)) != 0 && (memProperties.memoryTypes(i).propertyFlags() & properties) == properties)
-                return i;
+        try (MemoryStack stack = stackPush()) {
+            VkPhysicalDeviceMemoryProperties memProperties = VkPhysicalDeviceMemoryProperties.malloc(stack);
+            vkGetPhysicalDeviceMemoryProperties(physicalDevice, memProperties);
+            for (int i = 0; i < memProperties.memoryTypeCount(); i++) {
+                if ((typeFilter & (1 << i)) != 0 && (memProperties.memoryTypes(i).propertyFlags() & properties) == properties)
+                    return i;
+            }
         }
-        memProperties.free();
         throw new RuntimeException("Failed to find suitable memory type");
     }
 
@@ -665,7 +696,7 @@ class VulkanSetup {
     }
 
     /** Create image */
-    static void createImage(int width, int height, int mipLevels, int numSamples, int format, int usage, LongBuffer pTextureImage, LongBuffer pTextureImageMemory) {
+    static MemoryAllocator.Allocation createImage(int width, int height, int mipLevels, int numSamples, int format, int usage, LongBuffer pTextureImage) {
         try (MemoryStack stack = stackPush()) {
             VkImageCreateInfo imageInfo = VkImageCreateInfo.calloc(stack)
                     .sType(VK_STRUCTURE_TYPE_IMAGE_CREATE_INFO)
@@ -686,25 +717,45 @@ class VulkanSetup {
                 throw new RuntimeException("Failed to create image: " + translateVulkanResult(result));
             VkMemoryRequirements memRequirements = VkMemoryRequirements.malloc(stack);
             vkGetImageMemoryRequirements(logicalDevice.device, pTextureImage.get(0), memRequirements);
-            VkMemoryAllocateInfo allocInfo = VkMemoryAllocateInfo.calloc(stack);
-            allocInfo.sType(VK_STRUCTURE_TYPE_MEMORY_ALLOCATE_INFO)
-                    .allocationSize(memRequirements.size())
-                    .memoryTypeIndex(findMemoryType(memRequirements.memoryTypeBits(), VK_IMAGE_TILING_OPTIMAL));
-            result = vkAllocateMemory(logicalDevice.device, allocInfo, null, pTextureImageMemory);
+            MemoryAllocator.Allocation allocation = memoryAllocator.allocate(memRequirements, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, true);
+            vkBindImageMemory(logicalDevice.device, pTextureImage.get(0), allocation.memory(), allocation.offset);
+            return allocation;
+        }
+    }
+
+    /** create buffer */
+    static MemoryAllocator.Allocation createBuffer(long size, int usage, int properties, LongBuffer pBuffer) {
+        try (MemoryStack stack = stackPush()) {
+            VkBufferCreateInfo bufferInfo = VkBufferCreateInfo.calloc(stack);
+            bufferInfo.sType(VK_STRUCTURE_TYPE_BUFFER_CREATE_INFO)
+                    .size(size)
+                    .usage(usage)
+                    .sharingMode(VK_SHARING_MODE_EXCLUSIVE);
+            int result = vkCreateBuffer(logicalDevice.device, bufferInfo, null, pBuffer);
             if (result != VK_SUCCESS)
-                throw new RuntimeException("Failed to allocate image memory: " + translateVulkanResult(result));
-            vkBindImageMemory(logicalDevice.device, pTextureImage.get(0), pTextureImageMemory.get(0), 0);
+                throw new RuntimeException("Failed to create buffer: " + translateVulkanResult(result));
+            VkMemoryRequirements memRequirements = VkMemoryRequirements.calloc(stack);
+            vkGetBufferMemoryRequirements(logicalDevice.device, pBuffer.get(0), memRequirements);
+            MemoryAllocator.Allocation allocation = memoryAllocator.allocate(memRequirements, properties, false);
+            vkBindBufferMemory(logicalDevice.device, pBuffer.get(0), allocation.memory(), allocation.offset);
+            return allocation;
         }
     }
 
     /** Create image view */
     static long createImageView(VkDevice device, long image, int format, int aspectFlags, int mipLevels) {
+        return createImageView(device, image, format, aspectFlags, mipLevels, null);
+    }
+
+    /** Create image view with its components swizzled, identity if components is null */
+    static long createImageView(VkDevice device, long image, int format, int aspectFlags, int mipLevels, VkComponentMapping components) {
         try (MemoryStack stack = stackPush()) {
             VkImageViewCreateInfo viewInfo = VkImageViewCreateInfo.calloc(stack)
                     .sType(VK_STRUCTURE_TYPE_IMAGE_VIEW_CREATE_INFO)
                     .image(image)
                     .viewType(VK_IMAGE_VIEW_TYPE_2D)
                     .format(format);
+            if (components != null) viewInfo.components(components);
             viewInfo.subresourceRange().aspectMask(aspectFlags)
                     .baseMipLevel(0)
                     .levelCount(mipLevels)
@@ -718,8 +769,8 @@ class VulkanSetup {
         }
     }
 
-    /** transition image layout */
-    static void transitionImageLayout(long commandPool, long image, int format, int newLayout, int mipLevels) {
+    /** record an image layout transition */
+    static void transitionImageLayout(VkCommandBuffer commandBuffer, long image, int format, int newLayout, int mipLevels) {
         try (MemoryStack stack = stackPush()) {
             VkImageMemoryBarrier.Buffer barrier = VkImageMemoryBarrier.calloc(1, stack)
                     .sType(VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER)
@@ -763,10 +814,8 @@ class VulkanSetup {
                 }
                 default -> throw new IllegalArgumentException("Unsupported layout transition");
             }
-            VkCommandBuffer commandBuffer = beginCommand(commandPool);
             vkCmdPipelineBarrier(commandBuffer, sourceStage, destinationStage,
                     0, null, null, barrier);
-            endCommand(commandPool, commandBuffer);
         }
     }
 
@@ -826,19 +875,41 @@ class VulkanSetup {
         }
     }
 
-    /** end GPU command */
-    static void endCommand(long commandPool, VkCommandBuffer commandBuffer) {
-        try (MemoryStack stack = stackPush()) {
-            vkEndCommandBuffer(commandBuffer);
-            VkSubmitInfo.Buffer submitInfo = VkSubmitInfo.calloc(1, stack);
-            submitInfo.sType(VK_STRUCTURE_TYPE_SUBMIT_INFO)
-                    .pCommandBuffers(stack.pointers(commandBuffer));
-            vkQueueSubmit(logicalDevice.graphicsQueue, submitInfo, VK_NULL_HANDLE);
-            vkQueueWaitIdle(logicalDevice.graphicsQueue);
-            vkFreeCommandBuffers(logicalDevice.device, commandPool, commandBuffer);
-        }
+    /**
+     *
+     * Get a new version stamp. All stamps come from the same clock, so the latest
+     * change among several inputs is the maximum of their versions
+     *
+     * @return The version stamp
+     *
+     * @since 0.0.1
+     */
+    static long nextVersion() {
+        return VERSIONS.incrementAndGet();
+    }
+
+    /** destroy a resource once no frame in flight can be using it anymore */
+    static void retire(Runnable destroy) {
+        if (frameCount == 0) {
+            if (logicalDevice != null) Uploads.finish(); // uploads recorded before the first frame may still use it
+            destroy.run();
+        } else RETIRED.add(new Retired(frameCount, destroy));
     }
 
+    /** release resources retired before the completed frame was submitted */
+    static void releaseRetired(long completedFrame) {
+        while (!RETIRED.isEmpty() && RETIRED.peek().frame() <= completedFrame + 1)
+            RETIRED.poll().destroy().run();
+    }
+
+    /** release all retired resources, the device must be idle */
+    static void releaseRetired() {
+        while (!RETIRED.isEmpty()) RETIRED.poll().destroy().run();
+    }
+
+    /** resource waiting for the frames submitted before it was retired */
+    record Retired(long frame, Runnable destroy) {}
+
     /** handle queue family indices */
     static class QueueFamilyIndices {
 
@@ -0,0 +1,69 @@
+#version 450
+
+struct Instance {
+    ivec4 settings;
+    mat4 model;
+    vec4 rgba0;
+    vec4 rgba1;
+    vec4 frequency;
+    vec4 rotation;
+    vec4 contrast;
+    vec4 envelope;
+    vec4 defocus;
+};
+
+layout(binding = 0) uniform EYE {
+    mat4 view;
+    mat4 projection;
+    vec4 centers; // lens center and screen center
+    vec4 coefficients; // distortion coefficients
+} eye;
+
+layout(std430, binding = 2) readonly buffer INSTANCES {
+    Instance instances[];
+};
+
+layout(location = 0) in vec3 position;
+layout(location = 1) in vec2 uv;
+
+layout(location = 0) out vec2 uv_out;
+layout(location = 1) out flat ivec3 settings;
+layout(location = 2) out flat vec4 centers;
+layout(location = 3) out flat vec4 coefficients;
+layout(location = 4) out flat vec4 rgba0;
+layout(location = 5) out flat vec4 rgba1;
+layout(location = 6) out flat vec4 contrast;
+layout(location = 7) out flat vec3 envelope;
+layout(location = 8) out flat vec3 defocus;
+layout(location = 9) out flat vec2 uvmax;
+
+// Functions on texture: spatial frequency
+vec2 spatial(vec2 uv, vec4 frequency) {
+    return(frequency.xy + frequency.zw * uv);
+}
+
+// Functions on texture: rotate
+vec2 rotate(vec2 uv, vec4 rotation) {
+    if (rotation.z == 0) return(uv);
+    float s = sin(rotation.z);
+    float c = cos(rotation.z);
+    uv -= rotation.xy;
+    uv = vec2(uv.x * c - uv.y * s, uv.x * s + uv.y * c);
+    uv += rotation.xy;
+    return uv;
+}
+
+void main() {
+    Instance instance = instances[gl_InstanceIndex];
+    gl_Position = eye.projection * eye.view * instance.model * vec4(position, 1.0);
+    uv_out = rotate(spatial(uv, instance.frequency), instance.rotation);
+    uvmax = instance.frequency.xy + instance.frequency.zw;
+    settings = instance.settings.xyz;
+    centers = eye.centers;
+    coefficients = eye.coefficients;
+    rgba0 = instance.rgba0;
+    rgba1 = instance.rgba1;
+    contrast = instance.contrast;
+    envelope = instance.envelope.xyz;
+    defocus = instance.defocus.xyz;
+}
@@ -10,5 +10,8 @@ layout(location = 3) in flat vec4 rgba;
 layout(location = 0) out vec4 color;
 
 void main() {
-    color = rgba * texture(texSampler, uv);
+    // signed distance field, the outline is at 0.5
+    float distance = texture(texSampler, uv).r;
+    float smoothing = max(fwidth(distance), 1e-4);
+    color = rgba * smoothstep(0.5 - smoothing, 0.5 + smoothing, distance);
 }
\ No newline at end of file
@@ -2,24 +2,46 @@ package es.optocom.jovp;
 
 import org.joml.Vector3f;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.io.TempDir;
 
 import es.optocom.jovp.definitions.Command;
 import es.optocom.jovp.definitions.ViewEye;
 import es.optocom.jovp.definitions.InputType;
+import es.optocom.jovp.definitions.MipmapFilter;
 import es.optocom.jovp.definitions.ModelType;
+import es.optocom.jovp.definitions.Optotype;
 import es.optocom.jovp.definitions.Paradigm;
 import es.optocom.jovp.definitions.Projection;
 import es.optocom.jovp.definitions.Units;
+import es.optocom.jovp.definitions.TextureFormat;
 import es.optocom.jovp.definitions.TextureType;
 import es.optocom.jovp.definitions.ViewMode;
 import es.optocom.jovp.rendering.Item;
 import es.optocom.jovp.rendering.Model;
 import es.optocom.jovp.rendering.Text;
 import es.optocom.jovp.rendering.Texture;
+import es.optocom.jovp.rendering.TextureContainer;
+import es.optocom.jovp.rendering.TextureLoader;
+import es.optocom.jovp.rendering.VulkanManager;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * 
@@ -74,6 +96,433 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
         psychoEngine.cleanup();
     }
 
+    /**
+     * 
+     * Frames in flight let the CPU record a frame while the GPU still executes the previous one.
+     * Runs on the lavapipe software driver, where GPU execution is slow enough to be observed:
+     * VK_ICD_FILENAMES=/usr/share/vulkan/icd.d/lvp_icd.x86_64.json
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void framesInFlightOverlap() {
+        Timer timer = new Timer();
+        run(new LogicOverlap(timer), timer, 3000, vulkanManager -> vulkanManager.setFramesInFlight(3), vulkanManager -> {
+            long frames = vulkanManager.getFrameCount();
+            long overlapped = vulkanManager.getOverlappedFrames();
+            System.out.println(overlapped + " out of " + frames + " frames were recorded while the GPU was busy");
+            assertTrue(frames > 0);
+            assertTrue(overlapped > 0, "CPU recording never overlapped GPU execution");
+        });
+    }
+
+    /**
+     * 
+     * Static items keep their uniforms from one frame to the next
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void staticItemsSkipUniforms() {
+        Timer timer = new Timer();
+        run(new LogicStatic(timer), timer, 2000, vulkanManager -> {
+            int written = vulkanManager.getUniformsWritten();
+            int skipped = vulkanManager.getUniformsSkipped();
+            System.out.println(written + " uniform blocks written and " + skipped + " skipped in the last frame");
+            assertTrue(skipped > 0);
+            assertTrue(written < skipped, "Uniforms of static items were rewritten");
+        });
+    }
+
+    /**
+     * 
+     * Draw commands are not recorded again when only uniforms change
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void staticSceneKeepsCommands() {
+        Timer timer = new Timer();
+        run(new LogicStatic(timer), timer, 2000, vulkanManager -> {
+            long frames = vulkanManager.getFrameCount();
+            long recorded = vulkanManager.getCommandsRecorded();
+            System.out.println("Draw commands recorded " + recorded + " times in " + frames + " frames");
+            assertTrue(recorded > 0);
+            assertTrue(recorded < frames, "Draw commands were recorded every frame");
+        });
+    }
+
+    /**
+     * 
+     * Items with identical models share their vertex and index buffers
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void identicalModelsShareGeometry() {
+        Timer timer = new Timer();
+        run(new LogicStatic(timer), timer, 0, vulkanManager ->
+                assertEquals(2, vulkanManager.getCachedGeometries(), "50 circles and a square should use 2 geometries"));
+    }
+
+    /**
+     * 
+     * Items with identical textures share their image, whatever their colors
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void identicalTexturesShareImage() {
+        Timer timer = new Timer();
+        run(new LogicStatic(timer), timer, 0, vulkanManager ->
+                assertEquals(2, vulkanManager.getCachedTextures(), "50 flat textures and a sine should use 2 images"));
+    }
+
+    /**
+     * 
+     * Text objects with the same font share one atlas and one image at every size
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void textsShareFontAtlas() {
+        PsychoEngine psychoEngine = new PsychoEngine(new LogicTexts());
+        VulkanManager vulkanManager = psychoEngine.getVulkanManager();
+        psychoEngine.start("mouse", Paradigm.CLICKER);
+        assertEquals(1, vulkanManager.getFontAtlases(), "Texts with the same font and different sizes packed their own atlas");
+        assertEquals(1, vulkanManager.getCachedTextures(), "Texts with the same font uploaded their own atlas");
+        psychoEngine.cleanup();
+        assertEquals(0, vulkanManager.getFontAtlases(), "Font atlas not released with the last text");
+    }
+
+    /**
+     * 
+     * Changing a text every frame rewrites its glyphs in place without uploads
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void textChangesWithoutUploads() {
+        LogicCountdown logic = new LogicCountdown();
+        PsychoEngine psychoEngine = new PsychoEngine(logic);
+        psychoEngine.start("mouse", Paradigm.CLICKER);
+        assertEquals(logic.uploads, psychoEngine.getVulkanManager().getUploadSubmits(), "Changing the text uploaded its glyphs");
+        psychoEngine.cleanup();
+    }
+
+    /**
+     * 
+     * Texts created while the engine runs get a glyph buffer that holds their text
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void textCreatedWhileRunning() {
+        LogicLateText logic = new LogicLateText();
+        PsychoEngine psychoEngine = new PsychoEngine(logic);
+        psychoEngine.start("mouse", Paradigm.CLICKER);
+        assertEquals(10, logic.texts, "The frame loop stopped before all texts were added");
+        psychoEngine.cleanup();
+    }
+
+    /**
+     * 
+     * The pipeline cache is written on cleanup and seeds the next run
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void pipelineCacheAcrossRuns(@TempDir Path cacheDirectory) throws IOException {
+        double[] cold = timeToFirstFrame(cacheDirectory);
+        Path file = cacheDirectory.resolve("pipelines.bin");
+        assertTrue(Files.isRegularFile(file), "Pipeline cache was not written");
+        long saved = Files.size(file);
+        double[] warm = timeToFirstFrame(cacheDirectory);
+        System.out.println("Time to first frame: " + String.format("%.1f", cold[0]) + " ms cold, " + String.format("%.1f", warm[0]) + " ms warm");
+        assertEquals(0, cold[1], "Pipelines of the first run were seeded");
+        assertEquals(saved, warm[1], "Pipelines of the second run were not seeded with the saved cache");
+    }
+
+    /**
+     * 
+     * Building a view with 51 items uploads all their resources in one submit
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void viewUploadsInOneSubmit() {
+        Timer timer = new Timer();
+        run(new LogicStatic(timer), timer, 0, vulkanManager -> assertEquals(1, vulkanManager.getUploadSubmits(), "Uploads were not batched"));
+    }
+
+    /**
+     * 
+     * Buffers and images of many items are sub-allocated from a few device memory blocks
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void memorySubAllocated() {
+        Timer timer = new Timer();
+        run(new LogicStatic(timer), timer, 0, vulkanManager -> {
+            System.out.println(vulkanManager.getMemoryAllocations() + " allocations in " + vulkanManager.getMemoryBlocks() + " blocks, "
+                    + vulkanManager.getMemoryUsed() + " of " + vulkanManager.getMemoryAllocated() + " bytes used, fragmentation "
+                    + String.format("%.2f", vulkanManager.getMemoryFragmentation()));
+            assertTrue(vulkanManager.getMemoryBlocks() < vulkanManager.getMemoryAllocations(), "Allocations were not sub-allocated");
+            assertTrue(vulkanManager.getMemoryUsed() <= vulkanManager.getMemoryAllocated());
+        });
+    }
+
+    /**
+     * 
+     * Swapping textures of the same size uploads them into the existing image
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void textureUpdatedInPlace() {
+        PsychoEngine psychoEngine = new PsychoEngine(new LogicTextures());
+        VulkanManager vulkanManager = psychoEngine.getVulkanManager();
+        psychoEngine.start("mouse", Paradigm.CLICKER);
+        assertEquals(10, vulkanManager.getTextureUpdates(), "Textures of the same size recreated the image");
+        psychoEngine.cleanup();
+    }
+
+    /**
+     * 
+     * Text atlases are stored with one byte per texel
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void textAtlasCompact() {
+        PsychoEngine psychoEngine = new PsychoEngine(new LogicText());
+        VulkanManager vulkanManager = psychoEngine.getVulkanManager();
+        psychoEngine.start("mouse", Paradigm.CLICKER);
+        Map<TextureFormat, Long> memory = vulkanManager.getTextureMemory();
+        System.out.println("Texture memory: " + memory);
+        assertTrue(memory.get(TextureFormat.R8) < 2 << 20, "Text atlas takes more than 2 MB");
+        psychoEngine.cleanup();
+    }
+
+    /**
+     * 
+     * Textures of the same procedural type share their pixels, which callers
+     * cannot modify, and destroyed textures have no pixels
+     *
+     * @since 0.0.1
+     */
+    @Test
+    public void proceduralPixelsShared() {
+        Texture texture = new Texture(TextureType.SINE);
+        float[] pixels = texture.getPixels();
+        float first = pixels[0];
+        pixels[0] = first + 1;
+        assertEquals(first, texture.getPixels()[0]);
+        assertEquals(first, new Texture(TextureType.SINE).getPixels()[0]);
+        texture.destroy();
+        assertNull(texture.getPixels());
+    }
+
+    /**
+     * 
+     * Items and texts removed before the engine starts have no device objects
+     * to destroy
+     *
+     * @since 0.0.1
+     */
+    @Test
+    public void destroyBeforeStart() {
+        Item item = new Item(new Model(ModelType.SQUARE), new Texture(TextureType.SINE));
+        Text text = new Text();
+        text.setText("Not shown");
+        item.destroy();
+        text.destroy();
+    }
+
+    /**
+     * 
+     * Image texels are kept in the layout of the texture format, and converted
+     * to values per channel only on request
+     *
+     * @since 0.0.1
+     */
+    @Test
+    public void imageTexelsInFormat() {
+        Texture compact = new Texture("ecceIvanito.jpeg");
+        Texture full = new Texture("ecceIvanito.jpeg", TextureFormat.RGBA32F);
+        assertEquals(TextureFormat.RGBA8, compact.getFormat());
+        assertEquals(4 * compact.getSize(), full.getSize());
+        float[] compactPixels = compact.getPixels();
+        float[] fullPixels = full.getPixels();
+        assertEquals(compact.getSize(), compactPixels.length);
+        for (int i = 0; i < fullPixels.length; i++)
+            assertEquals(fullPixels[i], compactPixels[i], 1e-6);
+    }
+
+    /**
+     * 
+     * Flat models are drawn from both sides without a second copy of their
+     * indices, and with 16-bit indices when they have few enough vertices
+     *
+     * @since 0.0.1
+     */
+    @Test
+    public void flatModelsOptimized() {
+        Model circle = new Model(ModelType.CIRCLE);
+        // 500 triangles that were uploaded twice with 32-bit indices, now once with 16-bit indices
+        assertEquals(3 * 500 * (2 * Integer.BYTES - Short.BYTES), circle.getBytesSaved());
+        // crosses were culled and never doubled, their 12 indices only become 16-bit
+        assertEquals(12 * (Integer.BYTES - Short.BYTES), new Model(ModelType.CROSS).getBytesSaved());
+    }
+
+    /**
+     * 
+     * Every optotype is read from the mesh cache, parsed once for all of them
+     *
+     * @since 0.0.1
+     */
+    @Test
+    public void optotypesFromMeshCache() {
+        for (Optotype optotype : Optotype.values()) {
+            Model model = new Model(optotype);
+            assertTrue(model.getBytesSaved() > 0, "Optotype " + optotype + " was not optimized");
+            assertEquals(model.getBytesSaved(), new Model(optotype).getBytesSaved());
+        }
+    }
+
+    /**
+     * 
+     * Images decoded in the background, prefetched or not, match the ones
+     * decoded on the calling thread
+     *
+     * @since 0.0.1
+     */
+    @Test
+    public void imagesDecodedInBackground() {
+        Texture texture = new Texture("ecceIvanito.jpeg");
+        TextureLoader.prefetch(List.of("ecceIvanito.jpeg"));
+        CompletableFuture<Texture> prefetched = TextureLoader.load("ecceIvanito.jpeg");
+        CompletableFuture<Texture> loaded = TextureLoader.load("ecceIvanito.jpeg");
+        assertNotSame(prefetched, loaded, "A prefetched image was taken twice");
+        for (Texture decoded : List.of(prefetched.join(), loaded.join())) {
+            assertEquals(texture.getFormat(), decoded.getFormat());
+            assertArrayEquals(texture.getPixels(), decoded.getPixels());
+        }
+    }
+
+    /**
+     * 
+     * An image that fails to load in the background leaves the item with its
+     * current texture and the frame loop running
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void missingImageKeepsTexture() {
+        LogicMissingImage logic = new LogicMissingImage();
+        PsychoEngine psychoEngine = new PsychoEngine(logic);
+        psychoEngine.start("mouse", Paradigm.CLICKER);
+        assertTrue(logic.loading.isCompletedExceptionally(), "A missing image was loaded");
+        assertTrue(logic.frames > 10, "The frame loop stopped");
+        assertEquals(logic.texture, logic.item.getTexture(), "The current texture was replaced");
+        psychoEngine.cleanup();
+    }
+
+    /**
+     * 
+     * Images converted to texture containers keep their format and texels,
+     * and store the whole mip chain
+     *
+     * @since 0.0.1
+     */
+    @Test
+    public void imagesInTextureContainers(@TempDir Path directory) throws IOException {
+        for (TextureFormat format : new TextureFormat[] {null, TextureFormat.R8, TextureFormat.RGBA16F}) {
+            Path container = directory.resolve("ecceIvanito" + format + ".ktx2");
+            TextureContainer.convert("ecceIvanito.jpeg", container, format);
+            Texture image = new Texture("ecceIvanito.jpeg", format);
+            Texture texture = new Texture(container.toString());
+            assertEquals(image.getFormat(), texture.getFormat());
+            assertEquals(image.getMipLevels(), texture.getMipLevels());
+            assertArrayEquals(image.getPixels(), texture.getPixels());
+            assertTrue(Files.size(container) > 5 * image.getSize() / 4, "Mip chain not stored");
+        }
+    }
+
+    /**
+     * 
+     * Mip chains built on the CPU keep the image and change with the filter
+     * and with filtering in linear light
+     *
+     * @since 0.0.1
+     */
+    @Test
+    public void mipmapFilters(@TempDir Path directory) throws IOException {
+        Texture image = new Texture("ecceIvanito.jpeg");
+        Map<String, byte[]> containers = new HashMap<>();
+        for (MipmapFilter filter : MipmapFilter.values())
+            for (boolean gammaCorrect : new boolean[] {false, true}) {
+                Path container = directory.resolve(filter + "" + gammaCorrect + ".ktx2");
+                TextureContainer.convert("ecceIvanito.jpeg", container, null, filter, gammaCorrect);
+                assertArrayEquals(image.getPixels(), new Texture(container.toString()).getPixels());
+                containers.put(filter + "" + gammaCorrect, Files.readAllBytes(container));
+            }
+        byte[] linear = containers.get("LINEARfalse");
+        assertFalse(Arrays.equals(linear, containers.get("LINEARtrue")), "Gamma-correct filtering made no difference");
+        assertFalse(Arrays.equals(linear, containers.get("LANCZOSfalse")), "Lanczos filtering made no difference");
+        assertFalse(Arrays.equals(linear, containers.get("KAISERfalse")), "Kaiser filtering made no difference");
+    }
+
+    /**
+     * 
+     * Switching between monoscopic and stereoscopic views recreates the swap
+     * chain but keeps the pipelines
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void viewModeKeepsPipelines() {
+        PsychoEngine psychoEngine = new PsychoEngine(new LogicViewModes());
+        VulkanManager vulkanManager = psychoEngine.getVulkanManager();
+        psychoEngine.start("mouse", Paradigm.CLICKER);
+        assertEquals(1, vulkanManager.getPipelineBuilds(), "View mode changes rebuilt the pipelines");
+        psychoEngine.cleanup();
+    }
+
+    /**
+     * 
+     * Benchmark 10k separately constructed items with identical models and
+     * textures of different colors, with and without instancing
+     *
+     * @since 0.0.1
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "VK_ICD_FILENAMES", matches = ".*lvp.*")
+    public void instancedManyItems() {
+        double[] direct = manyItems(false);
+        double[] instanced = manyItems(true);
+        System.out.println("Direct: " + (int) direct[0] + " draw calls, " + String.format("%.3f", direct[1]) + " ms per frame");
+        System.out.println("Instanced: " + (int) instanced[0] + " draw calls, " + String.format("%.3f", instanced[1]) + " ms per frame");
+        assertEquals(10000, direct[0]);
+        assertEquals(1, instanced[0], "Items with identical models and textures were not drawn in one batch");
+    }
+
     /**
      * 
      * Render a triangle
@@ -177,6 +626,368 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
         }
     }
 
+    /** Psychophysics logic with enough full-screen stimuli to keep a software GPU busy */
+    static class LogicOverlap implements PsychoLogic {
+
+        /** Logic timer */
+        Timer timer;
+
+        /** Init with timer */
+        LogicOverlap(Timer timer) {
+            this.timer = timer;
+        }
+
+        @Override
+        public void init(PsychoEngine psychoEngine) {
+            for (int i = 0; i < 50; i++) {
+                Item item = new Item(new Model(ModelType.SQUARE), new Texture(TextureType.SINE));
+                item.frequency(0, 0.5 + i);
+                item.size(60, 60);
+                item.depth(100 - i);
+                view.add(item);
+            }
+            timer.start();
+        }
+
+        @Override
+        public void input(PsychoEngine psychoEngine, Command command) {
+        }
+
+        @Override
+        public void update(PsychoEngine psychoEngine) {
+            for (Item item : view.items()) item.texRotation(timer.getElapsedTime() / 10);
+        }
+
+    }
+
+    /** Psychophysics logic with static items and a single moving one */
+    static class LogicStatic implements PsychoLogic {
+
+        /** Logic timer */
+        Timer timer;
+
+        /** Moving item */
+        Item moving;
+
+        /** Init with timer */
+        LogicStatic(Timer timer) {
+            this.timer = timer;
+        }
+
+        @Override
+        public void init(PsychoEngine psychoEngine) {
+            for (int i = 0; i < 50; i++) {
+                Item item = new Item(new Model(ModelType.CIRCLE), new Texture(new double[] { 1, 1, 1, 1 }));
+                item.position(-10 + i % 10 * 2, -5 + i / 10 * 2);
+                item.size(1);
+                view.add(item);
+            }
+            moving = new Item(new Model(ModelType.SQUARE), new Texture(TextureType.SINE));
+            moving.frequency(0, 0.5);
+            moving.size(5, 5);
+            view.add(moving);
+            timer.start();
+        }
+
+        @Override
+        public void input(PsychoEngine psychoEngine, Command command) {
+        }
+
+        @Override
+        public void update(PsychoEngine psychoEngine) {
+            moving.texRotation(timer.getElapsedTime() / 10);
+        }
+
+    }
+
+    /** run a logic until its timer has run for a time and check the engine before cleaning up */
+    private static void run(PsychoLogic logic, Timer timer, long millis, Consumer<VulkanManager> check) {
+        run(logic, timer, millis, vulkanManager -> {}, check);
+    }
+
+    /** set up the engine, run a logic until its timer has run for a time and check the engine before cleaning up */
+    private static void run(PsychoLogic logic, Timer timer, long millis, Consumer<VulkanManager> setup, Consumer<VulkanManager> check) {
+        PsychoEngine psychoEngine = new PsychoEngine(logic);
+        VulkanManager vulkanManager = psychoEngine.getVulkanManager();
+        setup.accept(vulkanManager);
+        new Thread(() -> {
+            while (timer.getElapsedTime() == -1)
+                Thread.onSpinWait(); // wait for the beginning of the psychophysics experience
+            while (timer.getElapsedTime() < millis)
+                Thread.onSpinWait(); // close window after the time
+            psychoEngine.finish();
+        }).start();
+        try {
+            psychoEngine.start("mouse", Paradigm.CLICKER);
+            check.accept(vulkanManager);
+        } finally {
+            psychoEngine.cleanup();
+        }
+    }
+
+    /** run the static scene with a cache directory and return the time to first frame and the pipeline cache seed */
+    private static double[] timeToFirstFrame(Path cacheDirectory) {
+        Timer timer = new Timer();
+        double[] result = new double[2];
+        run(new LogicStatic(timer), timer, 500, vulkanManager -> vulkanManager.setCacheDirectory(cacheDirectory.toString()), vulkanManager -> {
+            result[0] = vulkanManager.getTimeToFirstFrame();
+            result[1] = vulkanManager.getPipelineCacheSeed();
+        });
+        return result;
+    }
+
+    /** run the 10k items scene and return draw calls and mean time per frame */
+    private static double[] manyItems(boolean instancing) {
+        Timer timer = new Timer();
+        LogicMany logic = new LogicMany(timer);
+        double[] result = new double[2];
+        run(logic, timer, 3000, vulkanManager -> vulkanManager.setInstancing(instancing), vulkanManager -> {
+            result[0] = vulkanManager.getDrawCalls();
+            result[1] = logic.frameTime();
+        });
+        return result;
+    }
+
+    /** Psychophysics logic with 10k items, each with its own model and texture of its own color */
+    static class LogicMany implements PsychoLogic {
+
+        /** Logic timer */
+        Timer timer;
+
+        /** Time and number of frames */
+        long start = -1;
+        long last;
+        int frames;
+
+        /** Init with timer */
+        LogicMany(Timer timer) {
+            this.timer = timer;
+        }
+
+        @Override
+        public void init(PsychoEngine psychoEngine) {
+            for (int i = 0; i < 10000; i++) {
+                Item item = new Item(new Model(ModelType.CIRCLE), new Texture(new double[] { 1, i % 100 / 100.0, i / 10000.0, 1 }));
+                item.position(-20 + 0.4 * (i % 100), -20 + 0.4 * (i / 100));
+                item.size(0.3);
+                view.add(item);
+            }
+            timer.start();
+        }
+
+        @Override
+        public void input(PsychoEngine psychoEngine, Command command) {
+        }
+
+        @Override
+        public void update(PsychoEngine psychoEngine) {
+            last = System.nanoTime();
+            if (start == -1) start = last;
+            else frames++;
+        }
+
+        /** mean time per frame in milliseconds */
+        double frameTime() {
+            return frames == 0 ? 0 : (last - start) / 1e6 / frames;
+        }
+
+    }
+
+    /** Psychophysics logic that switches view mode every frame a few times */
+    static class LogicViewModes implements PsychoLogic {
+
+        /** Number of view mode switches */
+        int switches;
+
+        @Override
+        public void init(PsychoEngine psychoEngine) {
+            view.add(new Item(new Model(ModelType.CIRCLE), new Texture(TextureType.SINE)));
+            Text text = new Text();
+            text.setText("View modes");
+            view.add(text);
+        }
+
+        @Override
+        public void input(PsychoEngine psychoEngine, Command command) {
+        }
+
+        @Override
+        public void update(PsychoEngine psychoEngine) {
+            if (switches++ == 10) psychoEngine.finish();
+            else psychoEngine.setViewMode(psychoEngine.getViewMode() == ViewMode.MONO ? ViewMode.STEREO : ViewMode.MONO);
+        }
+
+    }
+
+    /** Psychophysics logic that shows one text for a frame */
+    static class LogicText implements PsychoLogic {
+
+        @Override
+        public void init(PsychoEngine psychoEngine) {
+            Text text = new Text();
+            text.setText("Atlas");
+            view.add(text);
+        }
+
+        @Override
+        public void input(PsychoEngine psychoEngine, Command command) {
+        }
+
+        @Override
+        public void update(PsychoEngine psychoEngine) {
+            psychoEngine.finish();
+        }
+
+    }
+
+    /** Psychophysics logic with several status texts in the same font and different sizes */
+    static class LogicTexts implements PsychoLogic {
+
+        @Override
+        public void init(PsychoEngine psychoEngine) {
+            for (int i = 0; i < 10; i++) {
+                Text text = new Text(new double[] { 1, 1 - i / 10.0, 0, 1 });
+                text.setText("Status " + i);
+                text.setSize(0.02 * (i + 1));
+                text.setPosition(0.1, 0.1 * i);
+                view.add(text);
+            }
+        }
+
+        @Override
+        public void input(PsychoEngine psychoEngine, Command command) {
+        }
+
+        @Override
+        public void update(PsychoEngine psychoEngine) {
+            psychoEngine.finish();
+        }
+
+    }
+
+    /** Psychophysics logic that shows a countdown of changing length, one step per frame */
+    static class LogicCountdown implements PsychoLogic {
+
+        /** Countdown text */
+        Text text;
+
+        /** Remaining steps */
+        int count = 1000;
+
+        /** Upload submits once the first frame is drawn */
+        int uploads;
+
+        @Override
+        public void init(PsychoEngine psychoEngine) {
+            text = new Text();
+            text.setPosition(0.1, 0.1);
+            view.add(text);
+        }
+
+        @Override
+        public void input(PsychoEngine psychoEngine, Command command) {
+        }
+
+        @Override
+        public void update(PsychoEngine psychoEngine) {
+            if (count == 999) uploads = psychoEngine.getVulkanManager().getUploadSubmits();
+            text.setText(count % 7 == 0 ? "" : "T-" + count);
+            if (--count == 0) psychoEngine.finish();
+        }
+
+    }
+
+    /** Psychophysics logic that adds a text every frame a few times */
+    static class LogicLateText implements PsychoLogic {
+
+        /** Number of texts added */
+        int texts;
+
+        @Override
+        public void init(PsychoEngine psychoEngine) {
+        }
+
+        @Override
+        public void input(PsychoEngine psychoEngine, Command command) {
+        }
+
+        @Override
+        public void update(PsychoEngine psychoEngine) {
+            if (texts == 10) {
+                psychoEngine.finish();
+                return;
+            }
+            Text text = new Text();
+            text.setText("Text number " + ++texts + " added after start");
+            text.setPosition(0.1, 0.05 * texts);
+            view.add(text);
+        }
+
+    }
+
+    /** Psychophysics logic that swaps between textures of the same size every frame a few times */
+    static class LogicTextures implements PsychoLogic {
+
+        /** Item with the textures */
+        Item item;
+
+        /** Number of texture swaps */
+        int swaps;
+
+        @Override
+        public void init(PsychoEngine psychoEngine) {
+            item = new Item(new Model(ModelType.SQUARE), new Texture(TextureType.SINE));
+            item.size(5, 5);
+            view.add(item);
+        }
+
+        @Override
+        public void input(PsychoEngine psychoEngine, Command command) {
+        }
+
+        @Override
+        public void update(PsychoEngine psychoEngine) {
+            if (swaps++ == 10) psychoEngine.finish();
+            else item.update(new Texture(swaps % 2 == 1 ? TextureType.G1 : TextureType.SINE));
+        }
+
+    }
+
+    /** Psychophysics logic that swaps in an image that does not exist */
+    static class LogicMissingImage implements PsychoLogic {
+
+        /** Item with the texture */
+        Item item;
+
+        /** Texture of the item */
+        Texture texture;
+
+        /** Image being loaded */
+        CompletableFuture<Texture> loading;
+
+        /** Number of frames */
+        int frames;
+
+        @Override
+        public void init(PsychoEngine psychoEngine) {
+            texture = new Texture(TextureType.SINE);
+            item = new Item(new Model(ModelType.SQUARE), texture);
+            view.add(item);
+            loading = TextureLoader.load("missing.png");
+            item.update(loading);
+        }
+
+        @Override
+        public void input(PsychoEngine psychoEngine, Command command) {
+        }
+
+        @Override
+        public void update(PsychoEngine psychoEngine) {
+            if (frames++ > 10 && loading.isDone()) psychoEngine.finish();
+        }
+
+    }
+
     /** Psychophysics logic to show a simple triangle */
     static class LogicTriangle implements PsychoLogic {
 
@@ -0,0 +1,79 @@
+package es.optocom.jovp.rendering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import es.optocom.jovp.definitions.ShaderKind;
+
+/**
+ *
+ * Unitary tests for the shader cache, compiling with shaderc without a device
+ *
+ * @since 0.0.1
+ */
+public class ShaderCacheTest {
+
+    /**
+     *
+     * A shader is compiled once and read from the cache directory afterwards
+     *
+     * @since 0.0.1
+     */
+    @Test
+    public void compiledOnce(@TempDir Path cacheDirectory) throws IOException {
+        Path defaultDirectory = VulkanSetup.cacheDirectory;
+        VulkanSetup.cacheDirectory = cacheDirectory;
+        try {
+            int compilations = ShaderCache.compilations;
+            ByteBuffer compiled = ShaderCache.load("es/optocom/jovp/shaders/cached.frag", ShaderKind.FRAGMENT_SHADER);
+            assertEquals(compilations + 1, ShaderCache.compilations);
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(cacheDirectory.resolve("shaders"))) {
+                files = stream.toList();
+            }
+            assertEquals(1, files.size());
+            assertTrue(files.get(0).getFileName().toString().matches("[0-9a-f]{64}\\.spv"), "Not named by the SHA-256 of the source");
+            ByteBuffer cached = ShaderCache.load("es/optocom/jovp/shaders/cached.frag", ShaderKind.FRAGMENT_SHADER);
+            assertEquals(compilations + 1, ShaderCache.compilations, "Cached shader was compiled again");
+            assertEquals(compiled, cached);
+        } finally {
+            VulkanSetup.cacheDirectory = defaultDirectory;
+        }
+    }
+
+    /**
+     *
+     * Bytecode compiled at build time is used while its source is unchanged,
+     * and compiled again from the source once it changes
+     *
+     * @since 0.0.1
+     */
+    @Test
+    public void precompiledMatchesSource(@TempDir Path cacheDirectory) {
+        Path defaultDirectory = VulkanSetup.cacheDirectory;
+        VulkanSetup.cacheDirectory = cacheDirectory;
+        try {
+            int compilations = ShaderCache.compilations;
+            ByteBuffer precompiled = ShaderCache.load("es/optocom/jovp/shaders/precompiled.frag", ShaderKind.FRAGMENT_SHADER);
+            assertEquals(compilations, ShaderCache.compilations, "Precompiled shader was compiled");
+            assertEquals(ByteBuffer.wrap("precompiled SPIR-V".getBytes(StandardCharsets.US_ASCII)), precompiled);
+            ByteBuffer stale = ShaderCache.load("es/optocom/jovp/shaders/stale.frag", ShaderKind.FRAGMENT_SHADER);
+            assertEquals(compilations + 1, ShaderCache.compilations, "Stale precompiled shader was used");
+            assertNotEquals(ByteBuffer.wrap("not SPIR-V".getBytes(StandardCharsets.US_ASCII)), stale);
+        } finally {
+            VulkanSetup.cacheDirectory = defaultDirectory;
+        }
+    }
+
+}